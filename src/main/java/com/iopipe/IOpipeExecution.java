@@ -285,6 +285,20 @@ public abstract class IOpipeExecution
 		return Thread.currentThread().getThreadGroup();
 	}
 	
+	/**
+	 * Returns a counter which changes whenever an execution starts or ends.
+	 * If the value has not changed since {@link #currentExecution()} was
+	 * called by a thread, then that thread still has the same execution. This
+	 * allows the current execution, or state derived from it, to be cached.
+	 *
+	 * @return The current execution epoch.
+	 * @since 2019/03/30
+	 */
+	public static final long executionEpoch()
+	{
+		return IOpipeService.__epoch();
+	}
+	
 	/**
 	 * Returns the current execution for the given thread.
 	 *
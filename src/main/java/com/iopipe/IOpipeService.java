@@ -16,6 +16,7 @@ import com.iopipe.plugin.IOpipePluginExecution;
 import com.iopipe.plugin.IOpipePluginPostExecutable;
 import com.iopipe.plugin.IOpipePluginPreExecutable;
 import com.iopipe.plugin.NoSuchPluginException;
+import com.iopipe.plugin.profiler.ProfilerColdStart;
 import java.io.Closeable;
 import java.io.InputStream;
 import java.io.IOException;
@@ -26,6 +27,7 @@ import java.lang.ref.WeakReference;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -73,6 +75,10 @@ public final class IOpipeService
 	private static final AtomicReference<Reference<IOpipeExecution>> _LAST =
 		new AtomicReference<>();
 	
+	/** Changes whenever the current execution of any thread may change. */
+	private static final AtomicLong _EPOCH =
+		new AtomicLong();
+	
 	/** If an instance was created then this will be that one instance. */
 	private static volatile IOpipeService _INSTANCE;
 	
@@ -94,6 +100,17 @@ public final class IOpipeService
 	/** Plugin state. */
 	final __Plugins__ _plugins;
 	
+	/**
+	 * Starts profiling the cold start as soon as the service is loaded, if
+	 * that is enabled.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		ProfilerColdStart.start();
+	}
+	
 	/**
 	 * Initializes the service using the default configuration.
 	 *
@@ -319,7 +336,7 @@ public final class IOpipeService
 		
 		// Is this enabled?
 		boolean enabled = config.isEnabled();
-				
+		
 		// Is this coldstarted?
 		boolean coldstarted = !this._coldstartflag.getAndSet(true);
 		
@@ -342,6 +359,10 @@ public final class IOpipeService
 		AtomicReference<Reference<IOpipeExecution>> lastexec = _LAST;
 		lastexec.compareAndSet(null, refexec);
 		
+		// Anything which cached the current execution must look it up again
+		AtomicLong epoch = _EPOCH;
+		epoch.incrementAndGet();
+		
 		// If disabled, just run the function
 		IOpipeConfiguration config = this.config;
 		if (!enabled)
@@ -357,6 +378,7 @@ public final class IOpipeService
 				// Clear the last execution because it is no longer occuring
 				executions.set(null);
 				lastexec.compareAndSet(refexec, null);
+				epoch.incrementAndGet();
 			}
 		}
 		
@@ -385,6 +407,10 @@ public final class IOpipeService
 						i);
 				}
 		
+		// Count garbage collections which happen while the function runs
+		__GCMonitor__ gcmonitor = __GCMonitor__.INSTANCE;
+		__GCMonitor__.__Tally__ gctally = gcmonitor.begin();
+		
 		// Run the function
 		R value = null;
 		Throwable exception = null;
@@ -404,6 +430,9 @@ public final class IOpipeService
 			exec.label("@iopipe/error");
 		}
 		
+		// Record garbage collection metrics
+		gcmonitor.end(gctally, exec);
+		
 		// Run post-execution plugins
 		for (__Plugins__.__Info__ i : pinfos)
 			if (i.isEnabled())
@@ -428,6 +457,7 @@ public final class IOpipeService
 		// still associated with it
 		executions.set(null);
 		lastexec.compareAndSet(refexec, null);
+		epoch.incrementAndGet();
 		
 		// Throw the called exception as if the wrapper did not have any
 		// trouble
@@ -457,6 +487,17 @@ public final class IOpipeService
 		return rv;
 	}
 	
+	/**
+	 * Returns the current execution epoch.
+	 *
+	 * @return The current execution epoch.
+	 * @since 2019/03/30
+	 */
+	static final long __epoch()
+	{
+		return _EPOCH.get();
+	}
+	
 	/**
 	 * Returns the current execution of the current thread.
 	 *
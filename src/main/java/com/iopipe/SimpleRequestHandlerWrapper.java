@@ -2,6 +2,7 @@ package com.iopipe;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.iopipe.plugin.profiler.ProfilerColdStart;
 
 /**
  * This class is used as a base to create simple instances of wrapped lambdas
@@ -16,6 +17,17 @@ import com.amazonaws.services.lambda.runtime.RequestHandler;
 public abstract class SimpleRequestHandlerWrapper<I, O>
 	implements RequestHandler<I, O>
 {
+	/**
+	 * Starts profiling the cold start before the handler is created, if
+	 * that is enabled.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		ProfilerColdStart.start();
+	}
+	
 	/**
 	 * This method is implemented by sub-classes and is used as the actual
 	 * entry point for lambdas.
@@ -2,6 +2,7 @@ package com.iopipe;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.iopipe.plugin.profiler.ProfilerColdStart;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -17,6 +18,17 @@ import java.io.OutputStream;
 public abstract class SimpleRequestStreamHandlerWrapper
 	implements RequestStreamHandler
 {
+	/**
+	 * Starts profiling the cold start before the handler is created, if
+	 * that is enabled.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		ProfilerColdStart.start();
+	}
+	
 	/**
 	 * This method is implemented by sub-classes and is used as the actual
 	 * entry point for lambdas.
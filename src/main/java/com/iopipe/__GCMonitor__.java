@@ -0,0 +1,319 @@
+package com.iopipe;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.pmw.tinylog.Logger;
+
+/**
+ * This listens for garbage collection notifications from the virtual machine
+ * and attributes each pause to the executions which were running when it
+ * happened, so that the time spent in garbage collection is known for every
+ * invocation.
+ *
+ * Notifications are delivered on their own thread shortly after the
+ * collection finishes, so the number of collections each collector has done
+ * is remembered when an execution starts so that collections from before
+ * it are not counted against it.
+ *
+ * @since 2019/04/09
+ */
+final class __GCMonitor__
+	implements NotificationListener
+{
+	/** The single instance, registered when first used. */
+	static final __GCMonitor__ INSTANCE =
+		new __GCMonitor__();
+	
+	/** The executions which are currently running. */
+	private final Set<__Tally__> _active =
+		ConcurrentHashMap.<__Tally__>newKeySet();
+	
+	/** The garbage collectors being listened to. */
+	private final List<GarbageCollectorMXBean> _collectors;
+	
+	/** The names of the memory pools which are in the heap. */
+	private final Set<String> _heap;
+	
+	/** Is listening to notifications supported? */
+	private final boolean _supported;
+	
+	/**
+	 * Registers the listener on every garbage collector.
+	 *
+	 * @since 2019/04/09
+	 */
+	private __GCMonitor__()
+	{
+		List<GarbageCollectorMXBean> collectors = null;
+		Set<String> heap = new HashSet<>();
+		boolean supported = false;
+		try
+		{
+			collectors = ManagementFactory.getGarbageCollectorMXBeans();
+			
+			// Only the heap is reclaimed, other pools such as the code cache
+			// are also reported by each collection
+			for (MemoryPoolMXBean pool :
+				ManagementFactory.getMemoryPoolMXBeans())
+				if (pool.getType() == MemoryType.HEAP)
+					heap.add(pool.getName());
+			
+			for (GarbageCollectorMXBean gc : collectors)
+				if (gc instanceof NotificationEmitter)
+				{
+					((NotificationEmitter)gc).addNotificationListener(this,
+						null, null);
+					supported = true;
+				}
+		}
+		
+		// Not supported on this virtual machine
+		catch (NoClassDefFoundError|SecurityException|
+			UnsupportedOperationException e)
+		{
+			Logger.debug(e, "Could not listen for garbage collections.");
+		}
+		
+		this._collectors = collectors;
+		this._heap = heap;
+		this._supported = supported;
+	}
+	
+	/**
+	 * Starts counting garbage collections for an execution.
+	 *
+	 * @return The tally for the execution or {@code null} if garbage
+	 * collections cannot be counted.
+	 * @since 2019/04/09
+	 */
+	final __Tally__ begin()
+	{
+		if (!this._supported)
+			return null;
+		
+		// Only collections after these are for the execution
+		Map<String, Long> counts = new HashMap<>();
+		for (GarbageCollectorMXBean gc : this._collectors)
+			counts.put(gc.getName(), gc.getCollectionCount());
+		
+		__Tally__ rv = new __Tally__(counts);
+		this._active.add(rv);
+		return rv;
+	}
+	
+	/**
+	 * Stops counting garbage collections for an execution and records them
+	 * as metrics.
+	 *
+	 * @param __t The tally to stop, may be {@code null}.
+	 * @param __e The execution to record metrics in.
+	 * @throws NullPointerException If no execution was specified.
+	 * @since 2019/04/09
+	 */
+	final void end(__Tally__ __t, IOpipeExecution __e)
+		throws NullPointerException
+	{
+		if (__e == null)
+			throw new NullPointerException();
+		
+		if (__t == null)
+			return;
+		
+		this._active.remove(__t);
+		__t.__record(__e);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public final void handleNotification(Notification __n, Object __hb)
+	{
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.
+			equals(__n.getType()))
+			return;
+		
+		// Nothing is running, so the collection is not needed
+		Set<__Tally__> active = this._active;
+		if (active.isEmpty())
+			return;
+		
+		GarbageCollectionNotificationInfo info =
+			GarbageCollectionNotificationInfo.from(
+				(CompositeData)__n.getUserData());
+		
+		// Concurrent collectors report the entire cycle which mostly runs
+		// alongside the application, so it is not a pause
+		if (!__GCMonitor__.__isPause(info.getGcAction()))
+			return;
+		
+		// The identifier is the number of collections the collector has done
+		GcInfo gc = info.getGcInfo();
+		String name = info.getGcName();
+		long id = gc.getId(),
+			pause = gc.getDuration(),
+			reclaimed = __GCMonitor__.__reclaimed(gc.getMemoryUsageBeforeGc(),
+				gc.getMemoryUsageAfterGc(), this._heap);
+		String cause = name + ": " + info.getGcCause();
+		for (__Tally__ t : active)
+		{
+			Long before = t.counts.get(name);
+			if (before == null || id > before)
+				t.__add(pause, cause, reclaimed);
+		}
+	}
+	
+	/**
+	 * Checks if the collection with the given action paused the
+	 * application, concurrent collectors report the end of each cycle
+	 * separately from the end of each pause.
+	 *
+	 * @param __a The action of the collection.
+	 * @return If the collection was a pause.
+	 * @since 2019/04/11
+	 */
+	static final boolean __isPause(String __a)
+	{
+		return __a == null || !__a.endsWith(" cycle");
+	}
+	
+	/**
+	 * Returns the number of bytes the heap shrunk by during a collection,
+	 * objects which were moved between pools are not counted as reclaimed.
+	 *
+	 * @param __b The memory usage of each pool before the collection.
+	 * @param __a The memory usage of each pool after the collection.
+	 * @param __h The names of the pools in the heap, if this is empty then
+	 * every pool is counted.
+	 * @return The number of bytes which were reclaimed, this is never
+	 * negative.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/11
+	 */
+	static final long __reclaimed(Map<String, MemoryUsage> __b,
+		Map<String, MemoryUsage> __a, Set<String> __h)
+		throws NullPointerException
+	{
+		if (__b == null || __a == null || __h == null)
+			throw new NullPointerException();
+		
+		long before = 0,
+			after = 0;
+		for (Map.Entry<String, MemoryUsage> e : __b.entrySet())
+		{
+			String pool = e.getKey();
+			MemoryUsage post = __a.get(pool);
+			if (post == null || (!__h.isEmpty() && !__h.contains(pool)))
+				continue;
+			
+			before += e.getValue().getUsed();
+			after += post.getUsed();
+		}
+		
+		return Math.max(0, before - after);
+	}
+	
+	/**
+	 * The garbage collections which happened during a single execution.
+	 *
+	 * @since 2019/04/09
+	 */
+	static final class __Tally__
+	{
+		/** The number of collections for each collector at the start. */
+		protected final Map<String, Long> counts;
+		
+		/** The number of collections. */
+		private int _count;
+		
+		/** The total pause time in milliseconds. */
+		private long _pause;
+		
+		/** The longest pause time in milliseconds. */
+		private long _maxpause;
+		
+		/** The cause of the longest pause. */
+		private String _maxcause;
+		
+		/** The number of bytes which were reclaimed. */
+		private long _reclaimed;
+		
+		/**
+		 * Initializes the tally.
+		 *
+		 * @param __c The number of collections for each collector.
+		 * @throws NullPointerException On null arguments.
+		 * @since 2019/04/09
+		 */
+		private __Tally__(Map<String, Long> __c)
+			throws NullPointerException
+		{
+			if (__c == null)
+				throw new NullPointerException();
+			
+			this.counts = __c;
+		}
+		
+		/**
+		 * Adds a single collection.
+		 *
+		 * @param __p The pause time in milliseconds.
+		 * @param __c The cause of the collection.
+		 * @param __r The number of bytes reclaimed.
+		 * @since 2019/04/09
+		 */
+		private final synchronized void __add(long __p, String __c, long __r)
+		{
+			this._count++;
+			this._pause += __p;
+			this._reclaimed += __r;
+			
+			if (this._maxcause == null || __p > this._maxpause)
+			{
+				this._maxpause = __p;
+				this._maxcause = __c;
+			}
+		}
+		
+		/**
+		 * Records the collections as metrics in the execution.
+		 *
+		 * @param __e The execution to record to.
+		 * @throws NullPointerException On null arguments.
+		 * @since 2019/04/09
+		 */
+		private final synchronized void __record(IOpipeExecution __e)
+			throws NullPointerException
+		{
+			if (__e == null)
+				throw new NullPointerException();
+			
+			// Nothing is recorded if there were no collections
+			String maxcause = this._maxcause;
+			if (maxcause == null)
+				return;
+			
+			__e.customMetric("@iopipe/gc.count", this._count);
+			__e.customMetric("@iopipe/gc.pause", this._pause);
+			__e.customMetric("@iopipe/gc.pause.max", this._maxpause);
+			__e.customMetric("@iopipe/gc.pause.max.cause", maxcause);
+			__e.customMetric("@iopipe/gc.reclaimed", this._reclaimed);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.iopipe.IOpipeService;
 import com.iopipe.IOpipeWrappedException;
+import com.iopipe.plugin.profiler.ProfilerColdStart;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Type;
@@ -30,6 +31,17 @@ public final class GenericAWSRequestHandler
 	private final AtomicReference<ObjectTranslator> _cachetrans =
 		new AtomicReference<>();
 	
+	/**
+	 * Starts profiling the cold start before the handler is created, if
+	 * that is enabled.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		ProfilerColdStart.start();
+	}
+	
 	/**
 	 * Initializes the entry point for the generic handler using the
 	 * default system provided entry point.
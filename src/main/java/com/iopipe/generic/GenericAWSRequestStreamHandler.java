@@ -4,6 +4,7 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
 import com.iopipe.IOpipeService;
 import com.iopipe.IOpipeWrappedException;
+import com.iopipe.plugin.profiler.ProfilerColdStart;
 import java.lang.invoke.MethodHandle;
 import java.io.InputStream;
 import java.io.IOException;
@@ -21,6 +22,17 @@ public final class GenericAWSRequestStreamHandler
 	/** The handle used for entry. */
 	protected final MethodHandle handle;
 	
+	/**
+	 * Starts profiling the cold start before the handler is created, if
+	 * that is enabled.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		ProfilerColdStart.start();
+	}
+	
 	/**
 	 * Initializes the entry point for the generic stream handler using the
 	 * default system provided entry point.
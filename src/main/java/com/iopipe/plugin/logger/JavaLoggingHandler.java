@@ -0,0 +1,318 @@
+package com.iopipe.plugin.logger;
+
+import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+/**
+ * This is a handler for {@code java.util.logging} which forwards records to
+ * the logger plugin, so that existing logging reaches IOpipe.
+ *
+ * Messages are formatted into a buffer which is reused by each thread and
+ * the buffer is passed to the logger as is, so no intermediate strings are
+ * created for messages whose parameters are all strings. If a formatter was
+ * set then it formats the message instead.
+ *
+ * This may be added to the root logger or specified in
+ * {@code logging.properties} as a handler.
+ *
+ * @since 2019/03/29
+ */
+public final class JavaLoggingHandler
+	extends Handler
+{
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public final void close()
+	{
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public final void flush()
+	{
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public final void publish(LogRecord __r)
+	{
+		if (__r == null || !this.isLoggable(__r))
+			return;
+		
+		// Only log if the plugin is enabled
+		__ThreadState__ state = __ThreadState__.current();
+		LoggerExecution logger = state.logger();
+		if (logger == null)
+			return;
+		
+		// A formatter which was set formats the message with its parameters,
+		// otherwise the message is localized here
+		Formatter formatter = this.getFormatter();
+		String message;
+		Object[] params;
+		if (formatter != null)
+		{
+			message = formatter.formatMessage(__r);
+			params = null;
+		}
+		else
+		{
+			message = JavaLoggingHandler.__localize(__r);
+			params = __r.getParameters();
+		}
+		
+		// Messages without parameters are used as is
+		Throwable thrown = __r.getThrown();
+		if (thrown == null && (message == null || params == null ||
+			params.length == 0))
+		{
+			logger.log(__r.getMillis(), JavaLoggingHandler.__severity(
+				__r.getLevel()), __r.getLoggerName(), message);
+			return;
+		}
+		
+		// Format into the buffer for this thread
+		StringBuilder text = state.text();
+		if (message != null)
+			JavaLoggingHandler.__format(text, message, params);
+		
+		// Include the exception and where it happened
+		if (thrown != null)
+		{
+			if (text.length() > 0)
+				text.append('\n');
+			JavaLoggingHandler.__appendThrown(text, thrown);
+		}
+		
+		logger.log(__r.getMillis(), JavaLoggingHandler.__severity(
+			__r.getLevel()), __r.getLoggerName(), text);
+	}
+	
+	/**
+	 * Appends the given exception with its suppressed exceptions and causes.
+	 *
+	 * @param __sb The output buffer.
+	 * @param __t The exception to append.
+	 * @since 2019/03/29
+	 */
+	private static final void __appendThrown(StringBuilder __sb,
+		Throwable __t)
+	{
+		JavaLoggingHandler.__appendThrown(__sb, __t, "", "",
+			Collections.<Throwable>newSetFromMap(new IdentityHashMap<>()));
+	}
+	
+	/**
+	 * Appends the given exception with its suppressed exceptions and causes
+	 * in the same way that {@link Throwable#printStackTrace()} does.
+	 *
+	 * @param __sb The output buffer.
+	 * @param __t The exception to append.
+	 * @param __c The caption which is placed before the exception, if this
+	 * is empty then this is the first exception.
+	 * @param __p The prefix which is placed before each line.
+	 * @param __s The exceptions which were already appended, so that
+	 * circular references are not followed.
+	 * @since 2019/04/11
+	 */
+	private static final void __appendThrown(StringBuilder __sb,
+		Throwable __t, String __c, String __p, Set<Throwable> __s)
+	{
+		if (!__c.isEmpty())
+			__sb.append('\n').append(__p).append(__c);
+		
+		// Do not loop forever on circular references
+		if (!__s.add(__t))
+		{
+			__sb.append("[CIRCULAR REFERENCE: ").append(__t).append(']');
+			return;
+		}
+		
+		__sb.append(__t);
+		for (StackTraceElement e : __t.getStackTrace())
+			__sb.append('\n').append(__p).append("\tat ").append(e);
+		
+		for (Throwable s : __t.getSuppressed())
+			JavaLoggingHandler.__appendThrown(__sb, s, "Suppressed: ",
+				__p + "\t", __s);
+		
+		Throwable cause = __t.getCause();
+		if (cause != null)
+			JavaLoggingHandler.__appendThrown(__sb, cause, "Caused by: ", __p,
+				__s);
+	}
+	
+	/**
+	 * Formats the given message, simple parameters such as {@code {0}} are
+	 * handled directly when every parameter is a string and anything else
+	 * uses {@link MessageFormat}, since it formats numbers and dates.
+	 *
+	 * @param __sb The output buffer.
+	 * @param __m The message to format.
+	 * @param __p The parameters, may be {@code null}.
+	 * @since 2019/03/29
+	 */
+	private static final void __format(StringBuilder __sb, String __m,
+		Object[] __p)
+	{
+		// Nothing to format, this matches the check which is performed by
+		// the standard formatter
+		if (__p == null || __p.length == 0 || (__m.indexOf("{0") < 0 &&
+			__m.indexOf("{1") < 0 && __m.indexOf("{2") < 0 &&
+			__m.indexOf("{3") < 0))
+		{
+			__sb.append(__m);
+			return;
+		}
+		
+		// Use the real formatter for anything complex
+		if (JavaLoggingHandler.__needsFormatter(__m, __p))
+		{
+			try
+			{
+				__sb.append(MessageFormat.format(__m, __p));
+			}
+			catch (IllegalArgumentException e)
+			{
+				__sb.append(__m);
+			}
+			
+			return;
+		}
+		
+		// Only simple parameters remain
+		for (int i = 0, n = __m.length(); i < n; i++)
+		{
+			char c = __m.charAt(i);
+			
+			// Not a parameter
+			if (c != '{')
+			{
+				__sb.append(c);
+				continue;
+			}
+			
+			// Read the parameter index
+			int end = i + 1,
+				index = 0;
+			for (char d; (d = __m.charAt(end)) != '}'; end++)
+				index = (index * 10) + (d - '0');
+			
+			// Parameters which do not exist are left as is
+			if (index >= 0 && index < __p.length)
+				__sb.append(__p[index]);
+			else
+				__sb.append(__m, i, end + 1);
+			
+			i = end;
+		}
+	}
+	
+	/**
+	 * Localizes the message of the given record using its resource bundle.
+	 *
+	 * @param __r The record to get the message of.
+	 * @return The localized message, or the message as is if there is no
+	 * bundle or it has no such message.
+	 * @since 2019/04/11
+	 */
+	private static final String __localize(LogRecord __r)
+	{
+		String message = __r.getMessage();
+		ResourceBundle bundle = __r.getResourceBundle();
+		if (message == null || bundle == null)
+			return message;
+		
+		try
+		{
+			return bundle.getString(message);
+		}
+		catch (MissingResourceException e)
+		{
+			return message;
+		}
+	}
+	
+	/**
+	 * Checks if the message or parameters have anything the simple
+	 * formatter cannot handle.
+	 *
+	 * @param __m The message to check.
+	 * @param __p The parameters to check.
+	 * @return If the real formatter is needed.
+	 * @since 2019/03/29
+	 */
+	private static final boolean __needsFormatter(String __m, Object[] __p)
+	{
+		// Anything other than strings may be formatted differently, such as
+		// numbers which are grouped
+		for (Object p : __p)
+			if (p != null && !(p instanceof CharSequence))
+				return true;
+		
+		for (int i = 0, n = __m.length(); i < n; i++)
+		{
+			char c = __m.charAt(i);
+			
+			if (c == '\'')
+				return true;
+			
+			// Only digits are permitted in parameters
+			if (c == '{')
+			{
+				int end = i + 1;
+				while (end < n && __m.charAt(end) >= '0' &&
+					__m.charAt(end) <= '9')
+					end++;
+				
+				if (end == i + 1 || end >= n || __m.charAt(end) != '}')
+					return true;
+				
+				i = end;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns the severity which is used for the given level.
+	 *
+	 * @param __l The level to map.
+	 * @return The severity.
+	 * @since 2019/03/29
+	 */
+	private static final String __severity(Level __l)
+	{
+		if (__l == null)
+			return null;
+		
+		int value = __l.intValue();
+		if (value >= Level.SEVERE.intValue())
+			return "ERROR";
+		else if (value >= Level.WARNING.intValue())
+			return "WARN";
+		else if (value >= Level.INFO.intValue())
+			return "INFO";
+		else if (value >= Level.FINE.intValue())
+			return "DEBUG";
+		return "TRACE";
+	}
+}
@@ -7,17 +7,15 @@ import com.iopipe.plugin.IOpipePluginExecution;
 import com.iopipe.plugin.IOpipePluginPostExecutable;
 import com.iopipe.IOpipeSigner;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.json.Json;
 import javax.json.JsonObject;
 import org.pmw.tinylog.Logger;
@@ -30,9 +28,13 @@ import org.pmw.tinylog.Logger;
 public final class LoggerExecution
 	implements IOpipePluginExecution
 {
-	/** Lock on logging to prevent spliced logs. */
+	/** Buffers for each thread, these are shared by all executions. */
+	private static final ThreadLocal<__LogBuffer__> _BUFFERS =
+		ThreadLocal.<__LogBuffer__>withInitial(__LogBuffer__::new);
+	
+	/** Lock on publishing buffers to prevent spliced logs. */
 	protected final Object lock =
-		new Object();;
+		new Object();
 	
 	/** The temporary file. */
 	protected final Path tempfile;
@@ -40,12 +42,26 @@ public final class LoggerExecution
 	/** The channel for the data. */
 	protected final FileChannel channel;
 	
-	/** The stream to write to for JSON data. */
-	protected final Writer writer;
-	
 	/** The signer. */
 	private final IOpipeSigner _signer;
 	
+	/** Thread buffers which have been bound to this execution. */
+	private final List<__LogBuffer__> _bound =
+		new ArrayList<>();
+	
+	/** The timestamp of every line published to the file, in file order. */
+	private long[] _times =
+		new long[256];
+	
+	/** The number of lines which have been published. */
+	private int _numlines;
+	
+	/** The number of lines which were dropped. */
+	private long _droppedlines;
+	
+	/** Has this log been finalized? */
+	private boolean _closed;
+	
 	/**
 	 * Initializes the logger plugin collector.
 	 *
@@ -65,7 +81,6 @@ public final class LoggerExecution
 		// might not initialize
 		Path tempfile = null;
 		FileChannel channel = null;
-		Writer writer = null;
 		
 		// If the signer is available, setup the log to print to
 		if (signer != null)
@@ -81,22 +96,9 @@ public final class LoggerExecution
 					StandardOpenOption.TRUNCATE_EXISTING,
 					StandardOpenOption.READ,
 					StandardOpenOption.WRITE);
-				
-				writer = new OutputStreamWriter(
-					Channels.newOutputStream(channel), "utf-8");
 			}
 			catch (IOException e)
 			{
-				// Close the writer
-				if (writer != null)
-					try
-					{
-						writer.close();
-					}
-					catch (IOException f)
-					{
-					}
-				
 				// Close the channel
 				if (channel != null)
 					try
@@ -121,14 +123,12 @@ public final class LoggerExecution
 				signer = null;
 				tempfile = null;
 				channel = null;
-				writer = null;
 			}
 		
 		// Use these
 		this._signer = signer;
 		this.tempfile = tempfile;
 		this.channel = channel;
-		this.writer = writer;
 	}
 	
 	/**
@@ -141,8 +141,8 @@ public final class LoggerExecution
 	 */
 	public final void log(Enum<?> __v, String __n, char[] __c)
 	{
-		this.log(System.currentTimeMillis(), (__v != null ? __v.name() : null),
-			__n, (__c != null ? CharBuffer.wrap(__c) : null));
+		this.__log(System.currentTimeMillis(), (__v != null ? __v.name() : null),
+			__n, null, __c, 0, (__c != null ? __c.length : 0));
 	}
 	
 	/**
@@ -156,8 +156,8 @@ public final class LoggerExecution
 	 */
 	public final void log(long __utcms, Enum<?> __v, String __n, char[] __c)
 	{
-		this.log(__utcms, (__v != null ? __v.name() : null),
-			__n, (__c != null ? CharBuffer.wrap(__c) : null));
+		this.__log(__utcms, (__v != null ? __v.name() : null),
+			__n, null, __c, 0, (__c != null ? __c.length : 0));
 	}
 	
 	/**
@@ -175,8 +175,8 @@ public final class LoggerExecution
 	public final void log(Enum<?> __v, String __n, char[] __c, int __o, int __l)
 		throws IndexOutOfBoundsException
 	{
-		this.log(System.currentTimeMillis(), (__v != null ? __v.name() : null),
-			__n, (__c != null ? CharBuffer.wrap(__c, __o, __l) : null));
+		this.__log(System.currentTimeMillis(), (__v != null ? __v.name() : null),
+			__n, null, __c, __o, __l);
 	}
 	
 	/**
@@ -196,8 +196,8 @@ public final class LoggerExecution
 		int __l)
 		throws IndexOutOfBoundsException
 	{
-		this.log(__utcms, (__v != null ? __v.name() : null),
-			__n, (__c != null ? CharBuffer.wrap(__c, __o, __l) : null));
+		this.__log(__utcms, (__v != null ? __v.name() : null),
+			__n, null, __c, __o, __l);
 	}
 	
 	/**
@@ -237,8 +237,8 @@ public final class LoggerExecution
 	 */
 	public final void log(String __v, String __n, char[] __c)
 	{
-		this.log(System.currentTimeMillis(), __v,
-			__n, (__c != null ? CharBuffer.wrap(__c) : null));
+		this.__log(System.currentTimeMillis(), __v,
+			__n, null, __c, 0, (__c != null ? __c.length : 0));
 	}
 	
 	/**
@@ -252,8 +252,8 @@ public final class LoggerExecution
 	 */
 	public final void log(long __utcms, String __v, String __n, char[] __c)
 	{
-		this.log(__utcms, __v,
-			__n, (__c != null ? CharBuffer.wrap(__c) : null));
+		this.__log(__utcms, __v,
+			__n, null, __c, 0, (__c != null ? __c.length : 0));
 	}
 	
 	/**
@@ -271,8 +271,8 @@ public final class LoggerExecution
 	public final void log(String __v, String __n, char[] __c, int __o, int __l)
 		throws IndexOutOfBoundsException
 	{
-		this.log(System.currentTimeMillis(), __v,
-			__n, (__c != null ? CharBuffer.wrap(__c, __o, __l) : null));
+		this.__log(System.currentTimeMillis(), __v,
+			__n, null, __c, __o, __l);
 	}
 	
 	/**
@@ -292,8 +292,8 @@ public final class LoggerExecution
 		int __l)
 		throws IndexOutOfBoundsException
 	{
-		this.log(__utcms, __v,
-			__n, (__c != null ? CharBuffer.wrap(__c, __o, __l) : null));
+		this.__log(__utcms, __v,
+			__n, null, __c, __o, __l);
 	}
 	
 	/**
@@ -320,73 +320,7 @@ public final class LoggerExecution
 	 */
 	public final void log(long __utcms, String __v, String __n, CharSequence __msg)
 	{
-		try
-		{
-			Writer writer = this.writer;
-			if (writer == null)
-				return;	
-			
-			// Lock to prevent multiple threads from interleaving log structure
-			// data
-			Object lock = this.lock;
-			synchronized (lock)
-			{
-				writer.write('{');
-				
-				// The message
-				boolean did = false;
-				if (__msg != null)
-				{
-					did = true;
-					writer.write("\"message\": \"");
-					LoggerExecution.__writeChars(writer, __msg);
-					writer.write('"');
-				}
-				
-				// The name or source
-				if (__n != null)
-				{
-					if (did)
-						writer.write(", ");
-					
-					did = true;
-					writer.write("\"name\": \"");
-					LoggerExecution.__writeChars(writer, __n);
-					writer.write('"');
-				}
-				
-				// The level
-				if (__v != null)
-				{
-					if (did)
-						writer.write(", ");
-					
-					did = true;
-					writer.write("\"severity\": \"");
-					LoggerExecution.__writeChars(writer, __v);
-					writer.write('"');
-				}
-				
-				// Time in ISO-8601 format
-				if (did)
-					writer.write(", ");
-				writer.write("\"timestamp\": \"");
-				writer.write(Instant.ofEpochMilli(__utcms).toString());
-				writer.write('"');
-				
-				writer.write("}\n");
-				
-				// Flush it so it exists on the disk somewhere
-				writer.flush();
-			}
-		}
-		
-		// Ignore, do not log it either because this could be picked by a
-		// logging framework which would result in a logging message being
-		// generated.
-		catch (IOException e)
-		{
-		}
+		this.__log(__utcms, __v, __n, __msg, null, 0, 0);
 	}
 	
 	/**
@@ -429,11 +363,37 @@ public final class LoggerExecution
 			if (signer == null || channel == null)
 				return;
 			
-			// Lock on the signer so logs are not placed while we are reading
-			// the file data
+			// Stop any new threads from binding to this log
+			__LogBuffer__[] bound;
+			synchronized (this._bound)
+			{
+				this._closed = true;
+				bound = this._bound.<__LogBuffer__>toArray(
+					new __LogBuffer__[this._bound.size()]);
+			}
+			
+			// Publish whatever remains in the buffer of each thread and
+			// detach the buffers so that this execution may be freed
+			for (__LogBuffer__ buffer : bound)
+				synchronized (buffer)
+				{
+					if (buffer._owner == this)
+					{
+						this.__publish(buffer);
+						buffer._owner = null;
+					}
+				}
+			
+			// Lock so logs are not placed while we are reading the file data
 			Object lock = this.lock;
 			synchronized (lock)
 			{
+				// Mention that lines were dropped, otherwise it would not be
+				// known
+				long droppedlines = this._droppedlines;
+				if (droppedlines > 0)
+					this.__writeDropped(droppedlines);
+				
 				// Send the entire file to the remote server
 				try
 				{
@@ -443,8 +403,9 @@ public final class LoggerExecution
 					byte[] buf = new byte[size];
 					channel.read(ByteBuffer.wrap(buf), 0L);
 					
-					// Send it in
-					signer.put(buf);
+					// Send it in, ordered by time
+					signer.put(LoggerExecution.__sortLines(buf,
+						this._times, this._numlines));
 				}
 				catch (IOException|OutOfMemoryError|NegativeArraySizeException|
 					RemoteException e)
@@ -459,7 +420,6 @@ public final class LoggerExecution
 		{
 			try
 			{
-				this.writer.close();
 				this.channel.close();
 			}
 			catch (IOException e)
@@ -482,62 +442,233 @@ public final class LoggerExecution
 	}
 	
 	/**
-	 * Writes log strings which are formatted for JSON strings.
+	 * Logs the given message, the message may either be a character sequence
+	 * or a character array which is encoded directly.
 	 *
-	 * @param __w The writer to write to.
-	 * @param __cs The input sequence.
-	 * @throws IOException On write errors.
-	 * @throws NullPointerException On null arguments.
-	 * @since 2018/09/26
+	 * @param __utcms The current time in UTC milliseconds.
+	 * @param __v The logging level.
+	 * @param __n The name of the log source.
+	 * @param __cs The message as a sequence, may be {@code null}.
+	 * @param __c The message as an array, used if the sequence is
+	 * {@code null}.
+	 * @param __o The offset into the array.
+	 * @param __l The length of the array.
+	 * @throws IndexOutOfBoundsException If the offset and/or length are
+	 * negative or exceed the array bounds.
+	 * @since 2019/03/27
 	 */
-	private static final void __writeChars(Writer __w, CharSequence __cs)
-		throws IOException, NullPointerException
+	private final void __log(long __utcms, String __v, String __n,
+		CharSequence __cs, char[] __c, int __o, int __l)
+		throws IndexOutOfBoundsException
 	{
-		if (__w == null || __cs == null)
-			throw new NullPointerException();
+		if (__c != null && (__o < 0 || __l < 0 || (__o + __l) < 0 ||
+			(__o + __l) > __c.length))
+			throw new IndexOutOfBoundsException();
 		
-		for (int i = 0, n = __cs.length(); i < n; i++)
+		if (this.channel == null)
+			return;
+		
+		// Each thread formats lines into its own buffer, the monitor on the
+		// buffer is only contended when the log is finalized
+		__LogBuffer__ buffer = _BUFFERS.get();
+		synchronized (buffer)
 		{
-			char c = __cs.charAt(i);
+			// The buffer may still be bound to a previous execution or it
+			// may never have been used by this one
+			if (buffer._owner != this && !this.__bind(buffer))
+				return;
 			
-			// Do we need to escape this character?
-			boolean escape = false;
-			switch (c)
+			buffer.append(__LogLimiter__.INSTANCE, __utcms, __v, __n, __cs,
+				__c, __o, __l);
+			
+			// Publish in bulk once enough has been buffered
+			if (buffer.isFull())
+				this.__publish(buffer);
+		}
+	}
+	
+	/**
+	 * Binds the given thread buffer to this execution, if it is bound to
+	 * another execution then its lines will be published there first.
+	 *
+	 * @param __b The buffer to bind, the caller must hold its monitor.
+	 * @return If the buffer was bound, this will be {@code false} if this
+	 * log has already been finalized.
+	 * @since 2019/03/26
+	 */
+	private final boolean __bind(__LogBuffer__ __b)
+	{
+		// Make sure any lines for the other log go there
+		LoggerExecution owner = __b._owner;
+		if (owner != null)
+			owner.__publish(__b);
+		__b._owner = null;
+		
+		// Register it so that it is drained when the log is finalized
+		List<__LogBuffer__> bound = this._bound;
+		synchronized (bound)
+		{
+			if (this._closed)
+				return false;
+			
+			bound.add(__b);
+		}
+		
+		__b._owner = this;
+		return true;
+	}
+	
+	/**
+	 * Publishes all of the lines in the given buffer to the log file.
+	 *
+	 * @param __b The buffer to publish, the caller must hold its monitor.
+	 * @since 2019/03/26
+	 */
+	private final void __publish(__LogBuffer__ __b)
+	{
+		int count = __b._count,
+			dropped = __b._dropped;
+		if (count <= 0 && dropped <= 0)
+			return;
+		
+		try
+		{
+			// Any repeated line must be finished first
+			__b.finish();
+			
+			__LogEncoder__ encoder = __b.encoder;
+			ByteBuffer data = ByteBuffer.wrap(encoder._bytes, 0,
+				encoder._length);
+			
+			// Lock so lines from other threads are not interleaved
+			Object lock = this.lock;
+			synchronized (lock)
 			{
-				case '"':
-				case '\\':
-				case '/':
-					escape = true;
-					break;
+				FileChannel channel = this.channel;
+				while (data.hasRemaining())
+					channel.write(data);
 				
-				case '\b':
-					escape = true;
-					c = 'b';
-					break;
-					
-				case '\n':
-					escape = true;
-					c = 'n';
-					break;
-					
-				case '\r':
-					escape = true;
-					c = 'r';
-					break;
-					
-				case '\t':
-					escape = true;
-					c = 't';
-					break;
+				this._droppedlines += dropped;
 				
-				default:
-					break;
+				// Record the time of each line
+				int numlines = this._numlines;
+				long[] times = this._times;
+				if (numlines + count > times.length)
+					this._times = (times = Arrays.copyOf(times,
+						Math.max(times.length << 1, numlines + count)));
+				System.arraycopy(__b._times, 0, times, numlines, count);
+				this._numlines = numlines + count;
 			}
+		}
+		
+		// Ignore, do not log it either because this could be picked by a
+		// logging framework which would result in a logging message being
+		// generated.
+		catch (IOException e)
+		{
+		}
+		
+		// Always clear so lines are never published twice
+		finally
+		{
+			__b.clear();
+		}
+	}
+	
+	/**
+	 * Writes a line which states how many lines were dropped.
+	 *
+	 * @param __n The number of dropped lines.
+	 * @since 2019/03/28
+	 */
+	private final void __writeDropped(long __n)
+	{
+		long now = System.currentTimeMillis();
+		
+		__LogEncoder__ encoder = new __LogEncoder__();
+		encoder.encode(now, "WARN", LoggerExecution.class.getName(),
+			__n + " log lines were dropped by sampling or rate limits.",
+			null, 0, 0);
+		
+		try
+		{
+			ByteBuffer data = ByteBuffer.wrap(encoder._bytes, 0,
+				encoder._length);
+			FileChannel channel = this.channel;
+			while (data.hasRemaining())
+				channel.write(data);
+			
+			// Record the time of the line
+			int numlines = this._numlines;
+			long[] times = this._times;
+			if (numlines >= times.length)
+				this._times = (times = Arrays.copyOf(times, numlines + 1));
+			times[numlines] = now;
+			this._numlines = numlines + 1;
+		}
+		catch (IOException e)
+		{
+		}
+	}
+	
+	/**
+	 * Sorts the lines in the log by their timestamps, lines which have the
+	 * same time keep the order they were published in.
+	 *
+	 * @param __b The log data.
+	 * @param __t The time of each line.
+	 * @param __n The number of lines.
+	 * @return The sorted log data.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/03/26
+	 */
+	private static final byte[] __sortLines(byte[] __b, long[] __t, int __n)
+		throws NullPointerException
+	{
+		if (__b == null || __t == null)
+			throw new NullPointerException();
+		
+		// A single thread will usually have logged in order
+		boolean sorted = true;
+		for (int i = 1; i < __n; i++)
+			if (__t[i] < __t[i - 1])
+			{
+				sorted = false;
+				break;
+			}
+		if (sorted)
+			return __b;
+		
+		// Find where every line starts, if this does not match then the
+		// file is not in a state which can be sorted
+		int[] starts = new int[__n + 1];
+		int at = 0;
+		for (int i = 0, n = __b.length; i < n && at < __n; i++)
+			if (__b[i] == '\n')
+				starts[++at] = i + 1;
+		if (at != __n)
+			return __b;
+		
+		// Stable sort of the lines by their time
+		Integer[] order = new Integer[__n];
+		for (int i = 0; i < __n; i++)
+			order[i] = i;
+		Arrays.<Integer>sort(order, (__a, __z) -> Long.compare(__t[__a],
+			__t[__z]));
+		
+		// Build sorted log
+		byte[] rv = new byte[__b.length];
+		int wp = 0;
+		for (int i = 0; i < __n; i++)
+		{
+			int line = order[i],
+				start = starts[line],
+				len = starts[line + 1] - start;
 			
-			if (escape)
-				__w.write('\\');
-			__w.write(c);
+			System.arraycopy(__b, start, rv, wp, len);
+			wp += len;
 		}
+		
+		return rv;
 	}
 }
-
@@ -1,8 +1,5 @@
 package com.iopipe.plugin.logger;
 
-import com.iopipe.IOpipeExecution;
-import com.iopipe.plugin.NoSuchPluginException;
-
 /**
  * These are helper methods to add log messages to the current execution
  * without needing to access it from other code.
@@ -230,18 +227,6 @@ public final class LoggerUtil
 	 */
 	private static final LoggerExecution __exec()
 	{
-		IOpipeExecution exec = IOpipeExecution.currentExecution();
-		if (exec == null)
-			return null;
-		
-		try
-		{
-			return exec.<LoggerExecution>plugin(LoggerExecution.class);
-		}
-		catch (ClassCastException|NoSuchPluginException e)
-		{
-			return null;
-		}
+		return __ThreadState__.current().logger();
 	}
 }
-
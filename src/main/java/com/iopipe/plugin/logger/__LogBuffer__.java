@@ -0,0 +1,186 @@
+package com.iopipe.plugin.logger;
+
+import java.util.Arrays;
+
+/**
+ * This is a buffer which is owned by a single thread and contains encoded
+ * log lines which have not yet been published to the log sink.
+ *
+ * Since each thread has its own buffer, log lines may be formatted without
+ * contending with any other thread. The monitor of the buffer is only ever
+ * contended when the owning execution finishes and drains every buffer.
+ *
+ * @since 2019/03/26
+ */
+final class __LogBuffer__
+{
+	/** The number of bytes to buffer before publishing them. */
+	static final int PUBLISH_THRESHOLD =
+		8192;
+	
+	/** The encoder for the JSON lines. */
+	final __LogEncoder__ encoder =
+		new __LogEncoder__();
+	
+	/** The timestamp of each line in the buffer. */
+	long[] _times =
+		new long[64];
+	
+	/** The number of lines in the buffer. */
+	int _count;
+	
+	/** The number of lines which were dropped by sampling or rate limits. */
+	int _dropped;
+	
+	/** The execution this buffer is currently bound to. */
+	LoggerExecution _owner;
+	
+	/** Where the last line starts, negative if there is none. */
+	private int _laststart =
+		-1;
+	
+	/** Where the key of the last line ends. */
+	private int _lastkeyend;
+	
+	/** The number of times the last line was logged. */
+	private int _lastcount;
+	
+	/**
+	 * Appends the given log line to the buffer, the message may either be
+	 * a character sequence or a character array.
+	 *
+	 * @param __lim The limiter for log lines.
+	 * @param __utcms The current time in UTC milliseconds.
+	 * @param __v The logging level.
+	 * @param __n The name of the log source.
+	 * @param __cs The message as a sequence, may be {@code null}.
+	 * @param __c The message as an array, used if the sequence is
+	 * {@code null}.
+	 * @param __o The offset into the array.
+	 * @param __l The length of the array.
+	 * @since 2019/03/26
+	 */
+	final void append(__LogLimiter__ __lim, long __utcms, String __v,
+		String __n, CharSequence __cs, char[] __c, int __o, int __l)
+	{
+		// Sampling is checked first since it is the cheapest
+		if (!__lim.sample(__v))
+		{
+			this._dropped++;
+			return;
+		}
+		
+		__LogEncoder__ encoder = this.encoder;
+		int start = encoder._length;
+		encoder.encode(__utcms, __v, __n, __cs, __c, __o, __l);
+		int keyend = encoder._keyend;
+		
+		// If this is the same as the last line, just count it
+		int laststart = this._laststart;
+		if (__lim.collapse && laststart >= 0 &&
+			__LogBuffer__.__sameKey(encoder._bytes, laststart,
+			this._lastkeyend, start, keyend))
+		{
+			encoder._length = start;
+			this._lastcount++;
+			return;
+		}
+		
+		// Rate limited
+		if (!__lim.allow(__v, __n))
+		{
+			encoder._length = start;
+			this._dropped++;
+			return;
+		}
+		
+		// The last line is done being repeated, this moves the new line
+		int lastcount = this._lastcount;
+		if (laststart >= 0 && lastcount > 1)
+		{
+			int shift = encoder._length;
+			encoder.repeated(start, lastcount);
+			shift = encoder._length - shift;
+			start += shift;
+			keyend += shift;
+		}
+		
+		this._laststart = start;
+		this._lastkeyend = keyend;
+		this._lastcount = 1;
+		
+		// Record the time of this line so that the lines from every thread
+		// can be ordered when the log is finalized
+		int count = this._count;
+		long[] times = this._times;
+		if (count >= times.length)
+			this._times = (times = Arrays.copyOf(times, count << 1));
+		times[count] = __utcms;
+		this._count = count + 1;
+	}
+	
+	/**
+	 * Clears the buffer after it has been published.
+	 *
+	 * @since 2019/03/26
+	 */
+	final void clear()
+	{
+		this.encoder._length = 0;
+		this._count = 0;
+		this._dropped = 0;
+		this._laststart = -1;
+		this._lastcount = 0;
+	}
+	
+	/**
+	 * Finishes the last line in the buffer so that it may be published.
+	 *
+	 * @since 2019/03/28
+	 */
+	final void finish()
+	{
+		__LogEncoder__ encoder = this.encoder;
+		if (this._laststart >= 0 && this._lastcount > 1)
+			encoder.repeated(encoder._length, this._lastcount);
+		
+		this._laststart = -1;
+		this._lastcount = 0;
+	}
+	
+	/**
+	 * Should this buffer be published?
+	 *
+	 * @return If the buffer is full enough to be published.
+	 * @since 2019/03/26
+	 */
+	final boolean isFull()
+	{
+		return this.encoder._length >= PUBLISH_THRESHOLD;
+	}
+	
+	/**
+	 * Checks if the keys of two lines are the same.
+	 *
+	 * @param __b The buffer.
+	 * @param __as The start of the first line.
+	 * @param __ae The end of the first key.
+	 * @param __bs The start of the second line.
+	 * @param __be The end of the second key.
+	 * @return If the keys are the same.
+	 * @since 2019/03/28
+	 */
+	private static final boolean __sameKey(byte[] __b, int __as, int __ae,
+		int __bs, int __be)
+	{
+		int n = __ae - __as;
+		if (n != __be - __bs)
+			return false;
+		
+		for (int i = 0; i < n; i++)
+			if (__b[__as + i] != __b[__bs + i])
+				return false;
+		
+		return true;
+	}
+}
@@ -0,0 +1,402 @@
+package com.iopipe.plugin.logger;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * This encodes log lines as UTF-8 JSON directly into a byte array, it is
+ * owned by a single thread and once warmed up it does not allocate.
+ *
+ * @since 2019/03/27
+ */
+final class __LogEncoder__
+{
+	/**
+	 * Escape table for ASCII characters, zero means the character is written
+	 * as is, {@code 'u'} means it is written as a unicode escape, otherwise
+	 * it is the character which follows the backslash.
+	 */
+	private static final byte[] _ESCAPES;
+	
+	/** Hex digits for unicode escapes. */
+	private static final byte[] _HEX =
+		"0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Start of a line with the message. */
+	private static final byte[] _MESSAGE =
+		"{\"message\": \"".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Start of the name. */
+	private static final byte[] _NAME =
+		"\"name\": \"".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Start of the severity. */
+	private static final byte[] _SEVERITY =
+		"\"severity\": \"".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Field for the number of times a line was repeated. */
+	private static final byte[] _REPEATED =
+		", \"repeated\": ".getBytes(StandardCharsets.US_ASCII);
+	
+	/** Start of the timestamp. */
+	private static final byte[] _TIMESTAMP =
+		"\"timestamp\": \"".getBytes(StandardCharsets.US_ASCII);
+	
+	/** The encoded bytes. */
+	byte[] _bytes =
+		new byte[__LogBuffer__.PUBLISH_THRESHOLD + 512];
+	
+	/** The number of encoded bytes. */
+	int _length;
+	
+	/** Where the last line stops being the same for repeated lines. */
+	int _keyend;
+	
+	/** The second which the cached timestamp prefix is for. */
+	private long _cachedsecond =
+		Long.MIN_VALUE;
+	
+	/** The cached timestamp prefix, without fractions of a second. */
+	private byte[] _cachedprefix =
+		new byte[0];
+	
+	/**
+	 * Initializes the escape table.
+	 *
+	 * @since 2019/03/27
+	 */
+	static
+	{
+		byte[] escapes = new byte[128];
+		
+		// All control characters must be escaped
+		for (int i = 0; i < 0x20; i++)
+			escapes[i] = 'u';
+		
+		escapes['"'] = '"';
+		escapes['\\'] = '\\';
+		escapes['/'] = '/';
+		escapes['\b'] = 'b';
+		escapes['\f'] = 'f';
+		escapes['\n'] = 'n';
+		escapes['\r'] = 'r';
+		escapes['\t'] = 't';
+		
+		_ESCAPES = escapes;
+	}
+	
+	/**
+	 * Encodes a single log line, the message may either be a character
+	 * sequence or a character array.
+	 *
+	 * @param __utcms The current time in UTC milliseconds.
+	 * @param __v The logging level.
+	 * @param __n The name of the log source.
+	 * @param __cs The message as a sequence, may be {@code null}.
+	 * @param __c The message as an array, used if the sequence is
+	 * {@code null}.
+	 * @param __o The offset into the array.
+	 * @param __l The length of the array.
+	 * @since 2019/03/27
+	 */
+	final void encode(long __utcms, String __v, String __n,
+		CharSequence __cs, char[] __c, int __o, int __l)
+	{
+		// The message
+		boolean did = false;
+		if (__cs != null || __c != null)
+		{
+			did = true;
+			this.__raw(_MESSAGE);
+			if (__cs != null)
+				this.__chars(__cs);
+			else
+				this.__chars(__c, __o, __l);
+			this.__byte('"');
+		}
+		else
+			this.__byte('{');
+		
+		// The name or source
+		if (__n != null)
+		{
+			if (did)
+				this.__separator();
+			
+			did = true;
+			this.__raw(_NAME);
+			this.__chars(__n);
+			this.__byte('"');
+		}
+		
+		// The level
+		if (__v != null)
+		{
+			if (did)
+				this.__separator();
+			
+			did = true;
+			this.__raw(_SEVERITY);
+			this.__chars(__v);
+			this.__byte('"');
+		}
+		
+		// Everything before the time is compared to find repeated lines
+		this._keyend = this._length;
+		
+		// Time in ISO-8601 format
+		if (did)
+			this.__separator();
+		this.__raw(_TIMESTAMP);
+		this.__timestamp(__utcms);
+		this.__byte('"');
+		
+		this.__byte('}');
+		this.__byte('\n');
+	}
+	
+	/**
+	 * Writes a single byte.
+	 *
+	 * @param __b The byte to write.
+	 * @since 2019/03/27
+	 */
+	private final void __byte(int __b)
+	{
+		int length = this._length;
+		byte[] bytes = this.__ensure(length, 1);
+		
+		bytes[length] = (byte)__b;
+		this._length = length + 1;
+	}
+	
+	/**
+	 * Writes the given sequence as escaped UTF-8.
+	 *
+	 * @param __cs The sequence to write.
+	 * @since 2019/03/27
+	 */
+	private final void __chars(CharSequence __cs)
+	{
+		for (int i = 0, n = __cs.length(); i < n; i++)
+		{
+			char c = __cs.charAt(i);
+			
+			// Surrogate pairs make up a single code point
+			if (Character.isHighSurrogate(c) && i + 1 < n &&
+				Character.isLowSurrogate(__cs.charAt(i + 1)))
+				this.__codePoint(Character.toCodePoint(c, __cs.charAt(++i)));
+			else
+				this.__codePoint(c);
+		}
+	}
+	
+	/**
+	 * Writes the given characters as escaped UTF-8.
+	 *
+	 * @param __c The characters to write.
+	 * @param __o The offset.
+	 * @param __l The length.
+	 * @since 2019/03/27
+	 */
+	private final void __chars(char[] __c, int __o, int __l)
+	{
+		for (int i = __o, n = __o + __l; i < n; i++)
+		{
+			char c = __c[i];
+			
+			// Surrogate pairs make up a single code point
+			if (Character.isHighSurrogate(c) && i + 1 < n &&
+				Character.isLowSurrogate(__c[i + 1]))
+				this.__codePoint(Character.toCodePoint(c, __c[++i]));
+			else
+				this.__codePoint(c);
+		}
+	}
+	
+	/**
+	 * Writes a single code point as escaped UTF-8.
+	 *
+	 * @param __cp The code point to write.
+	 * @since 2019/03/27
+	 */
+	private final void __codePoint(int __cp)
+	{
+		int length = this._length;
+		byte[] bytes = this.__ensure(length, 6);
+		
+		// ASCII, which might need escaping
+		if (__cp < 0x80)
+		{
+			byte escape = _ESCAPES[__cp];
+			if (escape == 0)
+				bytes[length++] = (byte)__cp;
+			else if (escape == 'u')
+			{
+				bytes[length++] = '\\';
+				bytes[length++] = 'u';
+				bytes[length++] = '0';
+				bytes[length++] = '0';
+				bytes[length++] = _HEX[(__cp >>> 4) & 0xF];
+				bytes[length++] = _HEX[__cp & 0xF];
+			}
+			else
+			{
+				bytes[length++] = '\\';
+				bytes[length++] = escape;
+			}
+		}
+		
+		// Two bytes
+		else if (__cp < 0x800)
+		{
+			bytes[length++] = (byte)(0xC0 | (__cp >>> 6));
+			bytes[length++] = (byte)(0x80 | (__cp & 0x3F));
+		}
+		
+		// Three bytes, lone surrogates cannot be encoded
+		else if (__cp < 0x10000)
+		{
+			if (__cp >= Character.MIN_SURROGATE &&
+				__cp <= Character.MAX_SURROGATE)
+				bytes[length++] = '?';
+			else
+			{
+				bytes[length++] = (byte)(0xE0 | (__cp >>> 12));
+				bytes[length++] = (byte)(0x80 | ((__cp >>> 6) & 0x3F));
+				bytes[length++] = (byte)(0x80 | (__cp & 0x3F));
+			}
+		}
+		
+		// Four bytes
+		else
+		{
+			bytes[length++] = (byte)(0xF0 | (__cp >>> 18));
+			bytes[length++] = (byte)(0x80 | ((__cp >>> 12) & 0x3F));
+			bytes[length++] = (byte)(0x80 | ((__cp >>> 6) & 0x3F));
+			bytes[length++] = (byte)(0x80 | (__cp & 0x3F));
+		}
+		
+		this._length = length;
+	}
+	
+	/**
+	 * Marks the line which ends the buffer as being repeated, this replaces
+	 * the end of the line and moves any bytes which follow it.
+	 *
+	 * @param __end The end of the repeated line.
+	 * @param __n The number of times the line was logged.
+	 * @since 2019/03/28
+	 */
+	final void repeated(int __end, int __n)
+	{
+		// Count the digits
+		int digits = 1;
+		for (int i = __n; i >= 10; i /= 10)
+			digits++;
+		
+		// Make room for the field, the line end is replaced
+		int extra = _REPEATED.length + digits,
+			length = this._length;
+		byte[] bytes = this.__ensure(length, extra);
+		System.arraycopy(bytes, __end, bytes, __end + extra, length - __end);
+		
+		// Write the field over the end of the line
+		int at = __end - 2;
+		System.arraycopy(_REPEATED, 0, bytes, at, _REPEATED.length);
+		at += _REPEATED.length;
+		for (int i = __n, j = at + digits - 1; j >= at; i /= 10, j--)
+			bytes[j] = (byte)('0' + (i % 10));
+		at += digits;
+		bytes[at++] = '}';
+		bytes[at++] = '\n';
+		
+		this._length = length + extra;
+	}
+	
+	/**
+	 * Makes sure there is enough room for the given number of bytes.
+	 *
+	 * @param __at The current length.
+	 * @param __n The number of bytes to be written.
+	 * @return The byte array to write into.
+	 * @since 2019/03/27
+	 */
+	private final byte[] __ensure(int __at, int __n)
+	{
+		byte[] bytes = this._bytes;
+		if (__at + __n > bytes.length)
+			this._bytes = (bytes = Arrays.copyOf(bytes,
+				Math.max(bytes.length << 1, __at + __n)));
+		return bytes;
+	}
+	
+	/**
+	 * Writes the given bytes as is.
+	 *
+	 * @param __b The bytes to write.
+	 * @since 2019/03/27
+	 */
+	private final void __raw(byte[] __b)
+	{
+		int length = this._length,
+			n = __b.length;
+		byte[] bytes = this.__ensure(length, n);
+		
+		System.arraycopy(__b, 0, bytes, length, n);
+		this._length = length + n;
+	}
+	
+	/**
+	 * Writes the separator between fields.
+	 *
+	 * @since 2019/03/27
+	 */
+	private final void __separator()
+	{
+		this.__byte(',');
+		this.__byte(' ');
+	}
+	
+	/**
+	 * Writes the given time in the same format as {@link Instant#toString()},
+	 * the part of the time up to the second is cached.
+	 *
+	 * @param __utcms The time in UTC milliseconds.
+	 * @since 2019/03/27
+	 */
+	private final void __timestamp(long __utcms)
+	{
+		long second = Math.floorDiv(__utcms, 1000L);
+		int millis = (int)Math.floorMod(__utcms, 1000L);
+		
+		// Only format the date when the second changes
+		byte[] prefix = this._cachedprefix;
+		if (second != this._cachedsecond)
+		{
+			// Whole seconds never have a fraction, so just drop the zone
+			String full = Instant.ofEpochSecond(second).toString();
+			this._cachedprefix = (prefix = full.substring(0,
+				full.length() - 1).getBytes(StandardCharsets.US_ASCII));
+			this._cachedsecond = second;
+		}
+		
+		this.__raw(prefix);
+		
+		// Fractions of a second are only written when they are not zero
+		if (millis != 0)
+		{
+			int length = this._length;
+			byte[] bytes = this.__ensure(length, 4);
+			
+			bytes[length++] = '.';
+			bytes[length++] = (byte)('0' + (millis / 100));
+			bytes[length++] = (byte)('0' + ((millis / 10) % 10));
+			bytes[length++] = (byte)('0' + (millis % 10));
+			this._length = length;
+		}
+		
+		this.__byte('Z');
+	}
+}
@@ -0,0 +1,265 @@
+package com.iopipe.plugin.logger;
+
+import com.iopipe.IOpipeConfiguration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.pmw.tinylog.Logger;
+
+/**
+ * This decides which log lines are kept, lines may be sampled and are
+ * limited by a token bucket for each severity and each name. The buckets
+ * are shared by every execution so that a storm of messages is limited
+ * across invocations.
+ *
+ * Limits are specified as a comma separated list of {@code key=value}
+ * pairs, a value without a key is used for every other key. Severities are
+ * matched regardless of case.
+ *
+ * @since 2019/03/28
+ */
+final class __LogLimiter__
+{
+	/** The limiter as specified by the configuration. */
+	static final __LogLimiter__ INSTANCE =
+		new __LogLimiter__(
+			IOpipeConfiguration.getVariable(
+				"com.iopipe.plugin.logger.severityratelimit",
+				"IOPIPE_LOGGER_SEVERITY_RATE_LIMIT", null),
+			IOpipeConfiguration.getVariable(
+				"com.iopipe.plugin.logger.nameratelimit",
+				"IOPIPE_LOGGER_NAME_RATE_LIMIT", null),
+			IOpipeConfiguration.getVariable(
+				"com.iopipe.plugin.logger.samplerate",
+				"IOPIPE_LOGGER_SAMPLE_RATE", null),
+			Boolean.valueOf(IOpipeConfiguration.getVariable(
+				"com.iopipe.plugin.logger.collapserepeats",
+				"IOPIPE_LOGGER_COLLAPSE_REPEATS", "true")));
+	
+	/** The maximum number of buckets of each kind, to bound memory. */
+	private static final int _MAX_BUCKETS =
+		256;
+	
+	/** The key used for values which apply to every other key. */
+	private static final String _DEFAULT_KEY =
+		"*";
+	
+	/** Should repeated lines be collapsed? */
+	protected final boolean collapse;
+	
+	/** Is any line limited or sampled? */
+	protected final boolean active;
+	
+	/** Lines per second for each severity. */
+	private final Map<String, Double> _severityrates;
+	
+	/** Lines per second for each name. */
+	private final Map<String, Double> _namerates;
+	
+	/** The fraction of lines to keep for each severity. */
+	private final Map<String, Double> _samplerates;
+	
+	/** Buckets for each severity. */
+	private final Map<String, __TokenBucket__> _severitybuckets =
+		new ConcurrentHashMap<>();
+	
+	/** Buckets for each name. */
+	private final Map<String, __TokenBucket__> _namebuckets =
+		new ConcurrentHashMap<>();
+	
+	/**
+	 * Initializes the limiter.
+	 *
+	 * @param __sev Rate limits for each severity, may be {@code null}.
+	 * @param __name Rate limits for each name, may be {@code null}.
+	 * @param __sample Sample rates for each severity, may be {@code null}.
+	 * @param __collapse Should repeated lines be collapsed?
+	 * @since 2019/03/28
+	 */
+	__LogLimiter__(String __sev, String __name, String __sample,
+		boolean __collapse)
+	{
+		Map<String, Double> severityrates = __LogLimiter__.__parse(__sev,
+				true),
+			namerates = __LogLimiter__.__parse(__name, false),
+			samplerates = __LogLimiter__.__parse(__sample, true);
+		
+		this._severityrates = severityrates;
+		this._namerates = namerates;
+		this._samplerates = samplerates;
+		this.collapse = __collapse;
+		this.active = !severityrates.isEmpty() || !namerates.isEmpty() ||
+			!samplerates.isEmpty();
+	}
+	
+	/**
+	 * Checks if the given line should be kept by the rate limits.
+	 *
+	 * @param __v The logging level.
+	 * @param __n The name of the log source.
+	 * @return If the line is within the rate limits.
+	 * @since 2019/03/28
+	 */
+	final boolean allow(String __v, String __n)
+	{
+		if (!this.active)
+			return true;
+		
+		long now = System.nanoTime();
+		
+		// Both the severity and the name must be within their limits
+		__TokenBucket__ sev = __LogLimiter__.__bucket(this._severitybuckets,
+			this._severityrates, __LogLimiter__.__severity(__v), now),
+			name = __LogLimiter__.__bucket(this._namebuckets,
+			this._namerates, __n, now);
+		if (sev != null && !sev.take(now))
+			return false;
+		
+		// The severity token is given back if the name rejects the line so
+		// that other names with the same severity are not limited by it
+		if (name != null && !name.take(now))
+		{
+			if (sev != null)
+				sev.refund();
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks if the given line should be kept by sampling.
+	 *
+	 * @param __v The logging level.
+	 * @return If the line was sampled.
+	 * @since 2019/03/28
+	 */
+	final boolean sample(String __v)
+	{
+		if (!this.active)
+			return true;
+		
+		Double rate = __LogLimiter__.__value(this._samplerates,
+			__LogLimiter__.__severity(__v));
+		if (rate == null)
+			return true;
+		
+		return ThreadLocalRandom.current().nextDouble() < rate;
+	}
+	
+	/**
+	 * Returns the bucket for the given key.
+	 *
+	 * @param __buckets The buckets.
+	 * @param __rates The rates for each key.
+	 * @param __k The key, may be {@code null}.
+	 * @param __now The current time.
+	 * @return The bucket or {@code null} if the key is not limited.
+	 * @since 2019/03/28
+	 */
+	private static final __TokenBucket__ __bucket(
+		Map<String, __TokenBucket__> __buckets, Map<String, Double> __rates,
+		String __k, long __now)
+	{
+		String key = (__k == null ? "" : __k);
+		
+		__TokenBucket__ rv = __buckets.get(key);
+		if (rv != null)
+			return rv;
+		
+		Double rate = __LogLimiter__.__value(__rates, key);
+		if (rate == null)
+			return null;
+		
+		// Too many distinct keys share a single bucket, which is limited by
+		// the rate for every other key rather than the rate of this one
+		if (__buckets.size() >= _MAX_BUCKETS)
+		{
+			key = _DEFAULT_KEY;
+			
+			rv = __buckets.get(key);
+			if (rv != null)
+				return rv;
+			
+			Double shared = __rates.get(_DEFAULT_KEY);
+			if (shared != null)
+				rate = shared;
+		}
+		
+		rv = new __TokenBucket__(rate, __now);
+		__TokenBucket__ old = __buckets.putIfAbsent(key, rv);
+		return (old != null ? old : rv);
+	}
+	
+	/**
+	 * Parses the given list of limits.
+	 *
+	 * @param __s The string to parse, may be {@code null}.
+	 * @param __sev Are the keys severities?
+	 * @return The parsed limits.
+	 * @since 2019/03/28
+	 */
+	private static final Map<String, Double> __parse(String __s,
+		boolean __sev)
+	{
+		Map<String, Double> rv = new HashMap<>();
+		if (__s == null)
+			return rv;
+		
+		for (String pair : __s.split(","))
+		{
+			pair = pair.trim();
+			if (pair.isEmpty())
+				continue;
+			
+			// A value without a key applies to everything
+			int eq = pair.lastIndexOf('=');
+			String key = (eq < 0 ? _DEFAULT_KEY : pair.substring(0, eq).trim());
+			if (__sev)
+				key = __LogLimiter__.__severity(key);
+			
+			try
+			{
+				rv.put(key, Double.valueOf(pair.substring(eq + 1).trim()));
+			}
+			catch (NumberFormatException e)
+			{
+				Logger.error(e, "Invalid logger limit {}.", pair);
+			}
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Normalizes the given severity so that it is matched regardless of
+	 * case.
+	 *
+	 * @param __v The severity, may be {@code null}.
+	 * @return The normalized severity or {@code null} if there is none.
+	 * @since 2019/04/10
+	 */
+	private static final String __severity(String __v)
+	{
+		return (__v == null ? null : __v.toUpperCase(Locale.ROOT));
+	}
+	
+	/**
+	 * Returns the value for the given key.
+	 *
+	 * @param __m The values.
+	 * @param __k The key, may be {@code null}.
+	 * @return The value or {@code null} if there is none.
+	 * @since 2019/03/28
+	 */
+	private static final Double __value(Map<String, Double> __m, String __k)
+	{
+		if (__m.isEmpty())
+			return null;
+		
+		Double rv = (__k != null ? __m.get(__k) : null);
+		return (rv != null ? rv : __m.get(_DEFAULT_KEY));
+	}
+}
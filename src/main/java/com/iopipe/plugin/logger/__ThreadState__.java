@@ -0,0 +1,88 @@
+package com.iopipe.plugin.logger;
+
+import com.iopipe.IOpipeExecution;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+
+/**
+ * This is the logging state for a single thread, it holds the logger which
+ * was resolved for the current execution and a reusable buffer which is
+ * used by bridges from other logging frameworks to format messages.
+ *
+ * @since 2019/03/29
+ */
+final class __ThreadState__
+{
+	/** State for each thread. */
+	private static final ThreadLocal<__ThreadState__> _STATES =
+		ThreadLocal.<__ThreadState__>withInitial(__ThreadState__::new);
+	
+	/** The largest buffer which is kept between messages. */
+	private static final int _MAX_KEPT_CAPACITY =
+		16384;
+	
+	/** The buffer for formatting messages. */
+	private StringBuilder _text =
+		new StringBuilder(256);
+	
+	/** The execution epoch the logger was resolved in. */
+	private long _epoch =
+		-1;
+	
+	/** The resolved logger, weak so old executions are not kept alive. */
+	private Reference<LoggerExecution> _logger;
+	
+	/**
+	 * Returns the logger for the current execution.
+	 *
+	 * @return The logger or {@code null} if there is none.
+	 * @since 2019/03/29
+	 */
+	final LoggerExecution logger()
+	{
+		// If no execution started or ended, then this is still valid
+		long epoch = IOpipeExecution.executionEpoch();
+		if (epoch == this._epoch)
+		{
+			Reference<LoggerExecution> ref = this._logger;
+			return (ref != null ? ref.get() : null);
+		}
+		
+		// This does not throw an exception when the plugin is disabled
+		LoggerExecution rv = IOpipeExecution.currentExecution().
+			<LoggerExecution>optionalPlugin(LoggerExecution.class);
+		
+		this._epoch = epoch;
+		this._logger = (rv != null ? new WeakReference<>(rv) : null);
+		return rv;
+	}
+	
+	/**
+	 * Returns the buffer to format messages into, it is cleared.
+	 *
+	 * @return The cleared buffer.
+	 * @since 2019/03/29
+	 */
+	final StringBuilder text()
+	{
+		// Do not keep very large buffers around forever
+		StringBuilder rv = this._text;
+		if (rv.capacity() > _MAX_KEPT_CAPACITY)
+			this._text = (rv = new StringBuilder(256));
+		else
+			rv.setLength(0);
+		
+		return rv;
+	}
+	
+	/**
+	 * Returns the state for the current thread.
+	 *
+	 * @return The state for the current thread.
+	 * @since 2019/03/30
+	 */
+	static final __ThreadState__ current()
+	{
+		return _STATES.get();
+	}
+}
@@ -0,0 +1,118 @@
+package com.iopipe.plugin.logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a token bucket which limits the rate at which lines may be logged,
+ * the bucket starts full and holds at most one second of tokens.
+ *
+ * Tokens are counted in billionths of a token so that the tokens added for
+ * each nanosecond which passes are a whole number. The bucket does not lock,
+ * threads which race to update it retry instead.
+ *
+ * @since 2019/03/28
+ */
+final class __TokenBucket__
+{
+	/** The number of units in a single token. */
+	private static final long _TOKEN =
+		1_000_000_000L;
+	
+	/** The largest bucket, so that adding tokens cannot overflow. */
+	private static final long _MAX_BURST =
+		Long.MAX_VALUE / 4;
+	
+	/** The number of tokens added each second. */
+	protected final double rate;
+	
+	/** The maximum number of token units. */
+	protected final long burst;
+	
+	/** The number of token units which are available. */
+	private final AtomicLong _tokens;
+	
+	/** The last time tokens were added. */
+	private final AtomicLong _last;
+	
+	/**
+	 * Initializes the bucket.
+	 *
+	 * @param __rate The number of lines allowed each second.
+	 * @param __now The current time in nanoseconds.
+	 * @since 2019/03/28
+	 */
+	__TokenBucket__(double __rate, long __now)
+	{
+		long burst = (long)Math.min(_MAX_BURST,
+			Math.max(1.0D, __rate) * _TOKEN);
+		
+		this.rate = __rate;
+		this.burst = burst;
+		this._tokens = new AtomicLong(burst);
+		this._last = new AtomicLong(__now);
+	}
+	
+	/**
+	 * Gives back a token which was taken but not used.
+	 *
+	 * @since 2019/04/10
+	 */
+	final void refund()
+	{
+		this.__add(_TOKEN);
+	}
+	
+	/**
+	 * Attempts to take a single token from the bucket.
+	 *
+	 * @param __now The current time in nanoseconds.
+	 * @return If a token was taken.
+	 * @since 2019/03/28
+	 */
+	final boolean take(long __now)
+	{
+		// Add tokens for the time which has passed, only the thread which
+		// moves the last time forward adds the tokens for it
+		AtomicLong lastref = this._last;
+		for (long last; __now - (last = lastref.get()) > 0;)
+			if (lastref.compareAndSet(last, __now))
+			{
+				double rate = this.rate;
+				if (rate > 0)
+					this.__add((long)Math.min(_MAX_BURST,
+						(__now - last) * rate));
+				break;
+			}
+		
+		// Take a token if there is one
+		AtomicLong tokensref = this._tokens;
+		for (;;)
+		{
+			long tokens = tokensref.get();
+			if (tokens < _TOKEN)
+				return false;
+			
+			if (tokensref.compareAndSet(tokens, tokens - _TOKEN))
+				return true;
+		}
+	}
+	
+	/**
+	 * Adds token units to the bucket, it will not hold more than the burst.
+	 *
+	 * @param __n The number of token units to add.
+	 * @since 2019/04/11
+	 */
+	private final void __add(long __n)
+	{
+		long burst = this.burst;
+		AtomicLong tokensref = this._tokens;
+		for (;;)
+		{
+			long tokens = tokensref.get(),
+				next = Math.min(burst, tokens + __n);
+			if (next == tokens || tokensref.compareAndSet(tokens, next))
+				return;
+		}
+	}
+}
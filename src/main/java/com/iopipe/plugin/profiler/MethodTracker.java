@@ -1,31 +1,83 @@
 package com.iopipe.plugin.profiler;
 
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
 /**
  * This class is used to keep track of methods which have executed along with
  * their unique identifiers.
  *
+ * Methods which have already been tracked are found without any locking,
+ * only tracking a new method locks and only on the class it is in.
+ *
+ * If line numbers are used then each line of a method is tracked on its own
+ * as if it were a separate method, these refer back to the method they are
+ * in. Since every line uses up an index, only a limited number of lines are
+ * tracked and after that lines count against their method.
+ *
  * @since 2018/02/19
  */
 public final class MethodTracker
 {
+	/** The maximum number of methods, indexes are written as shorts. */
+	public static final int MAX_METHODS =
+		65536;
+	
+	/** The number of methods in each chunk of the linear table. */
+	private static final int _CHUNK_SIZE =
+		1024;
+	
+	/** The name used for methods which exceed the limit. */
+	private static final String _OVERFLOW_NAME =
+		"<overflow>";
+	
 	/** Classes which have been tracked. */
 	private final Map<String, TrackedClass> _classes =
-		new HashMap<>();
+		new ConcurrentHashMap<>();
 	
-	/** Methods which have been tracked by their linear index. */
-	private final List<TrackedMethod> _methods =
-		new ArrayList<>();
+	/** Methods which have been tracked by their linear index, in chunks. */
+	private final AtomicReferenceArray<AtomicReferenceArray<TrackedMethod>>
+		_linear = new AtomicReferenceArray<>(MAX_METHODS / _CHUNK_SIZE);
 	
 	/** The identifier of the next method to track. */
 	private final AtomicInteger _nextid =
 		new AtomicInteger();
 	
+	/** The number of lines which were tracked. */
+	private final AtomicInteger _numlines =
+		new AtomicInteger();
+	
+	/** Are lines within methods tracked? */
+	protected final boolean lines;
+	
+	/** The maximum number of lines which are tracked. */
+	protected final int maxlines;
+	
+	/**
+	 * Initializes the method tracker using the profiler settings.
+	 *
+	 * @since 2019/04/10
+	 */
+	public MethodTracker()
+	{
+		this(ProfilerExecution.LINE_NUMBERS, ProfilerExecution.MAX_LINES);
+	}
+	
+	/**
+	 * Initializes the method tracker.
+	 *
+	 * @param __l Are lines within methods tracked?
+	 * @param __n The maximum number of lines which are tracked.
+	 * @since 2019/04/10
+	 */
+	MethodTracker(boolean __l, int __n)
+	{
+		this.lines = __l;
+		this.maxlines = __n;
+	}
+	
 	/**
 	 * Returns the methods which have been tracked.
 	 *
@@ -34,12 +86,21 @@ public final class MethodTracker
 	 */
 	public final MethodTracker.TrackedMethod[] methods()
 	{
-		List<TrackedMethod> methods = this._methods;
-		synchronized (methods)
+		int n = Math.min(MAX_METHODS, this._nextid.get());
+		
+		TrackedMethod[] rv = new TrackedMethod[n];
+		for (int i = 0; i < n; i++)
 		{
-			return methods.<TrackedMethod>toArray(
-				new TrackedMethod[methods.size()]);
+			// The method may have been given an index but another thread
+			// might not have stored it yet
+			TrackedMethod m;
+			while (null == (m = this.__get(i)))
+				Thread.yield();
+			
+			rv[i] = m;
 		}
+		
+		return rv;
 	}
 	
 	/**
@@ -56,7 +117,14 @@ public final class MethodTracker
 		if (__e == null)
 			throw new NullPointerException();
 		
-		return this.track(__e.getClassName(), __e.getMethodName());
+		MethodTracker.TrackedMethod rv = this.track(__e.getClassName(),
+			__e.getMethodName());
+		
+		// Track the line within the method instead
+		int line;
+		if (this.lines && (line = __e.getLineNumber()) > 0)
+			return this.__line(rv, line);
+		return rv;
 	}
 	
 	/**
@@ -69,18 +137,119 @@ public final class MethodTracker
 	 */
 	public MethodTracker.TrackedMethod track(String __c, String __m)
 	{
-		TrackedClass cl;
+		// Concurrent maps cannot have null keys
+		String key = (__c == null ? "" : __c);
 		
 		Map<String, TrackedClass> classes = this._classes;
-		synchronized (classes)
+		TrackedClass cl = classes.get(key);
+		if (cl == null)
+			cl = classes.computeIfAbsent(key,
+				(__k) -> new TrackedClass(__c, this));
+		
+		return cl.track(__m);
+	}
+	
+	/**
+	 * Returns the method at the given index.
+	 *
+	 * @param __i The index to get.
+	 * @return The method or {@code null} if it has not been stored.
+	 * @since 2019/04/02
+	 */
+	private final TrackedMethod __get(int __i)
+	{
+		AtomicReferenceArray<TrackedMethod> chunk =
+			this._linear.get(__i / _CHUNK_SIZE);
+		if (chunk == null)
+			return null;
+		return chunk.get(__i % _CHUNK_SIZE);
+	}
+	
+	/**
+	 * Returns the line within the given method.
+	 *
+	 * @param __m The method the line is in.
+	 * @param __l The line number.
+	 * @return The line, or the method if too many lines were tracked.
+	 * @since 2019/04/09
+	 */
+	private final TrackedMethod __line(TrackedMethod __m, int __l)
+	{
+		// Most methods are never seen with line numbers
+		Map<Integer, TrackedMethod> lines = __m._lines;
+		if (lines == null)
+			synchronized (__m)
+			{
+				lines = __m._lines;
+				if (lines == null)
+					__m._lines = (lines = new ConcurrentHashMap<>());
+			}
+		
+		// Lines which were already tracked do not lock
+		Integer key = __l;
+		TrackedMethod rv = lines.get(key);
+		if (rv != null)
+			return rv;
+		
+		// Do not use up every index on lines
+		if (this._numlines.get() >= this.maxlines)
+			return __m;
+		
+		return lines.computeIfAbsent(key,
+			(__k) ->
+			{
+				this._numlines.incrementAndGet();
+				return this.__new(__m.classname, __m.methodname, __l, __m);
+			});
+	}
+	
+	/**
+	 * Creates a new method and stores it in the linear table.
+	 *
+	 * @param __c The class name.
+	 * @param __m The method name.
+	 * @param __l The line number, negative if this is an entire method.
+	 * @param __b The method a line is in, {@code null} if this is an entire
+	 * method.
+	 * @return The new method, or the overflow method if there are too many
+	 * methods.
+	 * @since 2019/04/02
+	 */
+	private final TrackedMethod __new(String __c, String __m, int __l,
+		TrackedMethod __b)
+	{
+		// The last index is reserved for methods which do not fit
+		int id = this._nextid.getAndIncrement();
+		if (id >= MAX_METHODS - 1)
 		{
-			cl = classes.get(__c);
-			if (cl == null)
-				classes.put(__c, (cl =
-					new TrackedClass(__c, this._methods, this._nextid)));
+			id = MAX_METHODS - 1;
+			TrackedMethod rv = this.__get(id);
+			if (rv != null)
+				return rv;
+			
+			__c = _OVERFLOW_NAME;
+			__m = _OVERFLOW_NAME;
+			__l = -1;
+			__b = null;
 		}
 		
-		return cl.track(__m);
+		// Make sure the chunk exists
+		AtomicReferenceArray<AtomicReferenceArray<TrackedMethod>> linear =
+			this._linear;
+		int chunkdx = id / _CHUNK_SIZE;
+		AtomicReferenceArray<TrackedMethod> chunk = linear.get(chunkdx);
+		if (chunk == null)
+		{
+			linear.compareAndSet(chunkdx, null,
+				new AtomicReferenceArray<>(_CHUNK_SIZE));
+			chunk = linear.get(chunkdx);
+		}
+		
+		// Only one overflow method may be stored
+		TrackedMethod rv = new TrackedMethod(__c, __m, id, __l, __b);
+		if (!chunk.compareAndSet(id % _CHUNK_SIZE, null, rv))
+			return chunk.get(id % _CHUNK_SIZE);
+		return rv;
 	}
 	
 	/**
@@ -95,34 +264,27 @@ public final class MethodTracker
 		
 		/** Methods which have been tracked. */
 		private final Map<String, TrackedMethod> _methods =
-			new HashMap<>();
-		
-		/** Linear methods being tracked. */
-		private final List<TrackedMethod> _linear;
+			new ConcurrentHashMap<>();
 		
-		/** The identifier of the next method to track. */
-		private final AtomicInteger _nextid;
+		/** The owning tracker. */
+		private final MethodTracker _tracker;
 		
 		/**
 		 * Initializes the class tracker.
 		 *
 		 * @param __s The name for this class.
-		 * @param __l Linear method list.
-		 * @param __i The next index to track.
-		 * @throws NullPointerException If no next index value was specified
-		 * or no linear method list was specified.
+		 * @param __t The owning tracker.
+		 * @throws NullPointerException If no tracker was specified.
 		 * @since 2018/02/19
 		 */
-		private TrackedClass(String __s, List<TrackedMethod> __l,
-			AtomicInteger __i)
+		private TrackedClass(String __s, MethodTracker __t)
 			throws NullPointerException
 		{
-			if (__l == null || __i == null)
+			if (__t == null)
 				throw new NullPointerException();
 			
 			this.name = __s;
-			this._linear = __l;
-			this._nextid = __i;
+			this._tracker = __t;
 		}
 		
 		/**
@@ -134,26 +296,17 @@ public final class MethodTracker
 		 */
 		public final MethodTracker.TrackedMethod track(String __m)
 		{
+			// Concurrent maps cannot have null keys
+			String key = (__m == null ? "" : __m);
+			
+			// Methods which were already tracked do not lock
 			Map<String, TrackedMethod> methods = this._methods;
-			synchronized (methods)
-			{
-				TrackedMethod rv = methods.get(__m);
-				
-				if (rv == null)
-				{
-					// Need to also keep track of methods linearly for easy
-					// access
-					List<TrackedMethod> linear = this._linear;
-					synchronized (linear)
-					{
-						methods.put(__m, (rv = new TrackedMethod(this.name,
-							__m, this._nextid.getAndIncrement())));
-						linear.add(rv);
-					}
-				}
-				
+			TrackedMethod rv = methods.get(key);
+			if (rv != null)
 				return rv;
-			}
+			
+			return methods.computeIfAbsent(key,
+				(__k) -> this._tracker.__new(this.name, __m, -1, null));
 		}
 	}
 	
@@ -173,19 +326,34 @@ public final class MethodTracker
 		/** The ID of this method. */
 		protected final int index;
 		
+		/** The line number, negative if this is the entire method. */
+		protected final int line;
+		
+		/** The entire method, which may be this one. */
+		protected final TrackedMethod method;
+		
+		/** Lines within this method, only used for entire methods. */
+		volatile Map<Integer, TrackedMethod> _lines;
+		
 		/**
 		 * Initializes the tracked method.
 		 *
 		 * @param __c The containing class.
 		 * @param __m The method this is within.
 		 * @param __id The index of this method in the global table.
+		 * @param __l The line number, negative if this is the entire method.
+		 * @param __b The method a line is in, {@code null} if this is the
+		 * entire method.
 		 * @since 2018/02/19
 		 */
-		private TrackedMethod(String __c, String __m, int __id)
+		private TrackedMethod(String __c, String __m, int __id, int __l,
+			TrackedMethod __b)
 		{
 			this.classname = __c;
 			this.methodname = __m;
 			this.index = __id;
+			this.line = (__l > 0 ? __l : -1);
+			this.method = (__b != null ? __b : this);
 		}
 		
 		/**
@@ -210,6 +378,29 @@ public final class MethodTracker
 			return this.index;
 		}
 		
+		/**
+		 * Returns the line number this is for.
+		 *
+		 * @return The line number, or a negative value if this is an entire
+		 * method.
+		 * @since 2019/04/09
+		 */
+		public final int lineNumber()
+		{
+			return this.line;
+		}
+		
+		/**
+		 * Returns the entire method this is in.
+		 *
+		 * @return The entire method, this if it is not a line.
+		 * @since 2019/04/09
+		 */
+		public final MethodTracker.TrackedMethod method()
+		{
+			return this.method;
+		}
+		
 		/**
 		 * Returns the name of the method.
 		 *
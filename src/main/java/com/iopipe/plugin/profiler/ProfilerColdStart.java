@@ -0,0 +1,80 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.IOpipeConfiguration;
+import java.util.Objects;
+
+/**
+ * This decides whether the cold start is profiled, only the settings which
+ * are needed for that are read so that nothing else of the profiler is
+ * initialized when it is not.
+ *
+ * The cold start is only sampled if it was asked for and the profiler is
+ * enabled, or requests may ask to be profiled.
+ *
+ * @since 2019/04/10
+ */
+public final class ProfilerColdStart
+{
+	/** Is the cold start sampled? */
+	public static final boolean ENABLED;
+	
+	/**
+	 * Reads the settings.
+	 *
+	 * @since 2019/04/10
+	 */
+	static
+	{
+		boolean enabled = Boolean.valueOf(Objects.toString(
+			IOpipeConfiguration.getVariable("com.iopipe.enabled",
+			"IOPIPE_ENABLED", "true"))) &&
+			Boolean.valueOf(System.getProperty(
+			"com.iopipe.plugin.profiler.coldstart",
+			System.getenv("IOPIPE_PROFILER_COLDSTART")));
+		
+		// The profiler must be enabled, otherwise the samples would be
+		// thrown away when the first invocation starts
+		if (enabled && !Boolean.valueOf(IOpipeConfiguration.getVariable(
+			"com.iopipe.plugin.profiler", "IOPIPE_PROFILER_ENABLED", null)))
+		{
+			String rawrule = System.getProperty(
+				"com.iopipe.plugin.profiler.request",
+				System.getenv("IOPIPE_PROFILER_REQUEST"));
+			if (rawrule == null)
+				enabled = false;
+			else
+				try
+				{
+					new __RequestRule__(rawrule);
+				}
+				catch (IllegalArgumentException e)
+				{
+					enabled = false;
+				}
+		}
+		
+		ENABLED = enabled;
+	}
+	
+	/**
+	 * Not used.
+	 *
+	 * @since 2019/04/10
+	 */
+	private ProfilerColdStart()
+	{
+	}
+	
+	/**
+	 * Starts sampling every thread until the first invocation if the cold
+	 * start is profiled, otherwise this does nothing. This is called as
+	 * early as possible when the agent is loaded.
+	 *
+	 * @since 2019/04/10
+	 */
+	public static void start()
+	{
+		if (ENABLED)
+			ProfilerExecution.__coldStart();
+	}
+}
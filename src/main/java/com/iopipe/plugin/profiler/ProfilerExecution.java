@@ -13,21 +13,25 @@ import com.iopipe.IOpipeConstants;
 import com.iopipe.IOpipeExecution;
 import com.iopipe.IOpipeSigner;
 import com.iopipe.plugin.IOpipePluginExecution;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.time.format.DateTimeFormatter;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -57,6 +61,122 @@ public class ProfilerExecution
 	/** The number of nanoseconds between each polling period. */
 	public static final int SAMPLE_RATE;
 	
+	/** The maximum number of stack frames which are sampled. */
+	public static final int STACK_DEPTH;
+	
+	/** Is the stack depth counted from the root rather than the top? */
+	public static final boolean STACK_DEPTH_FROM_ROOT;
+	
+	/** Track the lines within methods rather than only methods. */
+	public static final boolean LINE_NUMBERS;
+	
+	/** The maximum number of lines which are tracked. */
+	public static final int MAX_LINES;
+	
+	/** Filters which are applied to frames, {@code null} if there are none. */
+	static final __FrameFilter__ FRAME_FILTER;
+	
+	/** Sample every thread in the virtual machine. */
+	public static final String THREADS_ALL =
+		"all";
+	
+	/**
+	 * Threads outside of the thread group of the execution which are
+	 * sampled, {@code null} if only the group is sampled.
+	 */
+	static final __ThreadFilter__ THREAD_FILTER;
+	
+	/** The largest sampling rate the poller will adapt to (in nanoseconds). */
+	public static final int MAX_ADAPTIVE_SAMPLE_RATE =
+		100_000_000;
+	
+	/**
+	 * The percentage of time the poller may spend sampling, if this is zero
+	 * then the sample rate is fixed.
+	 */
+	public static final double CPU_BUDGET;
+	
+	/** Use the flight recorder if it is available, otherwise poll. */
+	public static final String BACKEND_AUTO =
+		"auto";
+	
+	/** Always poll threads. */
+	public static final String BACKEND_POLL =
+		"poll";
+	
+	/** Use the flight recorder, polling if it is not available. */
+	public static final String BACKEND_JFR =
+		"jfr";
+	
+	/** The backend which is used to sample threads. */
+	public static final String BACKEND;
+	
+	/** Record why threads are blocked, waiting or doing I/O. */
+	public static final boolean CONTENTION;
+	
+	/** Export NetBeans snapshots. */
+	public static final String FORMAT_NPS =
+		"nps";
+	
+	/** Export gzipped pprof profiles. */
+	public static final String FORMAT_PPROF =
+		"pprof";
+	
+	/** The formats which profiles are exported in. */
+	public static final Set<String> FORMATS;
+	
+	/** Accumulate samples across invocations and export them together. */
+	public static final boolean CONTINUOUS;
+	
+	/** The sample rate when profiling continuously (in nanoseconds). */
+	public static final int CONTINUOUS_SAMPLE_RATE;
+	
+	/** The number of invocations after which continuous data is exported. */
+	public static final int CONTINUOUS_INVOCATIONS;
+	
+	/** The time after which continuous data is exported (in milliseconds). */
+	public static final long CONTINUOUS_INTERVAL;
+	
+	/**
+	 * Only export invocations which take longer than this (in milliseconds),
+	 * zero if there is no fixed threshold.
+	 */
+	public static final long SLOW_THRESHOLD;
+	
+	/**
+	 * Only export invocations which are slower than this percentile of
+	 * recent invocations, zero if percentiles are not used.
+	 */
+	public static final double SLOW_PERCENTILE;
+	
+	/** The number of recent invocations percentiles are taken from. */
+	public static final int SLOW_HISTORY;
+	
+	/** Only slow invocations are exported. */
+	public static final boolean TRIGGERED;
+	
+	/** The sample rate when only slow invocations are exported. */
+	public static final int TRIGGERED_SAMPLE_RATE;
+	
+	/**
+	 * The rule which lets a request ask to be profiled, {@code null} if
+	 * requests cannot ask.
+	 */
+	static final __RequestRule__ REQUEST_RULE;
+	
+	/**
+	 * The time between statistics snapshots during execution (in
+	 * nanoseconds), if this is zero then statistics are only taken at the
+	 * start and end.
+	 */
+	public static final long STATS_INTERVAL;
+	
+	/** The maximum number of statistics snapshots taken during execution. */
+	public static final int STATS_CAPACITY;
+	
+	/** The longest time the cold start is sampled for (in milliseconds). */
+	public static final int COLD_START_LIMIT;
+	
 	/** Debug: The path to dump a local copy of the profiler information to. */
 	public static final Path LOCAL_SNAPSHOT_DUMP_PATH;
 	
@@ -66,15 +186,32 @@ public class ProfilerExecution
 	/** The service group the profiler belongs in. */
 	private static final ThreadGroup _SERVICE_GROUP;
 	
+	/** Durations of recent invocations, for slow percentiles. */
+	private static final __LatencyHistory__ _LATENCIES;
+	
 	/** The execution state. */
 	protected final IOpipeExecution execution;
 	
-	/** Tracker state. */
-	private final Tracker _tracker =
-		new Tracker();
+	/** Is this execution profiled? */
+	private final boolean _profiled;
+	
+	/** Did the request ask to be profiled? */
+	private final boolean _requested;
+	
+	/** Is this execution profiled continuously? */
+	private final boolean _continuous;
+	
+	/** Is this execution only exported if it is slow? */
+	private final boolean _triggered;
+	
+	/** Does the tracker contain the cold start? */
+	private boolean _coldstart;
+	
+	/** Tracker state, shared when profiling continuously. */
+	private Tracker _tracker;
 	
-	/** The signer. */
-	private final IOpipeSigner _signer;
+	/** The signer, only used when profiling data is uploaded. */
+	private volatile IOpipeSigner _signer;
 	
 	/** The tread which is pollng for profiling (only in lambda thread). */
 	private Thread _pollthread;
@@ -82,9 +219,18 @@ public class ProfilerExecution
 	/** The poller for execution (only in lambda thread). */
 	private __Poller__ _poller;
 	
+	/** The flight recorder sampler, if it is being used. */
+	private __JFRSampler__ _jfr;
+	
 	/** Initial statistics when the plugin is initialized. */
 	private ManagementStatistics _beginstats;
 	
+	/** The statistics sampler, if one is used (only in lambda thread). */
+	private __StatSampler__ _statsampler;
+	
+	/** The thread taking statistics snapshots (only in lambda thread). */
+	private Thread _statthread;
+	
 	/**
 	 * Determine the sample rate.
 	 *
@@ -103,24 +249,142 @@ public class ProfilerExecution
 			sg = Thread.currentThread().getThreadGroup();
 		}
 		
-		// Use system properties then default to the environment
-		long sr;
+		// Use system properties then default to the environment, the
+		// sample rate is in microseconds
+		_SERVICE_GROUP = sg;
+		SAMPLE_RATE = (int)Math.min(Integer.MAX_VALUE, 1000L *
+			ProfilerExecution.__intVariable("samplerate", "SAMPLERATE",
+			DEFAULT_SAMPLE_RATE / 1000));
+		
+		// Stack depth, the default is to sample the entire stack
+		STACK_DEPTH = ProfilerExecution.__intVariable("stackdepth",
+			"STACKDEPTH", Integer.MAX_VALUE);
+		STACK_DEPTH_FROM_ROOT = "root".equalsIgnoreCase(System.getProperty(
+			"com.iopipe.plugin.profiler.stackdepth.from",
+			System.getenv("IOPIPE_PROFILER_STACKDEPTH_FROM")));
+		
+		// Lines within methods
+		LINE_NUMBERS = Boolean.valueOf(System.getProperty(
+			"com.iopipe.plugin.profiler.lines",
+			System.getenv("IOPIPE_PROFILER_LINES")));
+		MAX_LINES = Math.min(MethodTracker.MAX_METHODS / 2,
+			ProfilerExecution.__intVariable("lines.max", "LINES_MAX", 16384));
+		
+		// Frames which are not kept or are folded together
+		__FrameFilter__ filter = new __FrameFilter__(
+			System.getProperty("com.iopipe.plugin.profiler.include",
+				System.getenv("IOPIPE_PROFILER_INCLUDE")),
+			System.getProperty("com.iopipe.plugin.profiler.exclude",
+				System.getenv("IOPIPE_PROFILER_EXCLUDE")),
+			System.getProperty("com.iopipe.plugin.profiler.fold",
+				System.getenv("IOPIPE_PROFILER_FOLD")));
+		FRAME_FILTER = (filter.isEmpty() ? null : filter);
+		
+		// Threads outside of the execution's group, these may be all of
+		// them or those which match names or groups
+		__ThreadFilter__ threads = new __ThreadFilter__(
+			THREADS_ALL.equalsIgnoreCase(System.getProperty(
+				"com.iopipe.plugin.profiler.threads",
+				System.getenv("IOPIPE_PROFILER_THREADS"))),
+			System.getProperty("com.iopipe.plugin.profiler.threads.names",
+				System.getenv("IOPIPE_PROFILER_THREAD_NAMES")),
+			System.getProperty("com.iopipe.plugin.profiler.threads.groups",
+				System.getenv("IOPIPE_PROFILER_THREAD_GROUPS")));
+		THREAD_FILTER = (threads.isEmpty() ? null : threads);
+		
+		// CPU budget, the default is to always use the sample rate
+		double cb = ProfilerExecution.__doubleVariable("cpubudget",
+			"CPU_BUDGET", 0);
+		CPU_BUDGET = (cb < 100 ? cb : 0);
+		
+		// The backend to use for sampling, polling is the default because
+		// the flight recorder does not record CPU time, allocations or
+		// contention for each sample
+		String backend = System.getProperty(
+			"com.iopipe.plugin.profiler.backend",
+			System.getenv("IOPIPE_PROFILER_BACKEND"));
+		if (BACKEND_AUTO.equalsIgnoreCase(backend))
+			BACKEND = BACKEND_AUTO;
+		else if (BACKEND_JFR.equalsIgnoreCase(backend))
+			BACKEND = BACKEND_JFR;
+		else
+			BACKEND = BACKEND_POLL;
+		
+		// Formats to export in, this is a comma separated list
+		Set<String> formats = new LinkedHashSet<>();
+		String rawformats = System.getProperty(
+			"com.iopipe.plugin.profiler.formats",
+			System.getenv("IOPIPE_PROFILER_FORMATS"));
+		if (rawformats != null)
+			for (String format : rawformats.split(","))
+			{
+				format = format.trim().toLowerCase();
+				if (format.equals(FORMAT_NPS) || format.equals(FORMAT_PPROF))
+					formats.add(format);
+			}
+		if (formats.isEmpty())
+			formats.add(FORMAT_NPS);
+		FORMATS = Collections.<String>unmodifiableSet(formats);
+		
+		// Contention profiling, this can only be exported as pprof
+		CONTENTION = formats.contains(FORMAT_PPROF) &&
+			Boolean.valueOf(System.getProperty(
+			"com.iopipe.plugin.profiler.contention",
+			System.getenv("IOPIPE_PROFILER_CONTENTION")));
+		
+		// Continuous profiling, which by default samples less often and
+		// exports every 100 invocations or 5 minutes
+		CONTINUOUS = Boolean.valueOf(System.getProperty(
+			"com.iopipe.plugin.profiler.continuous",
+			System.getenv("IOPIPE_PROFILER_CONTINUOUS")));
+		CONTINUOUS_SAMPLE_RATE = (int)Math.min(Integer.MAX_VALUE, 1000L *
+			ProfilerExecution.__intVariable("continuous.samplerate",
+			"CONTINUOUS_SAMPLERATE", 10_000));
+		CONTINUOUS_INVOCATIONS = ProfilerExecution.__intVariable(
+			"continuous.invocations", "CONTINUOUS_INVOCATIONS", 100);
+		CONTINUOUS_INTERVAL = 60_000L * ProfilerExecution.__intVariable(
+			"continuous.interval", "CONTINUOUS_INTERVAL", 5);
+		
+		// Only export slow invocations, by a fixed threshold or by being
+		// slower than recent invocations
+		double slowpercentile = ProfilerExecution.__doubleVariable(
+			"slow.percentile", "SLOW_PERCENTILE", 0);
+		SLOW_PERCENTILE = (slowpercentile < 100 ? slowpercentile : 0);
+		SLOW_THRESHOLD = ProfilerExecution.__intVariable("slow.threshold",
+			"SLOW_THRESHOLD", 0);
+		SLOW_HISTORY = ProfilerExecution.__intVariable("slow.history",
+			"SLOW_HISTORY", 100);
+		TRIGGERED = !CONTINUOUS && (SLOW_THRESHOLD > 0 || SLOW_PERCENTILE > 0);
+		TRIGGERED_SAMPLE_RATE = (int)Math.min(Integer.MAX_VALUE, 1000L *
+			ProfilerExecution.__intVariable("slow.samplerate",
+			"SLOW_SAMPLERATE", 10_000));
+		_LATENCIES = new __LatencyHistory__(SLOW_HISTORY);
+		
+		// Requests may ask to be profiled
+		String rawrule = System.getProperty(
+			"com.iopipe.plugin.profiler.request",
+			System.getenv("IOPIPE_PROFILER_REQUEST"));
+		__RequestRule__ rule;
 		try
 		{
-			sr = Integer.parseInt(System.getProperty(
-				"com.iopipe.plugin.profiler.samplerate",
-				System.getenv("IOPIPE_PROFILER_SAMPLERATE")), 10) * 1000L;
+			rule = (rawrule != null ? new __RequestRule__(rawrule) : null);
 		}
-		
-		// Could not parse a valid number
-		catch (NumberFormatException e)
+		catch (IllegalArgumentException e)
 		{
-			sr = DEFAULT_SAMPLE_RATE;
+			rule = null;
 		}
+		REQUEST_RULE = rule;
 		
-		_SERVICE_GROUP = sg;
-		SAMPLE_RATE = Math.max(1,
-			(int)Math.min(Integer.MAX_VALUE, sr));
+		// Statistics taken during execution, these are off by default
+		STATS_INTERVAL = 1_000_000L * ProfilerExecution.__intVariable(
+			"stats.interval", "STATS_INTERVAL", 0);
+		STATS_CAPACITY = ProfilerExecution.__intVariable("stats.capacity",
+			"STATS_CAPACITY", 64);
+		
+		// Cold start sampling stops on its own if there is no invocation for
+		// a minute, whether it is done is decided by ProfilerColdStart
+		COLD_START_LIMIT = ProfilerExecution.__intVariable("coldstart.limit",
+			"COLDSTART_LIMIT", 60_000);
 		
 		// Path where snapshots will be stored, optional
 		String lsndp = System.getenv("IOPIPE_PROFILER_LOCAL_DUMP_PATH");
@@ -139,6 +403,74 @@ public class ProfilerExecution
 		ALTERNATIVE_PREFIX = System.getenv("IOPIPE_PROFILER_ALTERNATIVE_PREFIX");
 	}
 	
+	/**
+	 * Starts sampling the cold start.
+	 *
+	 * @since 2019/04/10
+	 */
+	static final void __coldStart()
+	{
+		__ColdStart__.start(_SERVICE_GROUP);
+	}
+	
+	/**
+	 * Returns the value of a decimal variable, from a system property or
+	 * the environment.
+	 *
+	 * @param __p The property name, after {@code com.iopipe.plugin.profiler.}.
+	 * @param __e The environment variable, after {@code IOPIPE_PROFILER_}.
+	 * @param __d The default value, used if it is missing or not valid.
+	 * @return The value.
+	 * @since 2019/04/10
+	 */
+	private static final double __doubleVariable(String __p, String __e,
+		double __d)
+	{
+		String v = System.getProperty("com.iopipe.plugin.profiler." + __p,
+			System.getenv("IOPIPE_PROFILER_" + __e));
+		if (v == null)
+			return __d;
+		
+		try
+		{
+			double rv = Double.parseDouble(v);
+			return (rv > 0 ? rv : __d);
+		}
+		
+		// Could not parse a valid number
+		catch (NumberFormatException e)
+		{
+			return __d;
+		}
+	}
+	
+	/**
+	 * Returns the value of an integer variable, from a system property or
+	 * the environment.
+	 *
+	 * @param __p The property name, after {@code com.iopipe.plugin.profiler.}.
+	 * @param __e The environment variable, after {@code IOPIPE_PROFILER_}.
+	 * @param __d The default value, used if it is missing or not valid.
+	 * @return The value.
+	 * @since 2019/04/07
+	 */
+	private static final int __intVariable(String __p, String __e, int __d)
+	{
+		try
+		{
+			int rv = Integer.parseInt(System.getProperty(
+				"com.iopipe.plugin.profiler." + __p,
+				System.getenv("IOPIPE_PROFILER_" + __e)), 10);
+			return (rv > 0 ? rv : __d);
+		}
+		
+		// Could not parse a valid number
+		catch (NumberFormatException e)
+		{
+			return __d;
+		}
+	}
+	
 	/**
 	 * Initializes the profiler state.
 	 *
@@ -154,8 +486,22 @@ public class ProfilerExecution
 		
 		this.execution = __e;
 		
-		// Setup signer to upload a ZIP
-		this._signer = __e.signer(".zip");
+		// If the plugin is only enabled so that requests may ask to be
+		// profiled then only those are profiled, these are always profiled
+		// on their own at the normal sample rate
+		__RequestRule__ rule = REQUEST_RULE;
+		boolean requested = (rule != null && rule.matches(__e.input())),
+			profiled = requested ||
+				__e.config().isPluginEnabled("profiler", false);
+		this._requested = requested;
+		this._profiled = profiled;
+		this._continuous = CONTINUOUS && !requested;
+		this._triggered = TRIGGERED && !requested;
+		
+		// Setup signer to upload a ZIP, when profiling continuously or only
+		// slow invocations this is only done when there is an upload
+		if (profiled && !this._continuous && !this._triggered)
+			this._signer = __e.signer(".zip");
 	}
 	
 	/**
@@ -194,31 +540,160 @@ public class ProfilerExecution
 		
 		// Tell the poller to stop and interrupt it so it wakes up from any
 		// sleep state
-		this._poller._stop.set(true);
-		this._pollthread.interrupt();
+		__Poller__ poller = this._poller;
+		if (poller != null)
+		{
+			Thread pollthread = this._pollthread;
+			poller._stop.set(true);
+			pollthread.interrupt();
+			
+			// The poller is the only writer of the call trees, so wait for
+			// it to finish before they are exported
+			for (;;)
+				try
+				{
+					pollthread.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+		}
+		
+		// Stop taking statistics, the thread must be finished before the
+		// snapshots can be read
+		__StatSampler__ statsampler = this._statsampler;
+		if (statsampler != null)
+		{
+			Thread statthread = this._statthread;
+			statsampler._stop.set(true);
+			statthread.interrupt();
+			
+			for (;;)
+				try
+				{
+					statthread.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+		}
+		
+		// Or read in all the samples from the flight recorder
+		__JFRSampler__ jfr = this._jfr;
+		int samplerate = (poller != null ? poller.effectiveRate() :
+			SAMPLE_RATE);
+		if (jfr != null)
+		{
+			jfr.stop(this._tracker, execution.startTimestamp());
+			samplerate = jfr.period;
+		}
+		
+		// Nothing was sampled, another execution is using the continuous
+		// tracker
+		Tracker tracker = this._tracker;
+		if (tracker == null)
+			return;
 		
 		// Get statistics at the end of execution after the method has ended
 		// so that way it can be seen how much they changed
 		ManagementStatistics beginstats = this._beginstats,
-			endstats = ManagementStatistics.snapshot(System.nanoTime() -
-				beginstats.abstime);
+			endstats;
+		long starttime = execution.startTimestamp();
+		
+		// When profiling continuously only export once the window is done
+		if (this._continuous)
+		{
+			__Continuous__.Window window = __Continuous__.INSTANCE.release(
+				samplerate, System.nanoTime() - beginstats.abstime);
+			if (window == null)
+				return;
+			
+			tracker = window.tracker;
+			beginstats = window.beginstats;
+			starttime = window.starttime;
+			samplerate = window.samplerate;
+			
+			this._signer = execution.signer(".zip");
+		}
+		
+		// Only slow invocations are exported, the duration is always
+		// recorded so percentiles follow recent invocations
+		else if (this._triggered)
+		{
+			long duration = System.nanoTime() - beginstats.abstime;
+			boolean slow = (SLOW_PERCENTILE > 0 &&
+				_LATENCIES.recordAndCheck(duration, SLOW_PERCENTILE));
+			if (SLOW_THRESHOLD > 0 &&
+				duration > SLOW_THRESHOLD * 1_000_000L)
+				slow = true;
+			
+			if (!slow)
+				return;
+			
+			execution.label("@iopipe/plugin-profiler-slow");
+			this._signer = execution.signer(".zip");
+		}
+		
+		endstats = ManagementStatistics.snapshot(System.nanoTime() -
+			beginstats.abstime);
+		
+		// Statistics taken during execution go between the start and end
+		List<ManagementStatistics> stats = new ArrayList<>();
+		stats.add(beginstats);
+		if (statsampler != null)
+			stats.addAll(statsampler.snapshots());
+		stats.add(endstats);
+		
+		// Mark requests which asked to be profiled
+		if (this._requested)
+			execution.label("@iopipe/plugin-profiler-requested");
+		
+		// And those which contain the cold start
+		if (this._coldstart)
+			execution.label("@iopipe/plugin-profiler-coldstart");
+		
+		this.__export(tracker, samplerate, starttime, stats);
+	}
+	
+	/**
+	 * Exports and uploads the profiling data.
+	 *
+	 * @param __t The tracker data.
+	 * @param __sr The sample rate.
+	 * @param __st The time profiling started in milliseconds since the epoch.
+	 * @param __s Statistics taken during profiling, in order.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/07
+	 */
+	private final void __export(Tracker __t, int __sr, long __st,
+		List<ManagementStatistics> __s)
+		throws NullPointerException
+	{
+		if (__t == null || __s == null)
+			throw new NullPointerException();
+		
+		IOpipeExecution execution = this.execution;
 		
 		// Date prefix used for file export
 		LocalDateTime now = LocalDateTime.ofInstant(Instant.ofEpochMilli(
-			execution.startTimestamp()), ZoneId.of("UTC"));
+			__st), ZoneId.of("UTC"));
 		String prefix = (ALTERNATIVE_PREFIX != null ? ALTERNATIVE_PREFIX :
 			DateTimeFormatter.BASIC_ISO_DATE.format(
 			now.toLocalDate()) + '_' + DateTimeFormatter.ISO_LOCAL_TIME.
 			format(now.toLocalTime()).replaceAll(Pattern.quote(":"), "").
 			replaceAll(Pattern.quote("."), "_"));
 		
-		// Export tracker data to a ZIP file
+		// Export tracker data to a ZIP file, this is spilled to a file so
+		// that the snapshot is never in memory more than once
 		byte[] exported = null;
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
+		Path spill = null;
+		try
 		{
-			Tracker tracker = this._tracker;
-			
-			try (ZipOutputStream zos = new ZipOutputStream(baos))
+			spill = Files.createTempFile("iopipe-profiler-", ".zip");
+			try (ZipOutputStream zos = new ZipOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(spill))))
 			{
 				// Do not bother compressing because the snapshot data is
 				// compressed anyway. The header and footer could be compressed
@@ -228,9 +703,42 @@ public class ProfilerExecution
 				zos.setLevel(0);
 				
 				// Export CPU data
-				zos.putNextEntry(new ZipEntry(prefix + "_cpu.nps"));
-				new __CPUExport__(tracker, execution, SAMPLE_RATE).run(zos);
-				zos.closeEntry();
+				if (FORMATS.contains(FORMAT_NPS))
+				{
+					zos.putNextEntry(new ZipEntry(prefix + "_cpu.nps"));
+					new __CPUExport__(__t, __st, __sr).run(zos);
+					zos.closeEntry();
+				}
+				
+				// The profile is already gzipped
+				if (FORMATS.contains(FORMAT_PPROF))
+				{
+					zos.putNextEntry(new ZipEntry(prefix + "_cpu.pb.gz"));
+					new __PprofExport__(__t, __st, __sr,
+						__PprofExport__.KIND_CPU).run(zos);
+					zos.closeEntry();
+					
+					// Allocations are only known when polling on virtual
+					// machines which can measure them
+					if (__t.hasAllocations())
+					{
+						zos.putNextEntry(new ZipEntry(prefix +
+							"_alloc.pb.gz"));
+						new __PprofExport__(__t, __st, __sr,
+							__PprofExport__.KIND_ALLOCATION).run(zos);
+						zos.closeEntry();
+					}
+				}
+				
+				// Contention is only in the pprof format
+				if (CONTENTION)
+				{
+					zos.putNextEntry(new ZipEntry(prefix +
+						"_contention.pb.gz"));
+					new __PprofExport__(__t, __st, __sr,
+						__PprofExport__.KIND_CONTENTION).run(zos);
+					zos.closeEntry();
+				}
 				
 				// Any entry after this point should be compressed and should
 				// easily be compressed using a fast compression algorithm.
@@ -241,7 +749,7 @@ public class ProfilerExecution
 				
 				// Export statistics
 				zos.putNextEntry(new ZipEntry(prefix + "_stat.csv"));
-				new __StatExport__(beginstats, endstats).run(zos);
+				new __StatExport__(__s).run(zos);
 				zos.closeEntry();
 				
 				// Finish the ZIP
@@ -249,8 +757,23 @@ public class ProfilerExecution
 				zos.flush();
 			}
 			
-			// Export the ZUIP
-			exported = baos.toByteArray();
+			// This is optional but when the debugging environment variable is
+			// set then this will write the file which is to be sent to IOpipe
+			// to the specified path.
+			Path localdump = LOCAL_SNAPSHOT_DUMP_PATH;
+			if (localdump != null)
+				try
+				{
+					Files.copy(spill, localdump,
+						StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			
+			// Uploading needs the entire ZIP, it is read at its exact size
+			exported = Files.readAllBytes(spill);
 		}
 		catch (IOException e)
 		{
@@ -259,6 +782,17 @@ public class ProfilerExecution
 			// Ignore
 			exported = null;
 		}
+		finally
+		{
+			if (spill != null)
+				try
+				{
+					Files.deleteIfExists(spill);
+				}
+				catch (IOException e)
+				{
+				}
+		}
 		
 		// Snapshots were generated
 		if (exported != null)
@@ -269,23 +803,6 @@ public class ProfilerExecution
 				() -> prefix,
 				() -> Base64.getMimeEncoder().encodeToString(fexported));
 			
-			// This is optional but when the debugging environment variable is
-			// set then this will write the file which is to be sent to IOpipe
-			// to the specified path.
-			Path localdump = LOCAL_SNAPSHOT_DUMP_PATH;
-			if (localdump != null)
-				try (OutputStream os = Files.newOutputStream(localdump,
-					StandardOpenOption.WRITE,
-					StandardOpenOption.TRUNCATE_EXISTING,
-					StandardOpenOption.CREATE))
-				{
-					os.write(fexported);
-				}
-				catch (IOException e)
-				{
-					e.printStackTrace();
-				}
-			
 			// Signer was not used?
 			IOpipeSigner signer = this._signer;
 			if (signer == null)
@@ -316,12 +833,77 @@ public class ProfilerExecution
 	 */
 	final void __pre()
 	{
+		// The cold start is always stopped by the first invocation even if
+		// it is not profiled, otherwise it would be sampled for no reason.
+		// The samples are only kept by the invocation which was cold started
+		Tracker coldstart = __ColdStart__.finish();
+		if (!this.execution.isColdStarted())
+			coldstart = null;
+		
+		// This execution is not profiled, the request did not ask for it
+		if (!this._profiled)
+			return;
+		
 		// Statistics at the start of method execution
-		this._beginstats = ManagementStatistics.snapshot(0);
+		ManagementStatistics beginstats = ManagementStatistics.snapshot(0);
+		this._beginstats = beginstats;
+		
+		// Take statistics during execution, this is not done when
+		// profiling continuously since the window spans many invocations
+		if (STATS_INTERVAL > 0 && !this._continuous && !this._triggered)
+		{
+			__StatSampler__ statsampler = new __StatSampler__(
+				beginstats.abstime, STATS_INTERVAL, STATS_CAPACITY);
+			this._statsampler = statsampler;
+			
+			Thread statthread = new Thread(_SERVICE_GROUP, statsampler,
+				"IOpipe-ProfilerStatistics");
+			statthread.setDaemon(true);
+			statthread.start();
+			this._statthread = statthread;
+		}
+		
+		// When profiling continuously, samples go into the shared tracker
+		// if no other execution is using it
+		Tracker tracker;
+		int samplerate;
+		if (this._continuous)
+		{
+			tracker = __Continuous__.INSTANCE.acquire();
+			samplerate = CONTINUOUS_SAMPLE_RATE;
+			if (tracker == null)
+				return;
+			
+			// The last samples of the threads were taken by another
+			// invocation, what happened in between is not counted
+			tracker.resetBaselines();
+		}
+		else
+		{
+			// Cold start samples are already in their own tracker
+			tracker = (coldstart != null ? coldstart : new Tracker());
+			samplerate = (this._triggered ? TRIGGERED_SAMPLE_RATE :
+				SAMPLE_RATE);
+			this._coldstart = (coldstart != null);
+		}
+		this._tracker = tracker;
+		
+		// Use the flight recorder if it is available, it does not need a
+		// thread to poll
+		if (!BACKEND_POLL.equals(BACKEND))
+		{
+			__JFRSampler__ jfr = new __JFRSampler__(samplerate,
+				this.execution.threadGroup(), THREAD_FILTER, _SERVICE_GROUP);
+			if (jfr.start())
+			{
+				this._jfr = jfr;
+				return;
+			}
+		}
 		
 		// Setup poller which will constantly read thread state
-		__Poller__ poller = new __Poller__(this._tracker,
-			this.execution.threadGroup());
+		__Poller__ poller = new __Poller__(tracker,
+			this.execution.threadGroup(), samplerate, THREAD_FILTER, 0);
 		this._poller = poller;
 		
 		// Initialize the polling thread
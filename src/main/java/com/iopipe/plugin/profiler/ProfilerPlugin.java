@@ -24,7 +24,9 @@ public class ProfilerPlugin
 	@Override
 	public boolean enabledByDefault()
 	{
-		return false;
+		// Enabled so that requests can ask to be profiled, only those that
+		// ask are profiled
+		return ProfilerExecution.REQUEST_RULE != null;
 	}
 	
 	/**
@@ -17,6 +17,28 @@ public final class TimeKeeper
 	private final AtomicLong _self =
 		new AtomicLong();
 	
+	/**
+	 * Initializes a timer with no time.
+	 *
+	 * @since 2019/04/02
+	 */
+	public TimeKeeper()
+	{
+	}
+	
+	/**
+	 * Initializes a timer with the given times.
+	 *
+	 * @param __abs The absolute time.
+	 * @param __self The self time.
+	 * @since 2019/04/02
+	 */
+	public TimeKeeper(long __abs, long __self)
+	{
+		this._abs.set(__abs);
+		this._self.set(__self);
+	}
+	
 	/**
 	 * Returns the absolute time.
 	 *
@@ -1,20 +1,26 @@
 package com.iopipe.plugin.profiler;
 
-import java.util.Collection;
+import java.lang.management.ThreadInfo;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
 /**
  * This contains the information for a single thread which has been profiled.
  *
+ * The call tree is stored in parallel arrays which are indexed by the node
+ * index, children are found with an open addressed table keyed by the parent
+ * and the method. Only a single thread may parse traces at a time and the
+ * tree should only be read when no traces are being parsed.
+ *
  * @since 2018/02/19
  */
 public final class TrackedThread
 	implements TrackedThreadNodeTraversal
 {
-	/** The thread to monitor. */
+	/** The thread to monitor, may be {@code null} if it is not known. */
 	protected final Thread thread;
 	
 	/** Currently tracked methods. */
@@ -30,9 +36,108 @@ public final class TrackedThread
 	private final AtomicInteger _numinvokes =
 		new AtomicInteger();
 	
-	/** Root nodes for the thread tree. */
-	private final Map<MethodTracker.TrackedMethod, Node> _nodes =
-		new LinkedHashMap<>();
+	/**
+	 * The class and method of the node which stacks that do not reach the
+	 * root of the thread are placed under. A frame with this class at the
+	 * bottom of a stack marks it as truncated.
+	 */
+	public static final String TRUNCATED =
+		"<truncated>";
+	
+	/** Native methods in classes starting with these perform I/O. */
+	private static final String[] _IO_PREFIXES =
+		{"java.io.File", "java.io.RandomAccessFile", "java.net.",
+		"sun.net.", "sun.nio.ch.", "sun.nio.fs."};
+	
+	/** The initial number of nodes which may be stored. */
+	private static final int _INITIAL_CAPACITY =
+		64;
+	
+	/** The number of nodes in the tree. */
+	int _count;
+	
+	/** The method for each node. */
+	MethodTracker.TrackedMethod[] _methods =
+		new MethodTracker.TrackedMethod[_INITIAL_CAPACITY];
+	
+	/** The parent of each node, root nodes have {@code -1}. */
+	int[] _parent =
+		new int[_INITIAL_CAPACITY];
+	
+	/** The first child of each node, {@code -1} if there are none. */
+	int[] _firstchild =
+		new int[_INITIAL_CAPACITY];
+	
+	/** The last child of each node, {@code -1} if there are none. */
+	int[] _lastchild =
+		new int[_INITIAL_CAPACITY];
+	
+	/** The next sibling of each node, {@code -1} if it is the last one. */
+	int[] _nextsibling =
+		new int[_INITIAL_CAPACITY];
+	
+	/** The number of children in each node. */
+	int[] _numchildren =
+		new int[_INITIAL_CAPACITY];
+	
+	/** Absolute graph time for each node. */
+	long[] _graphabs =
+		new long[_INITIAL_CAPACITY];
+	
+	/** Self graph time for each node. */
+	long[] _graphself =
+		new long[_INITIAL_CAPACITY];
+	
+	/** Absolute CPU time for each node. */
+	long[] _cpuabs =
+		new long[_INITIAL_CAPACITY];
+	
+	/** Self CPU time for each node. */
+	long[] _cpuself =
+		new long[_INITIAL_CAPACITY];
+	
+	/** Bytes allocated while each node was at the top of the stack. */
+	long[] _allocated =
+		new long[_INITIAL_CAPACITY];
+	
+	/** The first root node, {@code -1} if there are none. */
+	int _firstroot =
+		-1;
+	
+	/** The last root node, {@code -1} if there are none. */
+	private int _lastroot =
+		-1;
+	
+	/** The number of root nodes. */
+	private int _numroots;
+	
+	/** Lookup of nodes by parent and method, entries are the node plus one. */
+	private int[] _lookup =
+		new int[_INITIAL_CAPACITY * 2];
+	
+	/** Bytes allocated by the thread at the last sample, if known. */
+	private long _lastallocated =
+		-1;
+	
+	/** Time spent off the CPU by cause, lock and node. */
+	private final Map<Contention, Contention> _contention =
+		new HashMap<>();
+	
+	/** Key used to look up contention, it is never placed in the map. */
+	private final Contention _probe =
+		new Contention(this, -1, -1, null, null);
+	
+	/** Milliseconds the thread was blocked at the last sample, if known. */
+	private long _lastblocked =
+		-1;
+	
+	/** Milliseconds the thread was waiting at the last sample, if known. */
+	private long _lastwaited =
+		-1;
+	
+	/** CPU time used by the thread at the last sample, if known. */
+	private long _lastcpu =
+		-1;
 	
 	/** Time spent sleeping or running in this thread. */
 	private volatile long _wgabstime;
@@ -60,6 +165,26 @@ public final class TrackedThread
 	 */
 	public TrackedThread(Thread __thread, int __ldx, MethodTracker __m)
 		throws NullPointerException
+	{
+		this(__thread, (__thread == null ? null : __thread.getName()), __ldx,
+			__m);
+	}
+	
+	/**
+	 * Initializes the thread information with a name which differs from the
+	 * name of the thread.
+	 *
+	 * @param __thread The thread to record information for.
+	 * @param __name The name to use for the thread.
+	 * @param __ldx Logical thread index.
+	 * @param __m The owning method tracker.
+	 * @throws NullPointerException If no thread or method tracker was
+	 * specified.
+	 * @since 2019/04/10
+	 */
+	public TrackedThread(Thread __thread, String __name, int __ldx,
+		MethodTracker __m)
+		throws NullPointerException
 	{
 		if (__thread == null || __m ==null)
 			throw new NullPointerException();
@@ -67,7 +192,29 @@ public final class TrackedThread
 		this.thread = __thread;
 		this.methods = __m;
 		this.logicalindex = __ldx;
-		this.name = Objects.toString(__thread.getName(), "");
+		this.name = Objects.toString(__name, "");
+	}
+	
+	/**
+	 * Initializes the thread information for a thread which is only known by
+	 * its name, such as those recorded by the flight recorder.
+	 *
+	 * @param __name The name of the thread.
+	 * @param __ldx Logical thread index.
+	 * @param __m The owning method tracker.
+	 * @throws NullPointerException If no method tracker was specified.
+	 * @since 2019/04/01
+	 */
+	public TrackedThread(String __name, int __ldx, MethodTracker __m)
+		throws NullPointerException
+	{
+		if (__m == null)
+			throw new NullPointerException();
+		
+		this.thread = null;
+		this.methods = __m;
+		this.logicalindex = __ldx;
+		this.name = Objects.toString(__name, "");
 	}
 	
 	/**
@@ -146,34 +293,320 @@ public final class TrackedThread
 	 */
 	public final void parseStackTrace(long __abs, int __rel)
 	{
+		// The thread is not known, so it cannot be traced
 		Thread thread = this.thread;
+		if (thread == null)
+			return;
+		
+		// Terminated threads have no trace
+		Thread.State state = thread.getState();
+		if (state == Thread.State.TERMINATED)
+			return;
+		
+		this.parseStackTrace(__abs, __rel, state, thread.getStackTrace());
+	}
+	
+	/**
+	 * Parses and keeps track of the specified stack trace which was
+	 * already obtained from the thread.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __state The state of the thread.
+	 * @param __traces The stack trace of the thread, the first element is
+	 * the top of the stack.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/03/31
+	 */
+	public final void parseStackTrace(long __abs, int __rel,
+		Thread.State __state, StackTraceElement[] __traces)
+		throws NullPointerException
+	{
+		this.parseStackTrace(__abs, __rel, __state, __traces, -1, -1);
+	}
+	
+	/**
+	 * Parses and keeps track of the specified stack trace which was
+	 * already obtained from the thread, the CPU time used and the bytes
+	 * allocated since the last sample are attributed to the stack.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __state The state of the thread.
+	 * @param __traces The stack trace of the thread, the first element is
+	 * the top of the stack.
+	 * @param __cpu The total CPU time the thread has used in nanoseconds, a
+	 * negative value if this is not known.
+	 * @param __alloc The total number of bytes the thread has allocated, a
+	 * negative value if this is not known.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/05
+	 */
+	public final void parseStackTrace(long __abs, int __rel,
+		Thread.State __state, StackTraceElement[] __traces, long __cpu,
+		long __alloc)
+		throws NullPointerException
+	{
+		this.__parseStackTrace(__abs, __rel, __state, __traces, __cpu,
+			__alloc, null);
+	}
+	
+	/**
+	 * Parses and keeps track of the stack trace in the given thread
+	 * information, the information about locks is used to determine why
+	 * the thread is not running.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __info The thread information.
+	 * @param __cpu The total CPU time the thread has used in nanoseconds, a
+	 * negative value if this is not known.
+	 * @param __alloc The total number of bytes the thread has allocated, a
+	 * negative value if this is not known.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/06
+	 */
+	public final void parseStackTrace(long __abs, int __rel,
+		ThreadInfo __info, long __cpu, long __alloc)
+		throws NullPointerException
+	{
+		if (__info == null)
+			throw new NullPointerException();
+		
+		this.__parseStackTrace(__abs, __rel, __info.getThreadState(),
+			__info.getStackTrace(), __cpu, __alloc, __info);
+	}
+	
+	/**
+	 * Returns the time the thread spent off the CPU by cause.
+	 *
+	 * @return The time spent off the CPU.
+	 * @since 2019/04/06
+	 */
+	public final TrackedThread.Contention[] contention()
+	{
+		Map<Contention, Contention> contention = this._contention;
+		return contention.values().<Contention>toArray(
+			new Contention[contention.size()]);
+	}
+	
+	/** 
+	 * {@inheritDoc}
+	 * @since 2018/02/19
+	 */
+	@Override
+	public final TrackedThread.Node subNode(MethodTracker.TrackedMethod __m)
+		throws NullPointerException
+	{
+		if (__m == null)
+			throw new NullPointerException();
+		
+		return new Node(this, this.__node(-1, __m));
+	}
+	
+	/** 
+	 * {@inheritDoc}
+	 * @since 2018/02/19
+	 */
+	@Override
+	public final TrackedThread.Node[] subNodes()
+	{
+		return this.__nodes(this._firstroot, this._numroots);
+	}
+	
+	/**
+	 * Returns the time spent absolutly in this thread.
+	 *
+	 * @return The time spent absolutly in this thread.
+	 * @since 2018/02/19
+	 */
+	public final long wholeGraphAbsoluteTime()
+	{
+		return this._wgabstime;
+	}
+	
+	/**
+	 * Returns the time spent sleeping in this thread.
+	 *
+	 * @return The time spent sleeping in this thread.
+	 * @since 2018/02/19
+	 */
+	public final long wholeGraphSleepTime()
+	{
+		return this._wgsleeptime;
+	}
+	
+	/**
+	 * Returns the time spent running in this whole graph.
+	 *
+	 * @return The time spent running in this whole graph.
+	 * @since 2018/02/19
+	 */
+	public final long wholeGraphTime()
+	{
+		return this._wgtime;
+	}
+	
+	/**
+	 * Forgets the measurements of the last sample, so the next sample only
+	 * sets the base for the samples after it.
+	 *
+	 * @since 2019/04/10
+	 */
+	final void resetBaselines()
+	{
+		this._lastallocated = -1;
+		this._lastblocked = -1;
+		this._lastwaited = -1;
+		this._lastcpu = -1;
+	}
+	
+	/**
+	 * Records why the thread was not running.
+	 *
+	 * @param __n The node at the top of the stack.
+	 * @param __off The time the thread was not running.
+	 * @param __state The state of the thread.
+	 * @param __traces The stack trace of the thread.
+	 * @param __info The thread information.
+	 * @since 2019/04/06
+	 */
+	private final void __contention(int __n, long __off, Thread.State __state,
+		StackTraceElement[] __traces, ThreadInfo __info)
+	{
+		// The measured times are always updated so they are relative to the
+		// last sample
+		long blocked = __info.getBlockedTime(),
+			lastblocked = this._lastblocked,
+			waited = __info.getWaitedTime(),
+			lastwaited = this._lastwaited;
+		this._lastblocked = blocked;
+		this._lastwaited = waited;
+		
+		// If the time was measured then use it rather than the time the
+		// thread was not running, the measured time is in milliseconds
+		int cause;
+		long time = __off;
+		switch (__state)
+		{
+			case BLOCKED:
+				cause = Contention.CAUSE_BLOCKED;
+				if (blocked >= 0 && lastblocked >= 0)
+					time = Math.min(__off,
+						(blocked - lastblocked) * 1_000_000L);
+				break;
+			
+			case WAITING:
+			case TIMED_WAITING:
+				cause = Contention.CAUSE_WAITING;
+				if (waited >= 0 && lastwaited >= 0)
+					time = Math.min(__off,
+						(waited - lastwaited) * 1_000_000L);
+				break;
+			
+			// Only threads in native I/O methods are waiting
+			case RUNNABLE:
+				if (__traces.length == 0 ||
+					!TrackedThread.__isIO(__traces[0]))
+					return;
+				cause = Contention.CAUSE_IO;
+				break;
+			
+			default:
+				return;
+		}
+		
+		if (time <= 0)
+			return;
+		
+		// I/O is not waiting on a lock
+		String lock = null,
+			owner = null;
+		if (cause != Contention.CAUSE_IO)
+		{
+			lock = __info.getLockName();
+			owner = __info.getLockOwnerName();
+		}
+		
+		// A new key is only created the first time the contention is seen
+		Map<Contention, Contention> contention = this._contention;
+		Contention probe = this._probe;
+		probe.index = __n;
+		probe.cause = cause;
+		probe.lock = lock;
+		probe.owner = owner;
+		Contention rv = contention.get(probe);
+		if (rv == null)
+			contention.put((rv = new Contention(this, __n, cause, lock,
+				owner)), rv);
+		rv._time += time;
+	}
+	
+	/**
+	 * Parses and keeps track of the specified stack trace.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __state The state of the thread.
+	 * @param __traces The stack trace of the thread, the first element is
+	 * the top of the stack.
+	 * @param __cpu The total CPU time the thread has used in nanoseconds, a
+	 * negative value if this is not known.
+	 * @param __alloc The total number of bytes the thread has allocated, a
+	 * negative value if this is not known.
+	 * @param __info The thread information, used to determine why the thread
+	 * is not running, may be {@code null}.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/06
+	 */
+	private final void __parseStackTrace(long __abs, int __rel,
+		Thread.State __state, StackTraceElement[] __traces, long __cpu,
+		long __alloc, ThreadInfo __info)
+		throws NullPointerException
+	{
+		if (__state == null || __traces == null)
+			throw new NullPointerException();
+		
 		MethodTracker methods = this.methods;
 		
 		// Do not track terminated threads, but treat all other states as
 		// being asleep
-		Thread.State state = thread.getState();
 		boolean asleep = false;
-		if (state != Thread.State.RUNNABLE)
+		if (__state != Thread.State.RUNNABLE)
 		{
-			if (state == Thread.State.TERMINATED)
+			if (__state == Thread.State.TERMINATED)
 				return;
 			
 			asleep = true;
 		}
 		
+		// Threads in native code, such as reading from sockets, are still
+		// runnable so if the CPU time is known then only the time the thread
+		// actually ran is CPU time, otherwise all runnable time is
+		long lastcpu = this._lastcpu;
+		int cpurel;
+		if (__cpu >= 0 && lastcpu >= 0)
+			cpurel = (int)Math.max(0, Math.min(__rel, __cpu - lastcpu));
+		else
+			cpurel = (asleep ? 0 : __rel);
+		if (__cpu >= 0)
+			this._lastcpu = __cpu;
+		
 		// Add to whole graph time
 		this._wgabstime += __rel;
-		if (asleep)
-			this._wgsleeptime += __rel;
-		else
-			this._wgtime += __rel;
+		this._wgsleeptime += __rel - cpurel;
+		this._wgtime += cpurel;
 		
 		// Gross time spent in thread
 		long grosswgtime = this._grosswgtime;
 		long grosswgtimeabs = this._grosswgtimeabs;
 		
 		// Node traversal starts at the root node
-		TrackedThreadNodeTraversal traversal = this;
+		int at = -1;
 		
 		// Generate stack trace, since each sub-node based on the origin point
 		// of call is unique per stack trace, methods which call other methods
@@ -181,146 +614,517 @@ public final class TrackedThread
 		// timers and such
 		// The last element is the lowest method in the trace so it will be
 		// the root node
-		StackTraceElement[] traces = thread.getStackTrace();
-		int n = traces.length;
+		// If the stack is deeper than the limit then only the top of the stack
+		// is used, unless the limit counts the frames which are kept from the
+		// root
+		StackTraceElement[] traces = __traces;
+		__FrameFilter__ filter = ProfilerExecution.FRAME_FILTER;
+		boolean fromroot = ProfilerExecution.STACK_DEPTH_FROM_ROOT;
+		int len = traces.length;
+		
+		// Stacks which were cut off do not start at the root of the thread
+		// so they are placed under a single node rather than becoming roots
+		boolean truncated = false;
+		if (len > 0 && TRUNCATED.equals(traces[len - 1].getClassName()))
+		{
+			len--;
+			truncated = true;
+		}
+		
+		int n = (fromroot ? len :
+				Math.min(len, ProfilerExecution.STACK_DEPTH)),
+			limit = (fromroot ? ProfilerExecution.STACK_DEPTH :
+				Integer.MAX_VALUE),
+			depth = 0;
+		if (n < len)
+			truncated = true;
+		
+		if (truncated)
+		{
+			grosswgtimeabs += __rel;
+			grosswgtime += cpurel;
+			at = this.__node(-1, methods.track(TRUNCATED, TRUNCATED));
+		}
+		
+		String folding = null;
 		for (int i = n - 1; i >= 0; i--)
 		{
-			// Top of the stack is the first element
-			boolean top = (i == 0);
+			// Frames are dropped or folded before they are tracked, folded
+			// frames are tracked as their package
+			StackTraceElement trace = traces[i];
+			MethodTracker.TrackedMethod tracked;
+			if (filter == null)
+				tracked = null;
+			else
+			{
+				String cl = trace.getClassName();
+				if (!filter.keep(cl))
+					continue;
+				
+				// Following frames in the same package are the same node
+				int fold = filter.foldLength(cl);
+				if (fold < 0)
+				{
+					folding = null;
+					tracked = null;
+				}
+				else if (folding != null && folding.length() == fold &&
+					cl.startsWith(folding))
+					continue;
+				else
+				{
+					folding = cl.substring(0, Math.max(0, fold));
+					tracked = null;
+					if (depth < limit)
+						tracked = methods.track(folding,
+							__FrameFilter__.FOLDED_METHOD);
+				}
+			}
 			
-			// Add gross time spent executing nodes
-			grosswgtimeabs += __rel;
-			if (!asleep)
-				grosswgtime += __rel;
+			// The rest of the stack is not used
+			if (depth++ >= limit)
+				break;
 			
 			// Find the index for this unique method
-			StackTraceElement trace = traces[i];
-			MethodTracker.TrackedMethod tracked = methods.track(trace);
+			if (tracked == null)
+				tracked = methods.track(trace);
 			
-			// Need the node for this entry
-			Node sub = traversal.subNode(tracked);
+			// Whether the parent node is the top of the stack is only known
+			// once there is another node
+			if (at >= 0)
+				this.__parse(at, __rel, cpurel, false);
 			
-			// Parse this node
-			sub.parse(__abs, __rel, top, asleep);
+			// Add gross time spent executing nodes
+			grosswgtimeabs += __rel;
+			grosswgtime += cpurel;
 			
-			// Traverse into the sub-tree
-			traversal = sub;
+			// Traverse into the node for this entry
+			at = this.__node(at, tracked);
 		}
 		
+		// The last node is the top of the stack
+		if (at >= 0)
+			this.__parse(at, __rel, cpurel, true);
+		
 		// Record gross time after time spent in nodes calculated
 		this._grosswgtime = grosswgtime;
 		this._grosswgtimeabs = grosswgtimeabs;
+		
+		// The first sample is only used as the base for allocations since
+		// anything before it was not done during the sampled stack
+		if (__alloc >= 0)
+		{
+			long last = this._lastallocated;
+			this._lastallocated = __alloc;
+			if (last >= 0 && __alloc > last && at >= 0)
+				this._allocated[at] += __alloc - last;
+		}
+		
+		// Record why the thread was not running
+		if (__info != null && ProfilerExecution.CONTENTION && at >= 0)
+			this.__contention(at, __rel - cpurel, __state, __traces, __info);
 	}
 	
-	/** 
-	 * {@inheritDoc}
-	 * @since 2018/02/19
+	/**
+	 * Returns the node for the given method within the parent, creating it
+	 * if it does not exist.
+	 *
+	 * @param __p The parent node, {@code -1} for a root node.
+	 * @param __m The method.
+	 * @return The index of the node.
+	 * @since 2019/04/02
 	 */
-	@Override
-	public final TrackedThread.Node subNode(MethodTracker.TrackedMethod __m)
-		throws NullPointerException
+	private final int __node(int __p, MethodTracker.TrackedMethod __m)
 	{
-		if (__m == null)
-			throw new NullPointerException();
+		// Probe for an existing node
+		int[] lookup = this._lookup;
+		int mask = lookup.length - 1,
+			slot = TrackedThread.__hash(__p, __m.index()) & mask;
+		for (;;)
+		{
+			int entry = lookup[slot];
+			if (entry == 0)
+				break;
+			
+			int node = entry - 1;
+			if (this._methods[node] == __m && this._parent[node] == __p)
+				return node;
+			
+			slot = (slot + 1) & mask;
+		}
+		
+		// Grow the arrays if there is no room
+		int rv = this._count;
+		if (rv == this._methods.length)
+			this.__grow(rv << 1);
 		
-		Map<MethodTracker.TrackedMethod, Node> nodes = this._nodes;
-		synchronized (nodes)
+		this._methods[rv] = __m;
+		this._parent[rv] = __p;
+		this._firstchild[rv] = -1;
+		this._lastchild[rv] = -1;
+		this._nextsibling[rv] = -1;
+		
+		// Add to the end of the children of the parent so that the nodes stay
+		// in the order they were first seen
+		if (__p < 0)
+		{
+			if (this._lastroot < 0)
+				this._firstroot = rv;
+			else
+				this._nextsibling[this._lastroot] = rv;
+			this._lastroot = rv;
+			this._numroots++;
+		}
+		else
 		{
-			Node rv = nodes.get(__m);
-			if (rv == null)
-				nodes.put(__m, (rv = new Node(__m)));
-			return rv;
+			if (this._lastchild[__p] < 0)
+				this._firstchild[__p] = rv;
+			else
+				this._nextsibling[this._lastchild[__p]] = rv;
+			this._lastchild[__p] = rv;
+			this._numchildren[__p]++;
 		}
+		
+		this._count = rv + 1;
+		
+		// The lookup table is kept at most half full
+		if ((rv + 1) << 1 > this._lookup.length)
+			this.__rehash(this._lookup.length << 1);
+		else
+			lookup[slot] = rv + 1;
+		
+		return rv;
 	}
 	
-	/** 
-	 * {@inheritDoc}
-	 * @since 2018/02/19
+	/**
+	 * Returns the child nodes in the given sibling chain.
+	 *
+	 * @param __first The first node in the chain.
+	 * @param __n The number of nodes in the chain.
+	 * @return The nodes.
+	 * @since 2019/04/02
 	 */
-	@Override
-	public final TrackedThread.Node[] subNodes()
+	private final TrackedThread.Node[] __nodes(int __first, int __n)
+	{
+		Node[] rv = new Node[__n];
+		int[] nextsibling = this._nextsibling;
+		for (int i = 0, at = __first; i < __n; i++, at = nextsibling[at])
+			rv[i] = new Node(this, at);
+		return rv;
+	}
+	
+	/**
+	 * Adds time to the given node.
+	 *
+	 * @param __n The node to add time to.
+	 * @param __rel The relative time since the last trace.
+	 * @param __cpu The CPU time since the last trace.
+	 * @param __top Is this node at the top of the stack?
+	 * @since 2019/04/02
+	 */
+	private final void __parse(int __n, int __rel, int __cpu, boolean __top)
 	{
-		Map<MethodTracker.TrackedMethod, Node> nodes = this._nodes;
-		synchronized (nodes)
+		this._graphabs[__n] += __rel;
+		this._cpuabs[__n] += __cpu;
+		if (__top)
 		{
-			Collection<Node> values = nodes.values();
-			return values.<Node>toArray(new Node[values.size()]);
+			this._graphself[__n] += __rel;
+			this._cpuself[__n] += __cpu;
 		}
 	}
 	
 	/**
-	 * Returns the time spent absolutly in this thread.
+	 * Grows the node arrays.
 	 *
-	 * @return The time spent absolutly in this thread.
-	 * @since 2018/02/19
+	 * @param __n The new capacity.
+	 * @since 2019/04/02
 	 */
-	public final long wholeGraphAbsoluteTime()
+	private final void __grow(int __n)
 	{
-		return this._wgabstime;
+		this._methods = Arrays.copyOf(this._methods, __n);
+		this._parent = Arrays.copyOf(this._parent, __n);
+		this._firstchild = Arrays.copyOf(this._firstchild, __n);
+		this._lastchild = Arrays.copyOf(this._lastchild, __n);
+		this._nextsibling = Arrays.copyOf(this._nextsibling, __n);
+		this._numchildren = Arrays.copyOf(this._numchildren, __n);
+		this._graphabs = Arrays.copyOf(this._graphabs, __n);
+		this._graphself = Arrays.copyOf(this._graphself, __n);
+		this._cpuabs = Arrays.copyOf(this._cpuabs, __n);
+		this._cpuself = Arrays.copyOf(this._cpuself, __n);
+		this._allocated = Arrays.copyOf(this._allocated, __n);
 	}
 	
 	/**
-	 * Returns the time spent sleeping in this thread.
+	 * Rebuilds the lookup table with the given size.
 	 *
-	 * @return The time spent sleeping in this thread.
-	 * @since 2018/02/19
+	 * @param __n The new size of the table, must be a power of two.
+	 * @since 2019/04/02
 	 */
-	public final long wholeGraphSleepTime()
+	private final void __rehash(int __n)
 	{
-		return this._wgsleeptime;
+		int[] lookup = new int[__n];
+		int mask = __n - 1;
+		
+		MethodTracker.TrackedMethod[] methods = this._methods;
+		int[] parent = this._parent;
+		for (int i = 0, n = this._count; i < n; i++)
+		{
+			int slot = TrackedThread.__hash(parent[i], methods[i].index()) &
+				mask;
+			while (lookup[slot] != 0)
+				slot = (slot + 1) & mask;
+			lookup[slot] = i + 1;
+		}
+		
+		this._lookup = lookup;
 	}
 	
 	/**
-	 * Returns the time spent running in this whole graph.
+	 * Checks if the given frame is a native method which performs I/O.
 	 *
-	 * @return The time spent running in this whole graph.
-	 * @since 2018/02/19
+	 * @param __e The frame to check.
+	 * @return If the frame performs I/O.
+	 * @since 2019/04/06
 	 */
-	public final long wholeGraphTime()
+	private static final boolean __isIO(StackTraceElement __e)
 	{
-		return this._wgtime;
+		if (!__e.isNativeMethod())
+			return false;
+		
+		String cl = __e.getClassName();
+		for (String prefix : _IO_PREFIXES)
+			if (cl.startsWith(prefix))
+				return true;
+		return false;
 	}
 	
 	/**
-	 * This represents a single node within the trace tree.
+	 * Hashes the parent and method of a node.
 	 *
-	 * @since 2018/02/19
+	 * @param __p The parent node.
+	 * @param __m The method index.
+	 * @return The hash.
+	 * @since 2019/04/02
 	 */
-	public static final class Node
-		implements TrackedThreadNodeTraversal
+	private static final int __hash(int __p, int __m)
 	{
-		/** The method being tracked. */
-		protected final MethodTracker.TrackedMethod method;
+		int h = (__p * 0x9E3779B9) ^ __m;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * This is the time a thread spent not running at a given node for a
+	 * single cause.
+	 *
+	 * @since 2019/04/06
+	 */
+	public static final class Contention
+	{
+		/** Blocked entering a monitor. */
+		public static final int CAUSE_BLOCKED =
+			0;
 		
-		/** Graph time. */
-		protected final TimeKeeper graph =
-			new TimeKeeper();
+		/** Waiting or parked. */
+		public static final int CAUSE_WAITING =
+			1;
 		
-		/** CPU time. */
-		protected final TimeKeeper cpu =
-			new TimeKeeper();
+		/** Running native I/O code. */
+		public static final int CAUSE_IO =
+			2;
 		
-		/** Nodes within this tree. */
-		private final Map<MethodTracker.TrackedMethod, Node> _nodes =
-			new LinkedHashMap<>();
+		/** The owning thread. */
+		protected final TrackedThread thread;
 		
-		/** The number of calls made to this method. */
-		private volatile int _numcalls;
+		/** The node index. */
+		protected int index;
+		
+		/** The cause. */
+		protected int cause;
+		
+		/** The lock, may be {@code null}. */
+		protected String lock;
+		
+		/** The owner of the lock, may be {@code null}. */
+		protected String owner;
+		
+		/** The time spent. */
+		long _time;
 		
 		/**
-		 * Initializes the node for tracking this method.
+		 * Initializes the contention information.
 		 *
-		 * @param __m The method to track.
+		 * @param __t The owning thread.
+		 * @param __i The node index.
+		 * @param __c The cause.
+		 * @param __l The lock.
+		 * @param __o The owner of the lock.
+		 * @throws NullPointerException If no thread was specified.
+		 * @since 2019/04/06
+		 */
+		private Contention(TrackedThread __t, int __i, int __c, String __l,
+			String __o)
+			throws NullPointerException
+		{
+			if (__t == null)
+				throw new NullPointerException();
+			
+			this.thread = __t;
+			this.index = __i;
+			this.cause = __c;
+			this.lock = __l;
+			this.owner = __o;
+		}
+		
+		/**
+		 * Returns the cause.
+		 *
+		 * @return The cause.
+		 * @since 2019/04/06
+		 */
+		public final int cause()
+		{
+			return this.cause;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @since 2019/04/06
+		 */
+		@Override
+		public final boolean equals(Object __o)
+		{
+			if (!(__o instanceof Contention))
+				return false;
+			
+			Contention o = (Contention)__o;
+			return this.thread == o.thread && this.index == o.index &&
+				this.cause == o.cause && Objects.equals(this.lock, o.lock) &&
+				Objects.equals(this.owner, o.owner);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @since 2019/04/06
+		 */
+		@Override
+		public final int hashCode()
+		{
+			return (this.index * 31 + this.cause) ^
+				Objects.hashCode(this.lock) ^ Objects.hashCode(this.owner);
+		}
+		
+		/**
+		 * Returns the name of the lock.
+		 *
+		 * @return The lock name, may be {@code null}.
+		 * @since 2019/04/06
+		 */
+		public final String lockName()
+		{
+			return this.lock;
+		}
+		
+		/**
+		 * Returns the name of the thread which owned the lock.
+		 *
+		 * @return The owner thread name, may be {@code null}.
+		 * @since 2019/04/06
+		 */
+		public final String lockOwner()
+		{
+			return this.owner;
+		}
+		
+		/**
+		 * Returns the node at the top of the stack.
+		 *
+		 * @return The node.
+		 * @since 2019/04/06
+		 */
+		public final TrackedThread.Node node()
+		{
+			return new Node(this.thread, this.index);
+		}
+		
+		/**
+		 * Returns the time spent in nanoseconds.
+		 *
+		 * @return The time spent.
+		 * @since 2019/04/06
+		 */
+		public final long time()
+		{
+			return this._time;
+		}
+	}
+	
+	/**
+	 * This represents a single node within the trace tree, it is a view of
+	 * the node which is stored in the thread.
+	 *
+	 * @since 2018/02/19
+	 */
+	public static final class Node
+		implements TrackedThreadNodeTraversal
+	{
+		/** The owning thread. */
+		protected final TrackedThread thread;
+		
+		/** The index of the node. */
+		protected final int index;
+		
+		/**
+		 * Initializes the node view.
+		 *
+		 * @param __t The owning thread.
+		 * @param __i The index of the node.
 		 * @throws NullPointerException On null arguments.
 		 * @since 2018/02/19
 		 */
-		private Node(MethodTracker.TrackedMethod __m)
+		private Node(TrackedThread __t, int __i)
 			throws NullPointerException
 		{
-			if (__m == null)
+			if (__t == null)
 				throw new NullPointerException();
 			
-			this.method = __m;
+			this.thread = __t;
+			this.index = __i;
+		}
+		
+		/**
+		 * Returns the number of bytes which were allocated while this node
+		 * was at the top of the stack.
+		 *
+		 * @return The allocated bytes.
+		 * @since 2019/04/05
+		 */
+		public final long allocatedBytes()
+		{
+			return this.thread._allocated[this.index];
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @since 2019/04/02
+		 */
+		@Override
+		public final boolean equals(Object __o)
+		{
+			if (!(__o instanceof Node))
+				return false;
+			
+			Node o = (Node)__o;
+			return this.thread == o.thread && this.index == o.index;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @since 2019/04/02
+		 */
+		@Override
+		public final int hashCode()
+		{
+			return System.identityHashCode(this.thread) ^ this.index;
 		}
 		
 		/**
@@ -331,18 +1135,19 @@ public final class TrackedThread
 		 */
 		public final MethodTracker.TrackedMethod method()
 		{
-			return this.method;
+			return this.thread._methods[this.index];
 		}
 		
 		/**
-		 * Returns the number of calls made to this node.
+		 * Returns the number of calls made to this node, sampling cannot
+		 * count calls so this is always zero.
 		 *
 		 * @return The call count for this node.
 		 * @since 2018/02/20
 		 */
 		public final int numCalls()
 		{
-			return this._numcalls;
+			return 0;
 		}
 		
 		/**
@@ -358,12 +1163,8 @@ public final class TrackedThread
 		public final void parse(long __abs, int __rel, boolean __top,
 			boolean __asleep)
 		{
-			// Add graph time regardless if the thread is asleep or not
-			this.graph.addTime(__top, __rel);
-			
-			// Add CPU time if not asleep
-			if (!__asleep)
-				this.cpu.addTime(__top, __rel);
+			this.thread.__parse(this.index, __rel, (__asleep ? 0 : __rel),
+				__top);
 		}
 		
 		/** 
@@ -376,17 +1177,11 @@ public final class TrackedThread
 		{
 			if (__m == null)
 				throw new NullPointerException();
-		
-			Map<MethodTracker.TrackedMethod, Node> nodes = this._nodes;
-			synchronized (nodes)
-			{
-				Node rv = nodes.get(__m);
-				if (rv == null)
-					nodes.put(__m, (rv = new Node(__m)));
-				return rv;
-			}
+			
+			TrackedThread thread = this.thread;
+			return new Node(thread, thread.__node(this.index, __m));
 		}
-	
+		
 		/** 
 		 * {@inheritDoc}
 		 * @since 2018/02/19
@@ -394,34 +1189,38 @@ public final class TrackedThread
 		@Override
 		public final TrackedThread.Node[] subNodes()
 		{
-			Map<MethodTracker.TrackedMethod, Node> nodes = this._nodes;
-			synchronized (nodes)
-			{
-				Collection<Node> values = nodes.values();
-				return values.<Node>toArray(new Node[values.size()]);
-			}
+			TrackedThread thread = this.thread;
+			int index = this.index;
+			return thread.__nodes(thread._firstchild[index],
+				thread._numchildren[index]);
 		}
 		
 		/**
 		 * Time spent on the CPU.
 		 *
-		 * @return The CPU time.
+		 * @return A snapshot of the CPU time.
 		 * @since 2018/02/20
 		 */
 		public final TimeKeeper timeCPU()
 		{
-			return this.cpu;
+			TrackedThread thread = this.thread;
+			int index = this.index;
+			return new TimeKeeper(thread._cpuabs[index],
+				thread._cpuself[index]);
 		}
 		
 		/**
 		 * Time spent on the graph.
 		 *
-		 * @return The graph time.
+		 * @return A snapshot of the graph time.
 		 * @since 2018/02/20
 		 */
 		public final TimeKeeper timeGraph()
 		{
-			return this.graph;
+			TrackedThread thread = this.thread;
+			int index = this.index;
+			return new TimeKeeper(thread._graphabs[index],
+				thread._graphself[index]);
 		}
 	}
 }
@@ -1,8 +1,9 @@
 package com.iopipe.plugin.profiler;
 
-import java.util.Arrays;
-import java.util.Collection;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -16,10 +17,36 @@ public final class Tracker
 	protected final MethodTracker methods =
 		new MethodTracker();
 	
-	/** Thread recordings. */
-	private final Map<Thread, TrackedThread> _threads =
+	/** Every thread recording, in the order they were first seen. */
+	private final List<TrackedThread> _all =
+		new ArrayList<>();
+	
+	/** Thread recordings, keyed by the thread or the thread ID. */
+	private final Map<Object, TrackedThread> _threads =
 		new HashMap<>();
 	
+	/** Thread recordings under the current root, or those not under one. */
+	private Map<Object, TrackedThread> _current =
+		this._threads;
+	
+	/** The root new threads are placed under, {@code null} if none. */
+	private String _root;
+	
+	/** Was the number of allocated bytes of any thread known? */
+	private volatile boolean _allocations;
+	
+	/**
+	 * Returns whether the number of bytes allocated by threads was known
+	 * for any sample.
+	 *
+	 * @return If allocations were measured.
+	 * @since 2019/04/10
+	 */
+	public final boolean hasAllocations()
+	{
+		return this._allocations;
+	}
+	
 	/**
 	 * Returns the methods which have been tracked.
 	 *
@@ -47,20 +74,126 @@ public final class Tracker
 		if (__thread == null)
 			throw new NullPointerException();
 		
-		TrackedThread stat;
+		// Record thread information
+		this.__thread(__thread).parseStackTrace(__abs, __rel);
+	}
+	
+	/**
+	 * Parses and keeps track of the specified stack trace which was
+	 * already obtained from the thread.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __thread The thread which was traced.
+	 * @param __state The state of the thread.
+	 * @param __trace The stack trace of the thread.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/03/31
+	 */
+	public final void parseStackTrace(long __abs, int __rel, Thread __thread,
+		Thread.State __state, StackTraceElement[] __trace)
+		throws NullPointerException
+	{
+		if (__thread == null || __state == null || __trace == null)
+			throw new NullPointerException();
+		
+		// Record thread information
+		this.__thread(__thread).parseStackTrace(__abs, __rel, __state,
+			__trace);
+	}
+	
+	/**
+	 * Parses and keeps track of the stack trace in the given thread
+	 * information along with the CPU time the thread used and the number of
+	 * bytes it has allocated.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __thread The thread which was traced.
+	 * @param __info The information on the thread.
+	 * @param __cpu The total CPU time the thread has used in nanoseconds, a
+	 * negative value if this is not known.
+	 * @param __alloc The total number of bytes the thread has allocated, a
+	 * negative value if this is not known.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/05
+	 */
+	public final void parseStackTrace(long __abs, int __rel, Thread __thread,
+		ThreadInfo __info, long __cpu, long __alloc)
+		throws NullPointerException
+	{
+		if (__thread == null || __info == null)
+			throw new NullPointerException();
+		
+		if (__alloc >= 0 && !this._allocations)
+			this._allocations = true;
 		
-		// In the future recording traces could be done in multiple threads
-		Map<Thread, TrackedThread> threads = this._threads;
-		synchronized (threads)
-		{
-			stat = threads.get(__thread);
-			if (stat == null)
-				threads.put(__thread, (stat = new TrackedThread(__thread,
-					threads.size(), this.methods)));
-		}
+		// Record thread information
+		this.__thread(__thread).parseStackTrace(__abs, __rel, __info, __cpu,
+			__alloc);
+	}
+	
+	/**
+	 * Parses and keeps track of the specified stack trace for a thread which
+	 * is only known by its identifier and name.
+	 *
+	 * @param __abs The absolute time since the start of execution in
+	 * nanoseconds.
+	 * @param __rel The relative time since the last trace.
+	 * @param __id The identifier of the thread.
+	 * @param __name The name of the thread.
+	 * @param __state The state of the thread.
+	 * @param __trace The stack trace of the thread.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/01
+	 */
+	public final void parseStackTrace(long __abs, int __rel, long __id,
+		String __name, Thread.State __state, StackTraceElement[] __trace)
+		throws NullPointerException
+	{
+		if (__state == null || __trace == null)
+			throw new NullPointerException();
 		
 		// Record thread information
-		stat.parseStackTrace(__abs, __rel);
+		this.__thread(__id, null, __name).parseStackTrace(__abs, __rel,
+			__state, __trace);
+	}
+	
+	/**
+	 * Forgets the measurements of the last sample of every thread, so that
+	 * the next sample of each thread only sets the base that the following
+	 * samples are relative to. This is used when a tracker is sampled again
+	 * after a pause.
+	 *
+	 * @since 2019/04/10
+	 */
+	final void resetBaselines()
+	{
+		List<TrackedThread> all = this._all;
+		synchronized (all)
+		{
+			for (TrackedThread thread : all)
+				thread.resetBaselines();
+		}
+	}
+	
+	/**
+	 * Sets the root which threads that are traced from now on are placed
+	 * under. Threads under a root are tracked apart from the same threads
+	 * outside of it and their names are prefixed by the root.
+	 *
+	 * @param __r The root to use, {@code null} if there is none.
+	 * @since 2019/04/10
+	 */
+	final void root(String __r)
+	{
+		synchronized (this._all)
+		{
+			this._root = __r;
+			this._current = (__r == null ? this._threads : new HashMap<>());
+		}
 	}
 	
 	/**
@@ -71,12 +204,57 @@ public final class Tracker
 	 */
 	public final TrackedThread[] threads()
 	{
-		Map<Thread, TrackedThread> threads = this._threads;
-		synchronized (threads)
+		List<TrackedThread> all = this._all;
+		synchronized (all)
+		{
+			return all.<TrackedThread>toArray(new TrackedThread[all.size()]);
+		}
+	}
+	
+	/**
+	 * Returns the tracked state for the given thread.
+	 *
+	 * @param __thread The thread to get.
+	 * @return The tracked thread.
+	 * @since 2019/03/31
+	 */
+	private final TrackedThread __thread(Thread __thread)
+	{
+		return this.__thread(__thread, __thread, __thread.getName());
+	}
+	
+	/**
+	 * Returns the tracked state for the given thread under the current
+	 * root, creating it if it does not exist.
+	 *
+	 * @param __k The key of the thread.
+	 * @param __thread The thread, may be {@code null} if it is not known.
+	 * @param __name The name of the thread.
+	 * @return The tracked thread.
+	 * @since 2019/04/10
+	 */
+	private final TrackedThread __thread(Object __k, Thread __thread,
+		String __name)
+	{
+		// In the future recording traces could be done in multiple threads
+		List<TrackedThread> all = this._all;
+		synchronized (all)
 		{
-			Collection<TrackedThread> values = threads.values();
-			return values.<TrackedThread>toArray(new TrackedThread[values.size()]);
+			Map<Object, TrackedThread> current = this._current;
+			TrackedThread rv = current.get(__k);
+			if (rv != null)
+				return rv;
+			
+			// Threads under a root are named by it
+			String root = this._root,
+				name = (root == null ? __name : root + __name);
+			rv = (__thread != null ?
+				new TrackedThread(__thread, name, all.size(), this.methods) :
+				new TrackedThread(name, all.size(), this.methods));
+			
+			current.put(__k, rv);
+			all.add(rv);
+			return rv;
 		}
 	}
 }
-
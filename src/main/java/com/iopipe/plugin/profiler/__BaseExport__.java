@@ -1,11 +1,13 @@
 package com.iopipe.plugin.profiler;
 
-import com.iopipe.IOpipeExecution;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
@@ -20,8 +22,8 @@ abstract class __BaseExport__
 	/** The tracker data. */
 	protected final Tracker tracker;
 	
-	/** The execution. */
-	protected final IOpipeExecution execution;
+	/** The time profiling started in milliseconds since the epoch. */
+	protected final long starttime;
 	
 	/** The sampling rate. */
 	protected final int samplerate;
@@ -30,19 +32,20 @@ abstract class __BaseExport__
 	 * Initializes the exporter.
 	 *
 	 * @param __t The tracker data.
-	 * @param __e Execution context.
+	 * @param __st The time profiling started in milliseconds since the
+	 * epoch.
 	 * @param __sr The sampling rate.
 	 * @throws NullPointerException On null arguments.
 	 * @since 2018/02/12
 	 */
-	__BaseExport__(Tracker __t, IOpipeExecution __e, int __sr)
+	__BaseExport__(Tracker __t, long __st, int __sr)
 		throws NullPointerException
 	{
-		if (__t == null || __e == null)
+		if (__t == null)
 			throw new NullPointerException();
 		
 		this.tracker = __t;
-		this.execution = __e;
+		this.starttime = __st;
 		this.samplerate = __sr;
 	}
 	
@@ -87,36 +90,38 @@ abstract class __BaseExport__
 		dos.write(MINOR_VERSION);
 		dos.writeInt(snapshotType());
 		
-		// Need to export sub-data
-		int complen, uncomplen;
-		byte[] databuf;
-		try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DeflaterOutputStream defl = new DeflaterOutputStream(baos,
-				new Deflater(COMPRESSION_LEVEL));
-			DataOutputStream xdflos = new DataOutputStream(defl))
+		// The lengths of the compressed data must be known before it is
+		// written, so it is spilled to a file rather than kept in memory
+		Path spill = Files.createTempFile("iopipe-snapshot-", ".bin");
+		Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+		try
 		{
-			// Write sub-data
-			this.writeSubOutput(xdflos);
-			
-			// Flush streams and finish writing compressed data
-			xdflos.flush();
-			defl.finish();
-			defl.flush();
-			
-			// Compressed length are bytes written to the byte output because
-			// those 
-			complen = baos.size();
+			int uncomplen;
+			try (DataOutputStream xdflos = new DataOutputStream(
+				new DeflaterOutputStream(new BufferedOutputStream(
+				Files.newOutputStream(spill)), deflater)))
+			{
+				// Write sub-data
+				this.writeSubOutput(xdflos);
+				xdflos.flush();
+				
+				// Uncompressed length is data written to the data output
+				uncomplen = xdflos.size();
+			}
 			
-			// Uncompressed length is data written to the data output
-			uncomplen = xdflos.size();
+			// Compressed length is the size of the spilled data
+			dos.writeInt((int)Files.size(spill));
+			dos.writeInt(uncomplen);
 			
-			databuf = baos.toByteArray();
+			// Write snapshot data
+			dos.flush();
+			Files.copy(spill, __out);
+		}
+		finally
+		{
+			deflater.end();
+			Files.deleteIfExists(spill);
 		}
-		
-		// Write snapshot data
-		dos.writeInt(complen);
-		dos.writeInt(uncomplen);
-		dos.write(databuf);
 		
 		// Settings are in .properties file format
 		try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -125,8 +130,10 @@ abstract class __BaseExport__
 			// Always have CPU time included
 			pw.println("profiler.settings.thread.cpu.timer.on=true");
 			
-			// Print sampling interval
-			int samplerate = this.samplerate / 1_000_000;
+			// Print sampling interval, which is in whole milliseconds so it
+			// is rounded since adapted rates rarely are
+			int samplerate = (int)Math.max(1,
+				(this.samplerate + 500_000L) / 1_000_000L);
 			pw.printf("profiler.settings.sampling.interval=%d%n", samplerate);
 			pw.printf("profiler.settings.cpu.sampling.frequency=%d%n",
 				samplerate);
@@ -1,15 +1,12 @@
 package com.iopipe.plugin.profiler;
 
-import com.iopipe.IOpipeExecution;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UncheckedIOException;
 import java.util.Objects;
-import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * This class contains all the methods which are needed to export a tracker
@@ -25,17 +22,22 @@ final class __CPUExport__
 	public static final int VERSION =
 		1;
 	
+	/** The number of nodes needed before threads are compacted in parallel. */
+	public static final int PARALLEL_THRESHOLD =
+		8192;
+	
 	/**
 	 * Initializes the exporter.
 	 *
 	 * @param __t The tracker data.
-	 * @param __e Execution context.
+	 * @param __st The time profiling started in milliseconds since the
+	 * epoch.
 	 * @param __sr The sampling rate.
 	 * @since 2018/02/12
 	 */
-	__CPUExport__(Tracker __t, IOpipeExecution __e, int __sr)
+	__CPUExport__(Tracker __t, long __st, int __sr)
 	{
-		super(__t, __e, __sr);
+		super(__t, __st, __sr);
 	}
 	
 	/**
@@ -61,11 +63,10 @@ final class __CPUExport__
 		
 		Tracker tracker = this.tracker;
 		MethodTracker methods = tracker.methods();
-		IOpipeExecution execution = this.execution;
 		
 		// Write header fields
 		__dos.writeInt(VERSION);
-		long starttime = execution.startTimestamp();
+		long starttime = this.starttime;
 		__dos.writeLong(starttime);
 		__dos.writeLong(System.currentTimeMillis());
 		
@@ -82,81 +83,199 @@ final class __CPUExport__
 			
 			// These may be null in which case use an empty string instead
 			__dos.writeUTF(Objects.toString(m.className(), ""));
-			__dos.writeUTF(Objects.toString(m.methodName(), ""));
+			// Lines are shown after the method name
+			String name = Objects.toString(m.methodName(), "");
+			int line = m.lineNumber();
+			__dos.writeUTF((line > 0 ? name + ":" + line : name));
 			
 			// No descriptor is used
 			__dos.writeUTF("");
 		}
 		
-		// Dump thread information
+		// Dump thread information, threads are compacted in batches so that
+		// only the compacted data of the threads being written is held
 		TrackedThread[] threads = tracker.threads();
 		n = threads.length;
+		int batch = __CPUExport__.__batchSize(threads);
 		__dos.writeInt(n);
-		for (int i = 0; i < n; i++)
-			this.__writeThread(__dos, threads[i]);
+		for (int i = 0; i < n; i += batch)
+		{
+			int end = Math.min(n, i + batch);
+			byte[][] compacts = __CPUExport__.__compact(threads, i, end);
+			for (int j = i; j < end; j++)
+				this.__writeThread(__dos, threads[j], compacts[j - i]);
+		}
 	}
 	
 	/**
-	 * Writes the compact data information.
+	 * Returns the number of threads which are compacted at once, if there
+	 * are enough nodes then threads are compacted in parallel on the common
+	 * fork-join pool, one batch for each processor.
+	 *
+	 * @param __t The threads to compact.
+	 * @return The number of threads to compact at once.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/09
+	 */
+	private static final int __batchSize(TrackedThread[] __t)
+		throws NullPointerException
+	{
+		if (__t == null)
+			throw new NullPointerException();
+		
+		// Small snapshots are not worth splitting up
+		int cpus = Runtime.getRuntime().availableProcessors();
+		long total = 0;
+		for (TrackedThread t : __t)
+			total += t._count;
+		if (__t.length <= 1 || total < PARALLEL_THRESHOLD || cpus <= 1)
+			return 1;
+		return cpus;
+	}
+	
+	/**
+	 * Compacts the nodes of a range of threads, since each thread is
+	 * independent of the others this is done in parallel if there is more
+	 * than one thread. The result is in the same order as the threads.
+	 *
+	 * @param __t The threads to compact.
+	 * @param __from The first thread to compact.
+	 * @param __to The thread after the last to compact.
+	 * @return The compacted data for each thread in the range.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/09
+	 */
+	private static final byte[][] __compact(TrackedThread[] __t, int __from,
+		int __to)
+		throws IOException, NullPointerException
+	{
+		if (__t == null)
+			throw new NullPointerException();
+		
+		int n = __to - __from;
+		byte[][] rv = new byte[n][];
+		if (n == 1)
+		{
+			rv[0] = __writeCompact(__t[__from]);
+			return rv;
+		}
+		
+		// Each slot is only written by a single task
+		try
+		{
+			IntStream.range(0, n).parallel().forEach((__i) ->
+				{
+					try
+					{
+						rv[__i] = __writeCompact(__t[__from + __i]);
+					}
+					catch (IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				});
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Writes the compact data information, this is written directly from the
+	 * node arrays in the thread.
 	 *
 	 * @param __t The thread with the nodes to write.
+	 * @return The compacted node data.
 	 * @throws IOException On write errors.
 	 * @throws NullPointerException On null arguments.
 	 * @since 2018/02/20
 	 */
-	private final byte[] __writeCompact(TrackedThread __t)
+	private static final byte[] __writeCompact(TrackedThread __t)
 		throws IOException, NullPointerException
 	{
 		if (__t == null)
 			throw new NullPointerException();
 		
-		// Determine the position of each node in the thread
-		__Compact__ compact = new __Compact__();
-		for (TrackedThread.Node sub : __t.subNodes())
-			compact.recurse(sub);
+		int count = __t._count;
+		MethodTracker.TrackedMethod[] methods = __t._methods;
+		int[] parent = __t._parent,
+			firstchild = __t._firstchild,
+			nextsibling = __t._nextsibling,
+			numchildren = __t._numchildren;
+		long[] graphabs = __t._graphabs,
+			graphself = __t._graphself,
+			cpuabs = __t._cpuabs,
+			cpuself = __t._cpuself;
+		
+		// Nodes are written depth first, so determine that order and where
+		// each node will be placed for both narrow and wide pointers
+		int[] order = new int[count],
+			narrow = new int[count],
+			wide = new int[count];
+		int narrowp = 0,
+			widep = 0;
+		for (int i = 0, at = __t._firstroot; at >= 0; i++)
+		{
+			order[i] = at;
+			narrow[at] = narrowp;
+			wide[at] = widep;
+			
+			int n = numchildren[at];
+			narrowp += 28 + (n * 3);
+			widep += 28 + (n * 4);
 			
-		// The list makes it easier to write nodes since it can be done
-		// linearly
-		boolean iswide = compact.isWide();
-		List<TrackedThread.Node> byindex = compact._byindex;
-		Map<TrackedThread.Node, __Pointer__> offsets = compact._offsets;
+			// Go into the children first, otherwise the next sibling of this
+			// node or the closest parent which has one
+			if (firstchild[at] >= 0)
+				at = firstchild[at];
+			else
+			{
+				while (at >= 0 && nextsibling[at] < 0)
+					at = parent[at];
+				if (at >= 0)
+					at = nextsibling[at];
+			}
+		}
+		
+		// After this many bytes, this becomes wide
+		boolean iswide = narrowp > 16777215;
 		
 		// Write compacted node data
 		try (ByteArrayOutputStream baos = new ByteArrayOutputStream(
-			compact.approxMaxSize());
+			(iswide ? widep : narrowp));
 			DataOutputStream dos = new DataOutputStream(baos))
 		{
 			// Write every node
-			for (TrackedThread.Node node : byindex)
+			for (int i = 0; i < count; i++)
 			{
-				MethodTracker.TrackedMethod method = node.method();
+				int node = order[i];
+				
+				dos.writeShort(methods[node].index());
 				
-				dos.writeShort(method.index());
-				dos.writeInt(Math.max(1, node.numCalls()));
+				// Calls cannot be counted when sampling
+				dos.writeInt(1);
 				
 				// Record time spent in method
-				TimeKeeper graph = node.timeGraph();
-				__writeFive(dos, graph.absolute());
-				__writeFive(dos, graph.self());
+				__writeFive(dos, graphabs[node]);
+				__writeFive(dos, graphself[node]);
 				
 				// Use same times for thread time
-				TimeKeeper cpu = node.timeCPU();
-				__writeFive(dos, cpu.absolute());
-				__writeFive(dos, cpu.self());
+				__writeFive(dos, cpuabs[node]);
+				__writeFive(dos, cpuself[node]);
 				
 				// Write sub-node offsets
-				TrackedThread.Node[] subs = node.subNodes();
-				int n = subs.length;
-				dos.writeShort(n);
-				for (int i = 0; i < n; i++)
+				dos.writeShort(numchildren[node]);
+				for (int sub = firstchild[node]; sub >= 0;
+					sub = nextsibling[sub])
 				{
-					TrackedThread.Node sub = subs[i];
-					int p = offsets.get(sub).pointer(iswide);
-					
 					if (iswide)
-						dos.writeInt(p);
+						dos.writeInt(wide[sub]);
 					else
-						__writeThree(dos, p);
+						__writeThree(dos, narrow[sub]);
 				}
 			}
 			
@@ -171,14 +290,16 @@ final class __CPUExport__
 	 *
 	 * @param __dos The stream to write to.
 	 * @param __t The thread information.
+	 * @param __compact The compacted node data for the thread.
 	 * @throws IOException On write errors.
 	 * @throws NullPointerException On null arguments.
 	 * @since 2018/02/19
 	 */
-	private final void __writeThread(DataOutputStream __dos, TrackedThread __t)
+	private final void __writeThread(DataOutputStream __dos, TrackedThread __t,
+		byte[] __compact)
 		throws IOException, NullPointerException
 	{
-		if (__dos == null || __t == null)
+		if (__dos == null || __t == null || __compact == null)
 			throw new NullPointerException();
 		
 		__dos.writeInt(__t.logicalIndex());
@@ -188,9 +309,8 @@ final class __CPUExport__
 		__dos.writeBoolean(true);
 		
 		// Write compact node data
-		byte[] compact = this.__writeCompact(__t);
-		__dos.writeInt(compact.length);
-		__dos.write(compact);
+		__dos.writeInt(__compact.length);
+		__dos.write(__compact);
 		
 		// Base sub-node size is always 28
 		__dos.writeInt(28);
@@ -259,143 +379,5 @@ final class __CPUExport__
 		__dos.writeByte((byte)(__val >>> 8));
 		__dos.writeByte((byte)(__val));
 	}
-	
-	/**
-	 * Stored node information.
-	 *
-	 * @since 2018/02/20
-	 */
-	private static final class __Compact__
-	{
-		/** Nodes in index order. */
-		final List<TrackedThread.Node> _byindex =
-			new ArrayList<>();
-		
-		/** Offsets for every node. */
-		final Map<TrackedThread.Node, __Pointer__> _offsets =
-			new HashMap<>();
-		
-		/** Current write pointer (for narrow compact data). */
-		private int _narrowp;
-		
-		/** Current write pointer (for wide compact data). */
-		private int _widep;
-		
-		/**
-		 * Returns the approximated maximum compact data size.
-		 *
-		 * @return The approximated maximum compact data size.
-		 * @since 2018/02/20
-		 */
-		public final int approxMaxSize()
-		{
-			return (this.isWide() ? this._widep : this._narrowp);
-		}
-		
-		/**
-		 * Should the compact data be written wide?
-		 *
-		 * @return Is the data to be wide?
-		 * @since 2018/02/20
-		 */
-		public final boolean isWide()
-		{
-			// After this many bytes, this becomes wide
-			return this._narrowp > 16777215;
-		}
-		
-		/**
-		 * Recursively handles each node.
-		 *
-		 * @param __n The initial node.
-		 * @throws NullPointerException On null arguments.
-		 * @since 2018/02/20
-		 */
-		public final void recurse(TrackedThread.Node __n)
-			throws NullPointerException
-		{
-			if (__n == null)
-				throw new NullPointerException();
-			
-			// Internal recursive handling
-			this.__recurse(__n);
-		}
-		
-		/**
-		 * Recursively handles each node, using internal logic.
-		 *
-		 * @param __n The initial node.
-		 * @throws NullPointerException On null arguments.
-		 * @since 2018/02/20
-		 */
-		private final void __recurse(TrackedThread.Node __n)
-			throws NullPointerException
-		{
-			if (__n == null)
-				throw new NullPointerException();
-			
-			// Register this node in the global list
-			this._byindex.add(__n);
-			
-			// Set base offsets for this node
-			int narrowp = this._narrowp,
-				widep = this._widep;
-			this._offsets.put(__n, new __Pointer__(narrowp, widep));
-			
-			// Determine the next positions for the following pointers
-			TrackedThread.Node[] subs = __n.subNodes();
-			int n = subs.length;
-			narrowp += 28 + (n * 3);
-			widep += 28 + (n * 4);
-			
-			// Set next pointer position
-			this._narrowp = narrowp;
-			this._widep = widep;
-			
-			// Recurse through subnodes to calculation their positions
-			for (TrackedThread.Node sub : subs)
-				this.recurse(sub);
-		}
-	}
-	
-	/**
-	 * This is used to store the narrow and wide positions since recorded
-	 * snapshots node data may come in two variable sizes.
-	 *
-	 * @since 2018/02/20
-	 */
-	private static final class __Pointer__
-	{
-		/** Pointer if the node list is narrow. */
-		public final int narrow;
-		
-		/** Pointer if the node list is wide. */
-		public final int wide;
-		
-		/**
-		 * Initializes the pointer.
-		 *
-		 * @param __n The narrow pointer.
-		 * @param __w The wide pointer.
-		 * @since 2018/02/20
-		 */
-		public __Pointer__(int __n, int __w)
-		{
-			this.narrow = __n;
-			this.wide = __w;
-		}
-		
-		/**
-		 * Returns the appropriate pointer.
-		 *
-		 * @param __w Is this wide?
-		 * @return The used pointer.
-		 * @since 2018/02/20
-		 */
-		public final int pointer(boolean __w)
-		{
-			return (__w ? this.wide : this.narrow);
-		}
-	}
 }
 
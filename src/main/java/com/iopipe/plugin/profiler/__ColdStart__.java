@@ -0,0 +1,128 @@
+package com.iopipe.plugin.profiler;
+
+/**
+ * This samples every thread in the virtual machine from the time the agent
+ * is loaded until the first invocation starts, so that what happens before
+ * the first invocation such as static initializers and the construction of
+ * the handler can be seen.
+ *
+ * The samples are placed in the tracker of the first invocation, under a
+ * separate root so that they are not merged with the invocation itself.
+ *
+ * @since 2019/04/10
+ */
+final class __ColdStart__
+{
+	/** The root cold start threads are placed under. */
+	static final String ROOT =
+		"coldstart/";
+	
+	/** The tracker being sampled into, {@code null} if not sampling. */
+	private static Tracker _tracker;
+	
+	/** The poller. */
+	private static __Poller__ _poller;
+	
+	/** The thread which polls. */
+	private static Thread _pollthread;
+	
+	/** Was sampling started before? */
+	private static boolean _started;
+	
+	/**
+	 * Not used.
+	 *
+	 * @since 2019/04/10
+	 */
+	private __ColdStart__()
+	{
+	}
+	
+	/**
+	 * Stops sampling the cold start.
+	 *
+	 * @return The tracker with the cold start samples or {@code null} if the
+	 * cold start was not sampled or this was called before.
+	 * @since 2019/04/10
+	 */
+	static final Tracker finish()
+	{
+		Tracker tracker;
+		__Poller__ poller;
+		Thread pollthread;
+		synchronized (__ColdStart__.class)
+		{
+			tracker = _tracker;
+			poller = _poller;
+			pollthread = _pollthread;
+			
+			_tracker = null;
+			_poller = null;
+			_pollthread = null;
+		}
+		
+		if (tracker == null)
+			return null;
+		
+		// The poller must be finished before the tracker can be used by
+		// the invocation
+		poller._stop.set(true);
+		pollthread.interrupt();
+		for (;;)
+			try
+			{
+				pollthread.join();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+			}
+		
+		// The invocation samples its threads apart from the cold start
+		tracker.root(null);
+		return tracker;
+	}
+	
+	/**
+	 * Starts sampling the cold start, this only ever starts sampling once.
+	 *
+	 * @param __g The group to place the polling thread in.
+	 * @since 2019/04/10
+	 */
+	static final void start(ThreadGroup __g)
+	{
+		synchronized (__ColdStart__.class)
+		{
+			if (_started)
+				return;
+			_started = true;
+			
+			// Every thread is sampled since the threads of the invocation
+			// do not exist yet
+			Tracker tracker = new Tracker();
+			tracker.root(ROOT);
+			
+			__Poller__ poller = new __Poller__(tracker,
+				Thread.currentThread().getThreadGroup(),
+				ProfilerExecution.SAMPLE_RATE, __ThreadFilter__.ALL,
+				ProfilerExecution.COLD_START_LIMIT * 1_000_000L);
+			
+			Thread pollthread;
+			try
+			{
+				pollthread = new Thread(__g, poller,
+					"IOpipe-ProfilerColdStart");
+				pollthread.setDaemon(true);
+				pollthread.start();
+			}
+			catch (SecurityException e)
+			{
+				return;
+			}
+			
+			_tracker = tracker;
+			_poller = poller;
+			_pollthread = pollthread;
+		}
+	}
+}
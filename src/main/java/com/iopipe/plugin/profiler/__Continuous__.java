@@ -0,0 +1,148 @@
+package com.iopipe.plugin.profiler;
+
+/**
+ * This holds the tracker which is shared by all executions in the container
+ * when profiling continuously, the samples are accumulated until enough
+ * invocations or time has passed at which point the window is exported.
+ *
+ * Only a single execution may sample into the tracker at a time.
+ *
+ * @since 2019/04/07
+ */
+final class __Continuous__
+{
+	/** The shared state. */
+	static final __Continuous__ INSTANCE =
+		new __Continuous__();
+	
+	/** The current tracker. */
+	private Tracker _tracker;
+	
+	/** Statistics at the start of the window. */
+	private ManagementStatistics _beginstats;
+	
+	/** The time the window started in milliseconds since the epoch. */
+	private long _starttime;
+	
+	/** The number of invocations in this window. */
+	private int _invocations;
+	
+	/** The sum of each sample rate multiplied by the time sampled. */
+	private double _weightedrate;
+	
+	/** The total time which was sampled. */
+	private long _sampledtime;
+	
+	/** Is an execution currently sampling? */
+	private boolean _busy;
+	
+	/**
+	 * Acquires the tracker for an execution, a new window is started if
+	 * there is none.
+	 *
+	 * @return The tracker or {@code null} if another execution is sampling.
+	 * @since 2019/04/07
+	 */
+	final synchronized Tracker acquire()
+	{
+		if (this._busy)
+			return null;
+		this._busy = true;
+		
+		Tracker rv = this._tracker;
+		if (rv == null)
+		{
+			this._tracker = (rv = new Tracker());
+			this._beginstats = ManagementStatistics.snapshot(0);
+			this._starttime = System.currentTimeMillis();
+			this._invocations = 0;
+			this._weightedrate = 0;
+			this._sampledtime = 0;
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Releases the tracker after an execution has finished sampling into it.
+	 *
+	 * @param __sr The effective sample rate of the execution.
+	 * @param __t The time the execution sampled for in nanoseconds.
+	 * @return The finished window if it should be exported, otherwise
+	 * {@code null}.
+	 * @since 2019/04/07
+	 */
+	final synchronized __Continuous__.Window release(int __sr, long __t)
+	{
+		this._busy = false;
+		
+		int invocations = ++this._invocations;
+		long sampledtime = (this._sampledtime += Math.max(0, __t));
+		double weightedrate = (this._weightedrate +=
+			(double)__sr * Math.max(0, __t));
+		
+		// Not time to export yet
+		long starttime = this._starttime;
+		if (invocations < ProfilerExecution.CONTINUOUS_INVOCATIONS &&
+			System.currentTimeMillis() - starttime <
+			ProfilerExecution.CONTINUOUS_INTERVAL)
+			return null;
+		
+		// The next execution starts a new window
+		Window rv = new Window(this._tracker, this._beginstats, starttime,
+			(sampledtime > 0 ? (int)(weightedrate / sampledtime) : __sr),
+			invocations);
+		this._tracker = null;
+		this._beginstats = null;
+		
+		return rv;
+	}
+	
+	/**
+	 * A window of invocations which is to be exported.
+	 *
+	 * @since 2019/04/07
+	 */
+	static final class Window
+	{
+		/** The tracker. */
+		protected final Tracker tracker;
+		
+		/** Statistics at the start of the window. */
+		protected final ManagementStatistics beginstats;
+		
+		/** The time the window started in milliseconds since the epoch. */
+		protected final long starttime;
+		
+		/** The average sample rate. */
+		protected final int samplerate;
+		
+		/** The number of invocations. */
+		protected final int invocations;
+		
+		/**
+		 * Initializes the window.
+		 *
+		 * @param __t The tracker.
+		 * @param __b Statistics at the start of the window.
+		 * @param __st The start time.
+		 * @param __sr The sample rate.
+		 * @param __n The number of invocations.
+		 * @throws NullPointerException On null arguments.
+		 * @since 2019/04/07
+		 */
+		private Window(Tracker __t, ManagementStatistics __b, long __st,
+			int __sr, int __n)
+			throws NullPointerException
+		{
+			if (__t == null || __b == null)
+				throw new NullPointerException();
+			
+			this.tracker = __t;
+			this.beginstats = __b;
+			this.starttime = __st;
+			this.samplerate = Math.max(1, __sr);
+			this.invocations = __n;
+		}
+	}
+}
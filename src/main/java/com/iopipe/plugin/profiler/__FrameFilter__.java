@@ -0,0 +1,135 @@
+package com.iopipe.plugin.profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This decides which stack frames are kept before they are tracked and
+ * which are folded together, so that deep framework stacks do not become
+ * large trees.
+ *
+ * Frames are matched by the prefix of their class name. If there are any
+ * included prefixes then only those frames are kept, frames which match an
+ * excluded prefix are never kept. Frames which match a folded prefix are
+ * merged with the frames which directly follow them if they are in the same
+ * package.
+ *
+ * @since 2019/04/09
+ */
+final class __FrameFilter__
+{
+	/** The method name used for folded frames. */
+	static final String FOLDED_METHOD =
+		"<folded>";
+	
+	/** Prefixes of classes to keep, empty keeps all of them. */
+	private final String[] _include;
+	
+	/** Prefixes of classes to drop. */
+	private final String[] _exclude;
+	
+	/** Prefixes of classes whose packages are folded. */
+	private final String[] _fold;
+	
+	/**
+	 * Initializes the filter.
+	 *
+	 * @param __i Comma separated prefixes of classes to keep, may be
+	 * {@code null}.
+	 * @param __e Comma separated prefixes of classes to drop, may be
+	 * {@code null}.
+	 * @param __f Comma separated prefixes of classes to fold, may be
+	 * {@code null}.
+	 * @since 2019/04/09
+	 */
+	__FrameFilter__(String __i, String __e, String __f)
+	{
+		this._include = __FrameFilter__.__split(__i);
+		this._exclude = __FrameFilter__.__split(__e);
+		this._fold = __FrameFilter__.__split(__f);
+	}
+	
+	/**
+	 * Returns the length of the package of the given class if the frame is
+	 * to be folded.
+	 *
+	 * @param __c The class name.
+	 * @return The length of the package or {@code -1} if it is not folded.
+	 * @since 2019/04/09
+	 */
+	final int foldLength(String __c)
+	{
+		if (__c == null || !__FrameFilter__.__matches(this._fold, __c))
+			return -1;
+		
+		return __c.lastIndexOf('.');
+	}
+	
+	/**
+	 * Is anything filtered?
+	 *
+	 * @return If any frames are dropped or folded.
+	 * @since 2019/04/09
+	 */
+	final boolean isEmpty()
+	{
+		return this._include.length == 0 && this._exclude.length == 0 &&
+			this._fold.length == 0;
+	}
+	
+	/**
+	 * Checks if the given frame is kept.
+	 *
+	 * @param __c The class name.
+	 * @return If the frame is kept.
+	 * @since 2019/04/09
+	 */
+	final boolean keep(String __c)
+	{
+		if (__c == null)
+			return true;
+		
+		String[] include = this._include;
+		if (include.length > 0 && !__FrameFilter__.__matches(include, __c))
+			return false;
+		
+		return !__FrameFilter__.__matches(this._exclude, __c);
+	}
+	
+	/**
+	 * Checks if the class starts with any of the prefixes.
+	 *
+	 * @param __p The prefixes.
+	 * @param __c The class name.
+	 * @return If any prefix matches.
+	 * @since 2019/04/09
+	 */
+	private static final boolean __matches(String[] __p, String __c)
+	{
+		for (String prefix : __p)
+			if (__c.startsWith(prefix))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Splits the comma separated prefixes.
+	 *
+	 * @param __s The string to split, may be {@code null}.
+	 * @return The prefixes.
+	 * @since 2019/04/09
+	 */
+	private static final String[] __split(String __s)
+	{
+		List<String> rv = new ArrayList<>();
+		if (__s != null)
+			for (String prefix : __s.split(","))
+			{
+				prefix = prefix.trim();
+				if (!prefix.isEmpty())
+					rv.add(prefix);
+			}
+		
+		return rv.<String>toArray(new String[rv.size()]);
+	}
+}
@@ -0,0 +1,643 @@
+package com.iopipe.plugin.profiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.pmw.tinylog.Logger;
+
+/**
+ * This samples threads using the flight recorder which is available on
+ * Java 11 and newer, the samples are taken asynchronously by the virtual
+ * machine so they do not suffer from safepoint bias.
+ *
+ * Since this is compiled for Java 8, the flight recorder is accessed with
+ * reflection.
+ *
+ * @since 2019/04/01
+ */
+final class __JFRSampler__
+{
+	/** The smallest period which the flight recorder will sample at. */
+	public static final int MINIMUM_PERIOD =
+		10_000_000;
+	
+	/** Execution sample event. */
+	private static final String _EXECUTION_SAMPLE =
+		"jdk.ExecutionSample";
+	
+	/** Native method sample event. */
+	private static final String _NATIVE_SAMPLE =
+		"jdk.NativeMethodSample";
+	
+	/** Is the flight recorder available? */
+	private static final boolean _AVAILABLE;
+	
+	/** Constructs a recording. */
+	private static final Constructor<?> _RECORDING_NEW;
+	
+	/** Enables an event in a recording. */
+	private static final Method _RECORDING_ENABLE;
+	
+	/** Sets the period of an event. */
+	private static final Method _SETTINGS_WITH_PERIOD;
+	
+	/** Starts a recording. */
+	private static final Method _RECORDING_START;
+	
+	/** Stops a recording. */
+	private static final Method _RECORDING_STOP;
+	
+	/** Dumps a recording to a file. */
+	private static final Method _RECORDING_DUMP;
+	
+	/** Closes a recording. */
+	private static final Method _RECORDING_CLOSE;
+	
+	/** Opens a recording file. */
+	private static final Constructor<?> _FILE_NEW;
+	
+	/** Are there more events in the file? */
+	private static final Method _FILE_HAS_MORE;
+	
+	/** Reads the next event in the file. */
+	private static final Method _FILE_READ;
+	
+	/** The type of an event. */
+	private static final Method _EVENT_TYPE;
+	
+	/** The name of an event type. */
+	private static final Method _TYPE_NAME;
+	
+	/** The start time of an event. */
+	private static final Method _EVENT_START;
+	
+	/** The stack trace of an event. */
+	private static final Method _EVENT_STACK;
+	
+	/** A thread field of an event. */
+	private static final Method _EVENT_THREAD;
+	
+	/** The frames of a stack trace. */
+	private static final Method _STACK_FRAMES;
+	
+	/** Was a stack trace cut off? */
+	private static final Method _STACK_TRUNCATED;
+	
+	/** The method of a frame. */
+	private static final Method _FRAME_METHOD;
+	
+	/** The line number of a frame. */
+	private static final Method _FRAME_LINE;
+	
+	/** The class of a method. */
+	private static final Method _METHOD_TYPE;
+	
+	/** The name of a method. */
+	private static final Method _METHOD_NAME;
+	
+	/** The name of a class. */
+	private static final Method _CLASS_NAME;
+	
+	/** The Java thread ID of a thread. */
+	private static final Method _THREAD_ID;
+	
+	/** The Java name of a thread. */
+	private static final Method _THREAD_NAME;
+	
+	/** The group of a thread. */
+	private static final Method _THREAD_GROUP;
+	
+	/** The name of a thread group. */
+	private static final Method _GROUP_NAME;
+	
+	/** The period to sample at, in nanoseconds. */
+	protected final int period;
+	
+	/** The thread group to keep samples for. */
+	protected final ThreadGroup group;
+	
+	/** The name of the thread group to keep samples for. */
+	protected final String groupname;
+	
+	/** Threads outside of the group to keep, may be {@code null}. */
+	protected final __ThreadFilter__ filter;
+	
+	/** The thread group which is never kept, may be {@code null}. */
+	protected final ThreadGroup self;
+	
+	/** The name of the thread group which is never kept. */
+	protected final String selfname;
+	
+	/** The recording. */
+	private Object _recording;
+	
+	/**
+	 * Looks up the flight recorder classes.
+	 *
+	 * @since 2019/04/01
+	 */
+	static
+	{
+		boolean available = false;
+		Constructor<?> recordingnew = null,
+			filenew = null;
+		Method recordingenable = null,
+			settingswithperiod = null,
+			recordingstart = null,
+			recordingstop = null,
+			recordingdump = null,
+			recordingclose = null,
+			filehasmore = null,
+			fileread = null,
+			eventtype = null,
+			typename = null,
+			eventstart = null,
+			eventstack = null,
+			eventthread = null,
+			stackframes = null,
+			stacktruncated = null,
+			framemethod = null,
+			frameline = null,
+			methodtype = null,
+			methodname = null,
+			classname = null,
+			threadid = null,
+			threadname = null,
+			threadgroup = null,
+			groupname = null;
+		
+		try
+		{
+			Class<?> recording = Class.forName("jdk.jfr.Recording"),
+				settings = Class.forName("jdk.jfr.EventSettings"),
+				type = Class.forName("jdk.jfr.EventType"),
+				file = Class.forName("jdk.jfr.consumer.RecordingFile"),
+				object = Class.forName("jdk.jfr.consumer.RecordedObject"),
+				event = Class.forName("jdk.jfr.consumer.RecordedEvent"),
+				stack = Class.forName("jdk.jfr.consumer.RecordedStackTrace"),
+				frame = Class.forName("jdk.jfr.consumer.RecordedFrame"),
+				method = Class.forName("jdk.jfr.consumer.RecordedMethod"),
+				klass = Class.forName("jdk.jfr.consumer.RecordedClass"),
+				thread = Class.forName("jdk.jfr.consumer.RecordedThread"),
+				group = Class.forName(
+					"jdk.jfr.consumer.RecordedThreadGroup");
+			
+			recordingnew = recording.getConstructor();
+			recordingenable = recording.getMethod("enable", String.class);
+			settingswithperiod = settings.getMethod("withPeriod",
+				Duration.class);
+			recordingstart = recording.getMethod("start");
+			recordingstop = recording.getMethod("stop");
+			recordingdump = recording.getMethod("dump", Path.class);
+			recordingclose = recording.getMethod("close");
+			filenew = file.getConstructor(Path.class);
+			filehasmore = file.getMethod("hasMoreEvents");
+			fileread = file.getMethod("readEvent");
+			eventtype = event.getMethod("getEventType");
+			typename = type.getMethod("getName");
+			eventstart = event.getMethod("getStartTime");
+			eventstack = event.getMethod("getStackTrace");
+			eventthread = object.getMethod("getThread", String.class);
+			stackframes = stack.getMethod("getFrames");
+			stacktruncated = stack.getMethod("isTruncated");
+			framemethod = frame.getMethod("getMethod");
+			frameline = frame.getMethod("getLineNumber");
+			methodtype = method.getMethod("getType");
+			methodname = method.getMethod("getName");
+			classname = klass.getMethod("getName");
+			threadid = thread.getMethod("getJavaThreadId");
+			threadname = thread.getMethod("getJavaName");
+			threadgroup = thread.getMethod("getThreadGroup");
+			groupname = group.getMethod("getName");
+			
+			available = true;
+		}
+		
+		// Not available on this virtual machine
+		catch (ClassNotFoundException|NoSuchMethodException|
+			SecurityException|LinkageError e)
+		{
+			available = false;
+		}
+		
+		_AVAILABLE = available;
+		_RECORDING_NEW = recordingnew;
+		_RECORDING_ENABLE = recordingenable;
+		_SETTINGS_WITH_PERIOD = settingswithperiod;
+		_RECORDING_START = recordingstart;
+		_RECORDING_STOP = recordingstop;
+		_RECORDING_DUMP = recordingdump;
+		_RECORDING_CLOSE = recordingclose;
+		_FILE_NEW = filenew;
+		_FILE_HAS_MORE = filehasmore;
+		_FILE_READ = fileread;
+		_EVENT_TYPE = eventtype;
+		_TYPE_NAME = typename;
+		_EVENT_START = eventstart;
+		_EVENT_STACK = eventstack;
+		_EVENT_THREAD = eventthread;
+		_STACK_FRAMES = stackframes;
+		_STACK_TRUNCATED = stacktruncated;
+		_FRAME_METHOD = framemethod;
+		_FRAME_LINE = frameline;
+		_METHOD_TYPE = methodtype;
+		_METHOD_NAME = methodname;
+		_CLASS_NAME = classname;
+		_THREAD_ID = threadid;
+		_THREAD_NAME = threadname;
+		_THREAD_GROUP = threadgroup;
+		_GROUP_NAME = groupname;
+	}
+	
+	/**
+	 * Initializes the sampler.
+	 *
+	 * @param __period The sampling period in nanoseconds.
+	 * @param __group The thread group to keep samples for.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/01
+	 */
+	__JFRSampler__(int __period, ThreadGroup __group)
+		throws NullPointerException
+	{
+		this(__period, __group, null, null);
+	}
+	
+	/**
+	 * Initializes the sampler which may also keep samples for threads
+	 * outside of the group.
+	 *
+	 * @param __period The sampling period in nanoseconds.
+	 * @param __group The thread group to keep samples for.
+	 * @param __f Threads outside of the group to keep samples for, may be
+	 * {@code null} if only the group is kept.
+	 * @param __self The group whose threads are never kept, such as the
+	 * group of the profiler, may be {@code null}.
+	 * @throws NullPointerException If no group was specified.
+	 * @since 2019/04/10
+	 */
+	__JFRSampler__(int __period, ThreadGroup __group, __ThreadFilter__ __f,
+		ThreadGroup __self)
+		throws NullPointerException
+	{
+		if (__group == null)
+			throw new NullPointerException();
+		
+		this.period = Math.max(MINIMUM_PERIOD, __period);
+		this.group = __group;
+		this.groupname = Objects.toString(__group.getName(), "");
+		this.filter = __f;
+		this.self = __self;
+		this.selfname = (__self == null ? null :
+			Objects.toString(__self.getName(), ""));
+	}
+	
+	/**
+	 * Starts recording samples.
+	 *
+	 * @return If recording was started.
+	 * @since 2019/04/01
+	 */
+	final boolean start()
+	{
+		if (!_AVAILABLE)
+			return false;
+		
+		Object recording = null;
+		try
+		{
+			recording = _RECORDING_NEW.newInstance();
+			
+			// Sample both Java and native code
+			Duration period = Duration.ofNanos(this.period);
+			_SETTINGS_WITH_PERIOD.invoke(
+				_RECORDING_ENABLE.invoke(recording, _EXECUTION_SAMPLE),
+				period);
+			_SETTINGS_WITH_PERIOD.invoke(
+				_RECORDING_ENABLE.invoke(recording, _NATIVE_SAMPLE),
+				period);
+			
+			_RECORDING_START.invoke(recording);
+			
+			this._recording = recording;
+			return true;
+		}
+		
+		// Could not start the recording
+		catch (ReflectiveOperationException|RuntimeException|LinkageError e)
+		{
+			Logger.debug(e, "Could not start the flight recorder.");
+			
+			if (recording != null)
+				__JFRSampler__.__close(recording);
+			return false;
+		}
+	}
+	
+	/**
+	 * Stops recording and places every sample into the tracker.
+	 *
+	 * @param __t The tracker to record samples into.
+	 * @param __start The time the execution started, in UTC milliseconds.
+	 * @return If the samples were read.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/01
+	 */
+	final boolean stop(Tracker __t, long __start)
+		throws NullPointerException
+	{
+		if (__t == null)
+			throw new NullPointerException();
+		
+		Object recording = this._recording;
+		if (recording == null)
+			return false;
+		this._recording = null;
+		
+		Path temp = null;
+		try
+		{
+			_RECORDING_STOP.invoke(recording);
+			
+			// Events can only be read from a file
+			temp = Files.createTempFile("iopipe-profiler", ".jfr");
+			_RECORDING_DUMP.invoke(recording, temp);
+			
+			this.__read(__t, temp, __start);
+			return true;
+		}
+		
+		// Could not read the recording
+		catch (IOException|ReflectiveOperationException|RuntimeException|
+			LinkageError e)
+		{
+			Logger.debug(e, "Could not read the flight recording.");
+			return false;
+		}
+		
+		finally
+		{
+			__JFRSampler__.__close(recording);
+			
+			if (temp != null)
+				try
+				{
+					Files.delete(temp);
+				}
+				catch (IOException e)
+				{
+				}
+		}
+	}
+	
+	/**
+	 * Returns whether samples of the given thread are kept.
+	 *
+	 * @param __t The thread to check.
+	 * @return If samples of the thread are kept.
+	 * @since 2019/04/10
+	 */
+	private final boolean __keep(Thread __t)
+	{
+		ThreadGroup tg = __t.getThreadGroup();
+		if (tg == null || tg == this.self)
+			return false;
+		
+		__ThreadFilter__ filter = this.filter;
+		return tg == this.group ||
+			(filter != null && filter.matches(__t.getName(), tg.getName()));
+	}
+	
+	/**
+	 * Returns every thread which is alive, by identifier.
+	 *
+	 * @return The live threads.
+	 * @since 2019/04/10
+	 */
+	private static final Map<Long, Thread> __liveThreads()
+	{
+		Map<Long, Thread> rv = new HashMap<>();
+		try
+		{
+			ThreadGroup root = Thread.currentThread().getThreadGroup();
+			for (ThreadGroup up; (up = root.getParent()) != null;)
+				root = up;
+			
+			Thread[] threads = new Thread[root.activeCount() + 16];
+			int count = root.enumerate(threads, true);
+			for (int i = 0; i < count; i++)
+				rv.put(threads[i].getId(), threads[i]);
+		}
+		catch (SecurityException e)
+		{
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Reads all of the samples in the given file.
+	 *
+	 * @param __t The tracker to record samples into.
+	 * @param __p The file to read.
+	 * @param __start The time the execution started, in UTC milliseconds.
+	 * @throws IOException On read errors.
+	 * @throws ReflectiveOperationException If the recording could not be
+	 * accessed.
+	 * @since 2019/04/01
+	 */
+	private final void __read(Tracker __t, Path __p, long __start)
+		throws IOException, ReflectiveOperationException
+	{
+		String groupname = this.groupname,
+			selfname = this.selfname;
+		__ThreadFilter__ filter = this.filter;
+		int period = this.period;
+		long startns = __start * 1_000_000L;
+		
+		// The recording only knows the names of thread groups, so threads
+		// which are still alive are matched by their actual group and are
+		// tracked by the same key as when they are polled
+		Map<Long, Thread> live = __JFRSampler__.__liveThreads();
+		Map<Thread, Boolean> kept = new HashMap<>();
+		
+		try (Closeable file = (Closeable)_FILE_NEW.newInstance(__p))
+		{
+			while ((Boolean)_FILE_HAS_MORE.invoke(file))
+			{
+				Object event = __JFRSampler__.__invoke(_FILE_READ, file);
+				
+				// Only samples are used, code running in native methods is
+				// treated as not using the CPU much like sleeping
+				String type = (String)_TYPE_NAME.invoke(
+					_EVENT_TYPE.invoke(event));
+				Thread.State state;
+				if (_EXECUTION_SAMPLE.equals(type))
+					state = Thread.State.RUNNABLE;
+				else if (_NATIVE_SAMPLE.equals(type))
+					state = Thread.State.WAITING;
+				else
+					continue;
+				
+				// Only threads which are in the execution's group are kept,
+				// along with those outside of it which match the filter
+				Object thread = _EVENT_THREAD.invoke(event, "sampledThread");
+				if (thread == null)
+					continue;
+				Long id = (Long)_THREAD_ID.invoke(thread);
+				Thread alive = live.get(id);
+				String name = null;
+				if (alive != null)
+				{
+					Boolean keep = kept.get(alive);
+					if (keep == null)
+						kept.put(alive, (keep = this.__keep(alive)));
+					if (!keep)
+						continue;
+				}
+				
+				// Threads which have ended can only be matched by name
+				else
+				{
+					Object group = _THREAD_GROUP.invoke(thread);
+					if (group == null)
+						continue;
+					name = (String)_THREAD_NAME.invoke(thread);
+					String tgname = (String)_GROUP_NAME.invoke(group);
+					if (!groupname.equals(tgname) && (filter == null ||
+						Objects.equals(selfname, tgname) ||
+						!filter.matches(name, tgname)))
+						continue;
+				}
+				
+				// No stack trace was recorded
+				Object stack = _EVENT_STACK.invoke(event);
+				if (stack == null)
+					continue;
+				
+				// Time since the start of execution
+				Instant at = (Instant)_EVENT_START.invoke(event);
+				long abs = Math.max(0, (at.getEpochSecond() * 1_000_000_000L +
+					at.getNano()) - startns);
+				
+				StackTraceElement[] trace = __JFRSampler__.__trace(
+					(List<?>)_STACK_FRAMES.invoke(stack),
+					(Boolean)_STACK_TRUNCATED.invoke(stack));
+				if (alive != null)
+					__t.parseStackTrace(abs, period, alive, state, trace);
+				else
+					__t.parseStackTrace(abs, period, id, name, state, trace);
+			}
+		}
+	}
+	
+	/**
+	 * Returns whether the flight recorder is available.
+	 *
+	 * @return If the flight recorder is available.
+	 * @since 2019/04/01
+	 */
+	static final boolean isAvailable()
+	{
+		return _AVAILABLE;
+	}
+	
+	/**
+	 * Closes the given recording.
+	 *
+	 * @param __r The recording to close.
+	 * @since 2019/04/01
+	 */
+	private static final void __close(Object __r)
+	{
+		try
+		{
+			_RECORDING_CLOSE.invoke(__r);
+		}
+		catch (ReflectiveOperationException|RuntimeException e)
+		{
+		}
+	}
+	
+	/**
+	 * Invokes the given method, unwrapping any I/O exception.
+	 *
+	 * @param __m The method to invoke.
+	 * @param __o The object to invoke on.
+	 * @return The result of the method.
+	 * @throws IOException If the method threw one.
+	 * @throws ReflectiveOperationException If the method could not be
+	 * invoked.
+	 * @since 2019/04/01
+	 */
+	private static final Object __invoke(Method __m, Object __o)
+		throws IOException, ReflectiveOperationException
+	{
+		try
+		{
+			return __m.invoke(__o);
+		}
+		catch (InvocationTargetException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Converts recorded frames to a stack trace.
+	 *
+	 * @param __f The frames, the first is the top of the stack.
+	 * @param __cut Was the stack cut off by the flight recorder?
+	 * @return The stack trace, if it does not reach the root of the thread
+	 * then the last frame is {@link TrackedThread#TRUNCATED}.
+	 * @throws ReflectiveOperationException If the frames could not be
+	 * accessed.
+	 * @since 2019/04/01
+	 */
+	private static final StackTraceElement[] __trace(List<?> __f,
+		boolean __cut)
+		throws ReflectiveOperationException
+	{
+		// Only one more frame than the stack depth is needed to know that
+		// the stack is deeper than it
+		int n = __f.size();
+		if (!ProfilerExecution.STACK_DEPTH_FROM_ROOT &&
+			ProfilerExecution.STACK_DEPTH < n)
+		{
+			n = ProfilerExecution.STACK_DEPTH + 1;
+			__cut = false;
+		}
+		
+		StackTraceElement[] rv = new StackTraceElement[(__cut ? n + 1 : n)];
+		if (__cut)
+			rv[n] = new StackTraceElement(TrackedThread.TRUNCATED,
+				TrackedThread.TRUNCATED, null, -1);
+		
+		for (int i = 0; i < n; i++)
+		{
+			Object frame = __f.get(i),
+				method = _FRAME_METHOD.invoke(frame);
+			
+			rv[i] = new StackTraceElement(
+				(String)_CLASS_NAME.invoke(_METHOD_TYPE.invoke(method)),
+				(String)_METHOD_NAME.invoke(method),
+				null,
+				(Integer)_FRAME_LINE.invoke(frame));
+		}
+		
+		return rv;
+	}
+}
@@ -0,0 +1,67 @@
+package com.iopipe.plugin.profiler;
+
+import java.util.Arrays;
+
+/**
+ * This keeps the durations of the most recent invocations in the container
+ * so that it can be determined if an invocation was slower than most of the
+ * ones before it.
+ *
+ * @since 2019/04/09
+ */
+final class __LatencyHistory__
+{
+	/** The number of durations needed before percentiles are used. */
+	public static final int MINIMUM_HISTORY =
+		20;
+	
+	/** The ring of durations. */
+	private final long[] _durations;
+	
+	/** The number of durations which were recorded. */
+	private long _count;
+	
+	/**
+	 * Initializes the history.
+	 *
+	 * @param __n The number of durations to keep.
+	 * @since 2019/04/09
+	 */
+	__LatencyHistory__(int __n)
+	{
+		this._durations = new long[Math.max(MINIMUM_HISTORY, __n)];
+	}
+	
+	/**
+	 * Records the duration of an invocation and returns if it is slower than
+	 * the given percentile of the invocations before it.
+	 *
+	 * @param __d The duration of the invocation.
+	 * @param __p The percentile, from zero to one hundred.
+	 * @return If the invocation is slower than the percentile, this is
+	 * always {@code false} if there are not enough invocations.
+	 * @since 2019/04/09
+	 */
+	final synchronized boolean recordAndCheck(long __d, double __p)
+	{
+		long[] durations = this._durations;
+		long count = this._count;
+		int n = (int)Math.min(count, durations.length);
+		
+		// Compare against the previous durations, at the nearest rank
+		boolean rv = false;
+		if (n >= MINIMUM_HISTORY)
+		{
+			long[] sorted = Arrays.copyOf(durations, n);
+			Arrays.sort(sorted);
+			
+			int rank = (int)Math.ceil((__p / 100.0) * n) - 1;
+			rv = (__d > sorted[Math.max(0, Math.min(n - 1, rank))]);
+		}
+		
+		durations[(int)(count % durations.length)] = __d;
+		this._count = count + 1;
+		
+		return rv;
+	}
+}
@@ -1,9 +1,27 @@
 package com.iopipe.plugin.profiler;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * This class polls a thread group
+ * This class polls a thread group, and optionally threads outside of it.
+ *
+ * The stacks of every thread are captured together with a single call to
+ * {@link ThreadMXBean#getThreadInfo(long[], int)} so that there is one
+ * safepoint for each sample rather than one for each thread. If that is not
+ * possible then each thread is sampled on its own.
+ *
+ * When the virtual machine supports it, the CPU time and the number of bytes
+ * each thread has allocated are read with the stacks. The CPU time used since
+ * the last sample is attributed to the stack and what was allocated to the
+ * top of the stack.
+ *
+ * If there is a CPU budget then the CPU time each sample takes is measured,
+ * or the wall time if the CPU time of this thread cannot be measured, and the
+ * time between samples is increased so that sampling stays within the
+ * budget.
  *
  * @since 2018/02/12
  */
@@ -16,19 +34,86 @@ final class __Poller__
 	/** The thread group to poll for events. */
 	protected final ThreadGroup group;
 	
+	/** The sample rate in nanoseconds. */
+	protected final int samplerate;
+	
+	/** Threads outside of the group which are polled, may be {@code null}. */
+	protected final __ThreadFilter__ filter;
+	
+	/** Polling stops after this many nanoseconds, zero if it never does. */
+	protected final long limit;
+	
+	/** The bean used to sample threads, {@code null} for the platform's. */
+	protected final ThreadMXBean threadbean;
+	
 	/** Should execution stop? */
 	final AtomicBoolean _stop =
 		new AtomicBoolean();
 	
+	/** The number of times the threads were sampled. */
+	private volatile int _numsamples;
+	
+	/** The total time between each sample. */
+	private volatile long _sampledtime;
+	
 	/**
 	 * Initializes the thread poller.
 	 *
 	 * @param __t The tracker state.
 	 * @param __g The group to poll.
+	 * @param __sr The sample rate in nanoseconds.
 	 * @throws NullPointerException On null arguments.
 	 * @since 2018/02/12
 	 */
-	__Poller__(Tracker __t, ThreadGroup __g)
+	__Poller__(Tracker __t, ThreadGroup __g, int __sr)
+		throws NullPointerException
+	{
+		this(__t, __g, __sr, null, 0);
+	}
+	
+	/**
+	 * Initializes the thread poller which may also poll threads outside of
+	 * the group and which may stop on its own.
+	 *
+	 * Threads in the same group as the poller are never polled when
+	 * threads outside of the group are, so that other profiler threads are
+	 * not seen.
+	 *
+	 * @param __t The tracker state.
+	 * @param __g The group to poll.
+	 * @param __sr The sample rate in nanoseconds.
+	 * @param __f The threads outside of the group to poll, may be
+	 * {@code null} if only the group is polled.
+	 * @param __l The time after which polling stops in nanoseconds, zero if
+	 * polling only stops when asked to.
+	 * @throws NullPointerException If no tracker or group was specified.
+	 * @since 2019/04/10
+	 */
+	__Poller__(Tracker __t, ThreadGroup __g, int __sr, __ThreadFilter__ __f,
+		long __l)
+		throws NullPointerException
+	{
+		this(__t, __g, __sr, __f, __l, null);
+	}
+	
+	/**
+	 * Initializes the thread poller which samples threads with the given
+	 * bean.
+	 *
+	 * @param __t The tracker state.
+	 * @param __g The group to poll.
+	 * @param __sr The sample rate in nanoseconds.
+	 * @param __f The threads outside of the group to poll, may be
+	 * {@code null} if only the group is polled.
+	 * @param __l The time after which polling stops in nanoseconds, zero if
+	 * polling only stops when asked to.
+	 * @param __b The bean used to sample threads, may be {@code null} to use
+	 * the bean of the platform.
+	 * @throws NullPointerException If no tracker or group was specified.
+	 * @since 2019/04/11
+	 */
+	__Poller__(Tracker __t, ThreadGroup __g, int __sr, __ThreadFilter__ __f,
+		long __l, ThreadMXBean __b)
 		throws NullPointerException
 	{
 		if (__t == null || __g == null)
@@ -36,6 +121,28 @@ final class __Poller__
 		
 		this.tracker = __t;
 		this.group = __g;
+		this.samplerate = Math.max(1, __sr);
+		this.filter = __f;
+		this.limit = Math.max(0, __l);
+		this.threadbean = __b;
+	}
+	
+	/**
+	 * Returns the average time between each sample, which may differ from
+	 * the sample rate when the sample rate was adapted or samples were
+	 * late.
+	 *
+	 * @return The effective sample rate in nanoseconds.
+	 * @since 2019/04/03
+	 */
+	final int effectiveRate()
+	{
+		int numsamples = this._numsamples;
+		if (numsamples <= 0)
+			return this.samplerate;
+		
+		return Math.max(1, (int)Math.min(Integer.MAX_VALUE,
+			this._sampledtime / numsamples));
 	}
 	
 	/**
@@ -45,20 +152,107 @@ final class __Poller__
 	@Override
 	public void run()
 	{
-		ThreadGroup group = this.group;
+		ThreadGroup group = this.group,
+			self = Thread.currentThread().getThreadGroup();
 		Tracker tracker = this.tracker;
 		AtomicBoolean stop = this._stop;
+		__ThreadFilter__ filter = this.filter;
+		long limit = this.limit;
+		
+		// When threads outside of the group are polled, every thread in
+		// the virtual machine is enumerated from the topmost group
+		ThreadGroup enumgroup = group;
+		if (filter != null)
+			try
+			{
+				for (ThreadGroup up; (up = enumgroup.getParent()) != null;)
+					enumgroup = up;
+			}
+			catch (SecurityException e)
+			{
+			}
 		
 		// Used as temporary storage for active thread enumeration
 		Thread[] threads = new Thread[1];
+		long[] ids = new long[0];
+		
+		// Used to sample every thread at once
+		// One more frame than is used is sampled so that it is known if the
+		// stack was cut off
+		int stackdepth = (ProfilerExecution.STACK_DEPTH_FROM_ROOT ||
+			ProfilerExecution.STACK_DEPTH == Integer.MAX_VALUE ?
+			Integer.MAX_VALUE : ProfilerExecution.STACK_DEPTH + 1);
+		ThreadMXBean threadbean = this.threadbean;
+		if (threadbean == null)
+			try
+			{
+				threadbean = ManagementFactory.getThreadMXBean();
+			}
+			catch (SecurityException e)
+			{
+				threadbean = null;
+			}
+		
+		// The stacks are sampled all at once until that fails, the bean is
+		// still used to measure the CPU time of this thread
+		boolean batched = (threadbean != null);
+		
+		// The extended bean can read the CPU time and the allocated bytes of
+		// all threads at once, but only some virtual machines have it
+		com.sun.management.ThreadMXBean extbean = null;
+		boolean cputimes = false,
+			selfcpu = false,
+			allocations = false;
+		try
+		{
+			if (threadbean != null)
+			{
+				cputimes = threadbean.isThreadCpuTimeSupported() &&
+					threadbean.isThreadCpuTimeEnabled();
+				selfcpu = threadbean.isCurrentThreadCpuTimeSupported() &&
+					threadbean.isThreadCpuTimeEnabled();
+			}
+			
+			if (threadbean instanceof com.sun.management.ThreadMXBean)
+			{
+				extbean = (com.sun.management.ThreadMXBean)threadbean;
+				allocations = extbean.isThreadAllocatedMemorySupported() &&
+					extbean.isThreadAllocatedMemoryEnabled();
+			}
+		}
+		catch (NoClassDefFoundError|UnsupportedOperationException e)
+		{
+			extbean = null;
+			allocations = false;
+		}
+		
+		// Contention monitoring measures how long threads are blocked and
+		// waiting, it cannot be turned off again since other executions may
+		// be profiled at the same time
+		if (ProfilerExecution.CONTENTION && threadbean != null)
+			try
+			{
+				if (threadbean.isThreadContentionMonitoringSupported())
+					threadbean.setThreadContentionMonitoringEnabled(true);
+			}
+			catch (SecurityException|UnsupportedOperationException e)
+			{
+			}
 		
 		// Used to measure how long a method has been in execution
 		long basetime = System.nanoTime(),
 			lasttime = basetime;
 		
 		// Keep polling threads
-		int samplerate = ProfilerExecution.SAMPLE_RATE,
+		int samplerate = this.samplerate,
+			interval = samplerate,
 			resttime = 0;
+		
+		// The average cost of a sample is used to adapt the interval
+		double budget = ProfilerExecution.CPU_BUDGET / 100.0;
+		long avgcost = -1;
+		int numsamples = 0;
+		long sampledtime = 0;
 		for (;;)
 		{
 			// Sleep for the sample rate time using the higher precision
@@ -81,30 +275,138 @@ final class __Poller__
 			// Calculate how long the method has been running, this is used
 			// to measure real time
 			long nowtime = System.nanoTime(),
+				nowcpu = (selfcpu ? threadbean.getCurrentThreadCpuTime() : 0),
 				runtime = nowtime - basetime;
 			int reltime = (int)(nowtime - lasttime);
 			lasttime = nowtime;
 			
+			// Polled for long enough
+			if (limit > 0 && runtime > limit)
+				break;
+			
 			// Try to resize the array based on the number of active threads
-			int guessedactivecount = group.activeCount();
+			int guessedactivecount = enumgroup.activeCount();
 			if (guessedactivecount > threads.length)
 				threads = new Thread[guessedactivecount];
 			
 			// Enumerate all active threads
-			int count = group.enumerate(threads, false);
+			int count = enumgroup.enumerate(threads, filter != null);
+			
+			// Only keep threads in the group and those which match, but
+			// never the profiler itself
+			if (filter != null)
+			{
+				int keep = 0;
+				for (int i = 0; i < count; i++)
+				{
+					Thread thread = threads[i];
+					ThreadGroup tg = thread.getThreadGroup();
+					if (tg != null && tg != self && (tg == group ||
+						filter.matches(thread.getName(), tg.getName())))
+						threads[keep++] = thread;
+				}
+				count = keep;
+			}
+			
+			// Sample the stacks of all threads at once
+			ThreadInfo[] infos = null;
+			long[] cpus = null,
+				allocs = null;
+			if (batched)
+			{
+				if (ids.length != count)
+					ids = new long[count];
+				for (int i = 0; i < count; i++)
+					ids[i] = threads[i].getId();
+				
+				try
+				{
+					infos = threadbean.getThreadInfo(ids, stackdepth);
+				}
+				
+				// Not supported, so sample each thread on its own
+				catch (SecurityException|UnsupportedOperationException|
+					IllegalArgumentException e)
+				{
+					batched = false;
+				}
+				
+				// Read the CPU time of every thread, if possible at once
+				if (infos != null && cputimes)
+					try
+					{
+						if (extbean != null)
+							cpus = extbean.getThreadCpuTime(ids);
+						else
+						{
+							cpus = new long[count];
+							for (int i = 0; i < count; i++)
+								cpus[i] = threadbean.getThreadCpuTime(ids[i]);
+						}
+					}
+					catch (SecurityException|UnsupportedOperationException e)
+					{
+						cputimes = false;
+						cpus = null;
+					}
+				
+				// Read the allocated bytes of every thread at once
+				if (infos != null && allocations)
+					try
+					{
+						allocs = extbean.getThreadAllocatedBytes(ids);
+					}
+					catch (SecurityException|UnsupportedOperationException e)
+					{
+						allocations = false;
+					}
+			}
 			
 			// Handle traces for all threads
 			for (int i = 0; i < count; i++)
 			{
 				Thread thread = threads[i];
-				tracker.parseStackTrace(runtime, reltime, thread);
+				
+				if (infos != null)
+				{
+					// Threads which terminated have no information
+					ThreadInfo info = infos[i];
+					if (info != null)
+						tracker.parseStackTrace(runtime, reltime, thread,
+							info, (cpus != null ? cpus[i] : -1),
+							(allocs != null ? allocs[i] : -1));
+				}
+				else
+					tracker.parseStackTrace(runtime, reltime, thread);
+			}
+			
+			// Record the time since the last sample, the first sample is
+			// at the start so it is not counted
+			if (reltime > 0 && runtime != reltime)
+			{
+				this._numsamples = ++numsamples;
+				this._sampledtime = (sampledtime += reltime);
+			}
+			
+			// Keep the time spent sampling within the budget, the average
+			// is used so that a single slow sample does not stall sampling
+			// The budget is of CPU time, so time this thread spent descheduled
+			// is not counted against it when that can be measured
+			long cost = System.nanoTime() - nowtime;
+			if (budget > 0)
+			{
+				long cpucost = (selfcpu ?
+					threadbean.getCurrentThreadCpuTime() - nowcpu : cost);
+				avgcost = (avgcost < 0 ? cpucost :
+					(avgcost * 7 + cpucost) / 8);
+				interval = (int)Math.max(samplerate, Math.min(
+					ProfilerExecution.MAX_ADAPTIVE_SAMPLE_RATE,
+					(long)(avgcost / budget)));
 			}
 			
 			// Rest for a duration so that the next sample is the sampling
 			// rate after this one
-			resttime = samplerate - (int)(System.nanoTime() - nowtime);
-			if (resttime > samplerate)
-				resttime = samplerate;
+			resttime = interval - (int)Math.min(interval, cost);
 		}
 	}
 }
@@ -0,0 +1,288 @@
+package com.iopipe.plugin.profiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class exports the tracker result as a gzipped pprof profile, either
+ * with samples for the wall time and the CPU time of each stack, samples for
+ * the bytes allocated by each stack or samples for the time each stack spent
+ * blocked, waiting or doing I/O.
+ *
+ * @since 2019/04/04
+ */
+final class __PprofExport__
+{
+	/** Export wall and CPU time. */
+	public static final int KIND_CPU =
+		0;
+	
+	/** Export allocated bytes. */
+	public static final int KIND_ALLOCATION =
+		1;
+	
+	/** Export time spent blocked, waiting or doing I/O. */
+	public static final int KIND_CONTENTION =
+		2;
+	
+	/** The kind of profile to export. */
+	protected final int kind;
+	
+	/** The tracker data. */
+	protected final Tracker tracker;
+	
+	/** The time profiling started in milliseconds since the epoch. */
+	protected final long starttime;
+	
+	/** The sampling rate. */
+	protected final int samplerate;
+	
+	/** The string table. */
+	private final Map<String, Integer> _strings =
+		new LinkedHashMap<>();
+	
+	/** Locations for the current stack. */
+	private long[] _stack =
+		new long[16];
+	
+	/**
+	 * Initializes the exporter.
+	 *
+	 * @param __t The tracker data.
+	 * @param __st The time profiling started in milliseconds since the
+	 * epoch.
+	 * @param __sr The sampling rate.
+	 * @param __k The kind of profile to export.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	__PprofExport__(Tracker __t, long __st, int __sr, int __k)
+		throws NullPointerException
+	{
+		if (__t == null)
+			throw new NullPointerException();
+		
+		this.kind = __k;
+		this.tracker = __t;
+		this.starttime = __st;
+		this.samplerate = __sr;
+		
+		// The first string is always the empty string
+		this._strings.put("", 0);
+	}
+	
+	/**
+	 * Exports the profile to the given output stream.
+	 *
+	 * @param __out The stream to write to.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	public final void run(OutputStream __out)
+		throws IOException, NullPointerException
+	{
+		if (__out == null)
+			throw new NullPointerException();
+		
+		// The profile is written directly into the compressed stream, only
+		// the individual samples and such are built in memory
+		GZIPOutputStream gz = new GZIPOutputStream(__out);
+		__Protobuf__ profile = new __Protobuf__(gz);
+		
+		// Sample types, the period is of the same type as the first one
+		int kind = this.kind;
+		__Protobuf__ periodtype;
+		switch (kind)
+		{
+			case KIND_ALLOCATION:
+				profile.message(1, this.__valueType("alloc_space", "bytes"));
+				periodtype = this.__valueType("alloc_space", "bytes");
+				break;
+			
+			case KIND_CONTENTION:
+				profile.message(1, this.__valueType("blocked", "nanoseconds"));
+				profile.message(1, this.__valueType("waiting", "nanoseconds"));
+				profile.message(1, this.__valueType("io", "nanoseconds"));
+				periodtype = this.__valueType("blocked", "nanoseconds");
+				break;
+			
+			default:
+				profile.message(1, this.__valueType("wall", "nanoseconds"));
+				profile.message(1, this.__valueType("cpu", "nanoseconds"));
+				periodtype = this.__valueType("wall", "nanoseconds");
+				break;
+		}
+		
+		for (TrackedThread thread : this.tracker.threads())
+		{
+			// Each cause of contention at a node is a sample, the lock is a
+			// label so contention can be totalled for each lock
+			if (kind == KIND_CONTENTION)
+			{
+				for (TrackedThread.Contention c : thread.contention())
+				{
+					long[] values = new long[3];
+					values[c.cause()] = c.time();
+					
+					profile.message(2, this.__sample(thread, c.index, values,
+						"lock", c.lockName(), "lock_owner", c.lockOwner()));
+				}
+				
+				continue;
+			}
+			
+			// Each node which had time at the top of the stack or allocated
+			// while it was there is a sample
+			long[] graphself = thread._graphself,
+				cpuself = thread._cpuself,
+				allocated = thread._allocated;
+			for (int i = 0, n = thread._count; i < n; i++)
+			{
+				long[] values;
+				if (kind == KIND_ALLOCATION)
+				{
+					if (allocated[i] == 0)
+						continue;
+					values = new long[]{allocated[i]};
+				}
+				else
+				{
+					if (graphself[i] == 0 && cpuself[i] == 0)
+						continue;
+					values = new long[]{graphself[i], cpuself[i]};
+				}
+				
+				profile.message(2, this.__sample(thread, i, values));
+			}
+		}
+		
+		// Every method or line has a single location, lines use the function
+		// of the method they are in
+		for (MethodTracker.TrackedMethod method :
+			this.tracker.methods().methods())
+		{
+			long id = method.index() + 1;
+			
+			profile.message(4, new __Protobuf__().
+				varint(1, id).
+				message(4, new __Protobuf__().
+					varint(1, method.method().index() + 1).
+					varint(2, Math.max(0, method.lineNumber()))));
+			
+			// Only entire methods are functions
+			if (method.method() != method)
+				continue;
+			
+			long name = this.__string(Objects.toString(method.className(),
+				"") + "." + Objects.toString(method.methodName(), ""));
+			profile.message(5, new __Protobuf__().
+				varint(1, id).
+				varint(2, name).
+				varint(3, name));
+		}
+		
+		// Times
+		long starttime = this.starttime;
+		profile.varint(9, starttime * 1_000_000L);
+		profile.varint(10, Math.max(0,
+			System.currentTimeMillis() - starttime) * 1_000_000L);
+		
+		// Period between samples, allocated bytes are totals which are not
+		// sampled at a number of bytes so they have no period
+		profile.message(11, periodtype);
+		if (kind != KIND_ALLOCATION)
+			profile.varint(12, this.samplerate);
+		
+		// The string table is last since all strings are known now
+		for (String s : this._strings.keySet())
+			profile.string(6, s);
+		
+		// Do not close the output since it is a ZIP entry
+		gz.finish();
+	}
+	
+	/**
+	 * Creates a sample for the given node.
+	 *
+	 * @param __t The thread.
+	 * @param __n The node at the top of the stack.
+	 * @param __v The values of the sample.
+	 * @param __l Pairs of label keys and values, labels with no value are
+	 * not written.
+	 * @return The sample message.
+	 * @throws IOException On write errors.
+	 * @since 2019/04/06
+	 */
+	private final __Protobuf__ __sample(TrackedThread __t, int __n,
+		long[] __v, String... __l)
+		throws IOException
+	{
+		MethodTracker.TrackedMethod[] methods = __t._methods;
+		int[] parent = __t._parent;
+		
+		// The stack starts at the top
+		long[] stack = this._stack;
+		int depth = 0;
+		for (int at = __n; at >= 0; at = parent[at])
+		{
+			if (depth == stack.length)
+				this._stack = (stack = Arrays.copyOf(stack, depth << 1));
+			stack[depth++] = methods[at].index() + 1;
+		}
+		
+		__Protobuf__ rv = new __Protobuf__();
+		rv.packed(1, stack, depth);
+		rv.packed(2, __v, __v.length);
+		
+		// The thread is always a label
+		rv.message(3, new __Protobuf__().
+			varint(1, this.__string("thread")).
+			varint(2, this.__string(__t.name())));
+		for (int i = 0; i + 1 < __l.length; i += 2)
+			if (__l[i + 1] != null)
+				rv.message(3, new __Protobuf__().
+					varint(1, this.__string(__l[i])).
+					varint(2, this.__string(__l[i + 1])));
+		
+		return rv;
+	}
+	
+	/**
+	 * Returns the index of the given string in the string table.
+	 *
+	 * @param __s The string to get.
+	 * @return The index of the string.
+	 * @since 2019/04/04
+	 */
+	private final long __string(String __s)
+	{
+		Map<String, Integer> strings = this._strings;
+		Integer rv = strings.get(__s);
+		if (rv == null)
+			strings.put(__s, (rv = strings.size()));
+		return rv;
+	}
+	
+	/**
+	 * Creates a value type.
+	 *
+	 * @param __t The type.
+	 * @param __u The unit.
+	 * @return The value type message.
+	 * @throws IOException On write errors.
+	 * @since 2019/04/04
+	 */
+	private final __Protobuf__ __valueType(String __t, String __u)
+		throws IOException
+	{
+		return new __Protobuf__().
+			varint(1, this.__string(__t)).
+			varint(2, this.__string(__u));
+	}
+}
@@ -0,0 +1,209 @@
+package com.iopipe.plugin.profiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This is a very simple writer for protocol buffer messages, it only
+ * supports the wire types which are needed for exporting profiles.
+ *
+ * Embedded messages are built in memory since their length must be known,
+ * but the outermost message may be written directly to a stream.
+ *
+ * @since 2019/04/04
+ */
+final class __Protobuf__
+{
+	/** Wire type for variable length integers. */
+	private static final int _VARINT =
+		0;
+	
+	/** Wire type for length delimited data. */
+	private static final int _LENGTH =
+		2;
+	
+	/** The output. */
+	private final OutputStream _out;
+	
+	/**
+	 * Initializes a message which is built in memory.
+	 *
+	 * @since 2019/04/08
+	 */
+	__Protobuf__()
+	{
+		this._out = new ByteArrayOutputStream();
+	}
+	
+	/**
+	 * Initializes a message which is written to the given stream.
+	 *
+	 * @param __out The stream to write to.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/08
+	 */
+	__Protobuf__(OutputStream __out)
+		throws NullPointerException
+	{
+		if (__out == null)
+			throw new NullPointerException();
+		
+		this._out = __out;
+	}
+	
+	/**
+	 * Writes a length delimited field.
+	 *
+	 * @param __f The field number.
+	 * @param __b The bytes to write.
+	 * @return {@code this}.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	final __Protobuf__ bytes(int __f, byte[] __b)
+		throws IOException, NullPointerException
+	{
+		if (__b == null)
+			throw new NullPointerException();
+		
+		this.__tag(__f, _LENGTH);
+		this.__varint(__b.length);
+		this._out.write(__b, 0, __b.length);
+		return this;
+	}
+	
+	/**
+	 * Writes an embedded message.
+	 *
+	 * @param __f The field number.
+	 * @param __m The message to write.
+	 * @return {@code this}.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	final __Protobuf__ message(int __f, __Protobuf__ __m)
+		throws IOException, NullPointerException
+	{
+		if (__m == null)
+			throw new NullPointerException();
+		
+		return this.bytes(__f, __m.toByteArray());
+	}
+	
+	/**
+	 * Writes a packed repeated integer field.
+	 *
+	 * @param __f The field number.
+	 * @param __v The values to write.
+	 * @param __n The number of values to write.
+	 * @return {@code this}.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	final __Protobuf__ packed(int __f, long[] __v, int __n)
+		throws IOException, NullPointerException
+	{
+		if (__v == null)
+			throw new NullPointerException();
+		
+		__Protobuf__ sub = new __Protobuf__();
+		for (int i = 0; i < __n; i++)
+			sub.__varint(__v[i]);
+		return this.message(__f, sub);
+	}
+	
+	/**
+	 * Writes a string field.
+	 *
+	 * @param __f The field number.
+	 * @param __s The string to write.
+	 * @return {@code this}.
+	 * @throws IOException On write errors.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/04
+	 */
+	final __Protobuf__ string(int __f, String __s)
+		throws IOException, NullPointerException
+	{
+		if (__s == null)
+			throw new NullPointerException();
+		
+		return this.bytes(__f, __s.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Returns the bytes which were written.
+	 *
+	 * @return The written bytes.
+	 * @throws IllegalStateException If the message is written to a stream.
+	 * @since 2019/04/04
+	 */
+	final byte[] toByteArray()
+		throws IllegalStateException
+	{
+		OutputStream out = this._out;
+		if (!(out instanceof ByteArrayOutputStream))
+			throw new IllegalStateException();
+		return ((ByteArrayOutputStream)out).toByteArray();
+	}
+	
+	/**
+	 * Writes an integer field, zero values are not written since that is
+	 * the default value.
+	 *
+	 * @param __f The field number.
+	 * @param __v The value to write.
+	 * @return {@code this}.
+	 * @throws IOException On write errors.
+	 * @since 2019/04/04
+	 */
+	final __Protobuf__ varint(int __f, long __v)
+		throws IOException
+	{
+		if (__v != 0)
+		{
+			this.__tag(__f, _VARINT);
+			this.__varint(__v);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Writes a field tag.
+	 *
+	 * @param __f The field number.
+	 * @param __t The wire type.
+	 * @throws IOException On write errors.
+	 * @since 2019/04/04
+	 */
+	private final void __tag(int __f, int __t)
+		throws IOException
+	{
+		this.__varint((__f << 3) | __t);
+	}
+	
+	/**
+	 * Writes a variable length integer.
+	 *
+	 * @param __v The value to write.
+	 * @throws IOException On write errors.
+	 * @since 2019/04/04
+	 */
+	private final void __varint(long __v)
+		throws IOException
+	{
+		OutputStream out = this._out;
+		while ((__v & ~0x7FL) != 0)
+		{
+			out.write((int)((__v & 0x7F) | 0x80));
+			__v >>>= 7;
+		}
+		out.write((int)__v);
+	}
+}
@@ -0,0 +1,200 @@
+package com.iopipe.plugin.profiler;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import java.util.Map;
+
+/**
+ * This is a rule which is matched against the input of an execution to
+ * determine if a specific request asked to be profiled. The rule is a key
+ * which is looked up in the headers of API Gateway requests, the message
+ * attributes of SNS and SQS messages, or the top level of generic events.
+ *
+ * Keys are matched without regards to case because HTTP headers are not
+ * case sensitive.
+ *
+ * @since 2019/04/09
+ */
+final class __RequestRule__
+{
+	/** The key to look for. */
+	protected final String key;
+	
+	/** The value the key must have, {@code null} matches any value. */
+	protected final String value;
+	
+	/**
+	 * Parses the rule, which is either {@code key} or {@code key=value}.
+	 *
+	 * @param __r The rule to parse.
+	 * @throws IllegalArgumentException If there is no key.
+	 * @throws NullPointerException On null arguments.
+	 * @since 2019/04/09
+	 */
+	__RequestRule__(String __r)
+		throws IllegalArgumentException, NullPointerException
+	{
+		if (__r == null)
+			throw new NullPointerException();
+		
+		int eq = __r.indexOf('=');
+		String key = (eq < 0 ? __r : __r.substring(0, eq)).trim();
+		if (key.isEmpty())
+			throw new IllegalArgumentException("No key in request rule.");
+		
+		this.key = key;
+		this.value = (eq < 0 ? null : __r.substring(eq + 1).trim());
+	}
+	
+	/**
+	 * Checks if the given input asked to be profiled.
+	 *
+	 * @param __i The input to check, may be {@code null}.
+	 * @return If the input matches the rule.
+	 * @since 2019/04/09
+	 */
+	final boolean matches(Object __i)
+	{
+		if (__i == null)
+			return false;
+		
+		// The event classes are only loaded if the input is one of them,
+		// since they might not be available
+		try
+		{
+			switch (__i.getClass().getName())
+			{
+				case "com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent":
+					return this.__matchMap(
+						((APIGatewayProxyRequestEvent)__i).getHeaders());
+				
+				case "com.amazonaws.services.lambda.runtime.events.SNSEvent":
+					return this.__matchSNS((SNSEvent)__i);
+				
+				case "com.amazonaws.services.lambda.runtime.events.SQSEvent":
+					return this.__matchSQS((SQSEvent)__i);
+				
+				default:
+					break;
+			}
+		}
+		catch (NoClassDefFoundError e)
+		{
+			return false;
+		}
+		
+		// Generic events, which may be API Gateway requests which were not
+		// converted to classes
+		if (__i instanceof Map)
+		{
+			Map<?, ?> map = (Map<?, ?>)__i;
+			if (this.__matchMap(map))
+				return true;
+			
+			Object headers = map.get("headers");
+			if (headers instanceof Map)
+				return this.__matchMap((Map<?, ?>)headers);
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if the key and value are in the given map.
+	 *
+	 * @param __m The map to check, may be {@code null}.
+	 * @return If the map matches.
+	 * @since 2019/04/09
+	 */
+	private final boolean __matchMap(Map<?, ?> __m)
+	{
+		if (__m == null)
+			return false;
+		
+		for (Map.Entry<?, ?> e : __m.entrySet())
+		{
+			Object k = e.getKey(),
+				v = e.getValue();
+			if (k instanceof String && this.key.equalsIgnoreCase((String)k))
+				return this.__matchValue(
+					(v instanceof CharSequence || v instanceof Number ||
+					v instanceof Boolean ? v.toString() : null));
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if any SNS message has the attribute.
+	 *
+	 * @param __e The event to check.
+	 * @return If any message matches.
+	 * @since 2019/04/09
+	 */
+	private final boolean __matchSNS(SNSEvent __e)
+	{
+		if (__e.getRecords() == null)
+			return false;
+		
+		for (SNSEvent.SNSRecord r : __e.getRecords())
+		{
+			if (r == null || r.getSNS() == null ||
+				r.getSNS().getMessageAttributes() == null)
+				continue;
+			
+			for (Map.Entry<String, SNSEvent.MessageAttribute> e :
+				r.getSNS().getMessageAttributes().entrySet())
+				if (this.key.equalsIgnoreCase(e.getKey()) &&
+					e.getValue() != null &&
+					this.__matchValue(e.getValue().getValue()))
+					return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if any SQS message has the attribute.
+	 *
+	 * @param __e The event to check.
+	 * @return If any message matches.
+	 * @since 2019/04/09
+	 */
+	private final boolean __matchSQS(SQSEvent __e)
+	{
+		if (__e.getRecords() == null)
+			return false;
+		
+		for (SQSEvent.SQSMessage m : __e.getRecords())
+		{
+			if (m == null || m.getMessageAttributes() == null)
+				continue;
+			
+			for (Map.Entry<String, SQSEvent.MessageAttribute> e :
+				m.getMessageAttributes().entrySet())
+				if (this.key.equalsIgnoreCase(e.getKey()) &&
+					e.getValue() != null &&
+					this.__matchValue(e.getValue().getStringValue()))
+					return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Checks if the value matches.
+	 *
+	 * @param __v The value to check, may be {@code null}.
+	 * @return If the value matches.
+	 * @since 2019/04/09
+	 */
+	private final boolean __matchValue(String __v)
+	{
+		String value = this.value;
+		if (value == null)
+			return true;
+		
+		return __v != null && value.equals(__v.trim());
+	}
+}
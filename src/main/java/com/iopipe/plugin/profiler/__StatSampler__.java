@@ -0,0 +1,112 @@
+package com.iopipe.plugin.profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This takes snapshots of the management statistics at a fixed interval
+ * while a method executes so that changes during execution can be seen and
+ * not just the difference between the start and the end.
+ *
+ * Snapshots are kept in a ring buffer, once it is full the oldest snapshot
+ * is replaced so that memory use is bounded for long executions.
+ *
+ * @since 2019/04/09
+ */
+final class __StatSampler__
+	implements Runnable
+{
+	/** The time the statistics are relative to. */
+	protected final long basetime;
+	
+	/** The interval between snapshots in nanoseconds. */
+	protected final long interval;
+	
+	/** Should execution stop? */
+	final AtomicBoolean _stop =
+		new AtomicBoolean();
+	
+	/** The ring of snapshots. */
+	private final ManagementStatistics[] _ring;
+	
+	/** The number of snapshots which were taken. */
+	private volatile int _count;
+	
+	/**
+	 * Initializes the statistics sampler.
+	 *
+	 * @param __bt The time the statistics are relative to.
+	 * @param __i The interval between snapshots in nanoseconds.
+	 * @param __c The maximum number of snapshots to keep.
+	 * @since 2019/04/09
+	 */
+	__StatSampler__(long __bt, long __i, int __c)
+	{
+		this.basetime = __bt;
+		this.interval = Math.max(1, __i);
+		this._ring = new ManagementStatistics[Math.max(1, __c)];
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void run()
+	{
+		AtomicBoolean stop = this._stop;
+		long basetime = this.basetime,
+			interval = this.interval;
+		ManagementStatistics[] ring = this._ring;
+		
+		int count = 0;
+		for (long next = basetime + interval;;)
+		{
+			// Sleep until the next snapshot is due
+			long rest = next - System.nanoTime();
+			if (rest > 0)
+				try
+				{
+					Thread.sleep(rest / 1_000_000, (int)(rest % 1_000_000));
+				}
+				catch (InterruptedException e)
+				{
+					// Ignore
+				}
+			
+			// Stop sampling?
+			if (stop.get())
+				break;
+			
+			ring[count % ring.length] = ManagementStatistics.snapshot(
+				System.nanoTime() - basetime);
+			this._count = ++count;
+			
+			// If snapshots were late then the next one is taken right away,
+			// but missed snapshots are not caught up on
+			next = Math.max(next + interval, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Returns the snapshots which were taken, oldest first. This must only be
+	 * called after the sampling thread has terminated.
+	 *
+	 * @return The snapshots.
+	 * @since 2019/04/09
+	 */
+	final List<ManagementStatistics> snapshots()
+	{
+		ManagementStatistics[] ring = this._ring;
+		int count = this._count,
+			n = Math.min(count, ring.length);
+		
+		// If the ring wrapped around then the oldest is the next to replace
+		List<ManagementStatistics> rv = new ArrayList<>(n);
+		for (int i = count - n; i < count; i++)
+			rv.add(ring[i % ring.length]);
+		
+		return rv;
+	}
+}
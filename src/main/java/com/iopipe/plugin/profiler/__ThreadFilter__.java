@@ -0,0 +1,127 @@
+package com.iopipe.plugin.profiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * This decides which threads outside of the thread group of the execution
+ * are sampled, such as the threads of executors and HTTP clients which were
+ * created before the execution started.
+ *
+ * Threads are matched by their name or the name of their group with
+ * patterns where {@code *} matches any number of characters.
+ *
+ * @since 2019/04/10
+ */
+final class __ThreadFilter__
+{
+	/** Filter which matches every thread. */
+	static final __ThreadFilter__ ALL =
+		new __ThreadFilter__(true, null, null);
+	
+	/** Are all threads matched? */
+	protected final boolean all;
+	
+	/** Patterns for thread names. */
+	private final Pattern[] _names;
+	
+	/** Patterns for thread group names. */
+	private final Pattern[] _groups;
+	
+	/**
+	 * Initializes the filter.
+	 *
+	 * @param __a Are all threads matched?
+	 * @param __n Comma separated patterns of thread names, may be
+	 * {@code null}.
+	 * @param __g Comma separated patterns of thread group names, may be
+	 * {@code null}.
+	 * @since 2019/04/10
+	 */
+	__ThreadFilter__(boolean __a, String __n, String __g)
+	{
+		this.all = __a;
+		this._names = __ThreadFilter__.__split(__n);
+		this._groups = __ThreadFilter__.__split(__g);
+	}
+	
+	/**
+	 * Does this filter match no threads?
+	 *
+	 * @return If no threads are matched.
+	 * @since 2019/04/10
+	 */
+	final boolean isEmpty()
+	{
+		return !this.all && this._names.length == 0 &&
+			this._groups.length == 0;
+	}
+	
+	/**
+	 * Checks if the given thread is matched.
+	 *
+	 * @param __n The name of the thread, may be {@code null}.
+	 * @param __g The name of the group of the thread, may be {@code null}.
+	 * @return If the thread is matched.
+	 * @since 2019/04/10
+	 */
+	final boolean matches(String __n, String __g)
+	{
+		if (this.all)
+			return true;
+		
+		return (__n != null && __ThreadFilter__.__matches(this._names, __n)) ||
+			(__g != null && __ThreadFilter__.__matches(this._groups, __g));
+	}
+	
+	/**
+	 * Checks if the string matches any of the patterns.
+	 *
+	 * @param __p The patterns.
+	 * @param __s The string to check.
+	 * @return If any pattern matches.
+	 * @since 2019/04/10
+	 */
+	private static final boolean __matches(Pattern[] __p, String __s)
+	{
+		for (Pattern pattern : __p)
+			if (pattern.matcher(__s).matches())
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Splits and compiles the comma separated patterns.
+	 *
+	 * @param __s The string to split, may be {@code null}.
+	 * @return The patterns.
+	 * @since 2019/04/10
+	 */
+	private static final Pattern[] __split(String __s)
+	{
+		List<Pattern> rv = new ArrayList<>();
+		if (__s != null)
+			for (String pattern : __s.split(","))
+			{
+				pattern = pattern.trim();
+				if (pattern.isEmpty())
+					continue;
+				
+				// Everything besides the wildcards is matched exactly
+				StringBuilder sb = new StringBuilder();
+				String[] parts = pattern.split("\\*", -1);
+				for (int i = 0; i < parts.length; i++)
+				{
+					if (i > 0)
+						sb.append(".*");
+					if (!parts[i].isEmpty())
+						sb.append(Pattern.quote(parts[i]));
+				}
+				
+				rv.add(Pattern.compile(sb.toString()));
+			}
+		
+		return rv.<Pattern>toArray(new Pattern[rv.size()]);
+	}
+}
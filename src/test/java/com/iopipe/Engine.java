@@ -30,6 +30,23 @@ import com.iopipe.plugin.eventinfo.ScheduledDecoder;
 import com.iopipe.plugin.eventinfo.SNSDecoder;
 import com.iopipe.plugin.eventinfo.SQSDecoder;
 import com.iopipe.plugin.IOpipePlugin;
+import com.iopipe.plugin.profiler.__DoAdaptiveRate__;
+import com.iopipe.plugin.profiler.__DoBatchedSampling__;
+import com.iopipe.plugin.profiler.__DoCPUExport__;
+import com.iopipe.plugin.profiler.__DoCallTree__;
+import com.iopipe.plugin.profiler.__DoContention__;
+import com.iopipe.plugin.profiler.__DoContinuous__;
+import com.iopipe.plugin.profiler.__DoFrameFilter__;
+import com.iopipe.plugin.profiler.__DoJFRSampler__;
+import com.iopipe.plugin.profiler.__DoLatencyHistory__;
+import com.iopipe.plugin.profiler.__DoLineLimit__;
+import com.iopipe.plugin.profiler.__DoMethodOverflow__;
+import com.iopipe.plugin.profiler.__DoPprofExport__;
+import com.iopipe.plugin.profiler.__DoRequestRule__;
+import com.iopipe.plugin.profiler.__DoSampleFallback__;
+import com.iopipe.plugin.profiler.__DoStatSampler__;
+import com.iopipe.plugin.profiler.__DoThreadCPUTime__;
+import com.iopipe.plugin.profiler.__DoThreadFilter__;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -201,6 +218,32 @@ public abstract class Engine
 			// Logging
 			(__e) -> new __DoLoggerTest__(__e, true),
 			(__e) -> new __DoLoggerTest__(__e, false),
+			__DoThreadedLoggerTest__::new,
+			__DoLogEncodingTest__::new,
+			__DoLogRepeatTest__::new,
+			__DoJavaLoggingTest__::new,
+			__DoExecutionEpoch__::new,
+			__DoGCMetrics__::new,
+			
+			// Profiler
+			__DoBatchedSampling__::new,
+			__DoSampleFallback__::new,
+			__DoJFRSampler__::new,
+			__DoMethodOverflow__::new,
+			__DoCallTree__::new,
+			__DoAdaptiveRate__::new,
+			__DoPprofExport__::new,
+			__DoThreadCPUTime__::new,
+			__DoContention__::new,
+			__DoContinuous__::new,
+			__DoCPUExport__::new,
+			__DoStatSampler__::new,
+			__DoLatencyHistory__::new,
+			__DoRequestRule__::new,
+			__DoFrameFilter__::new,
+			__DoLineLimit__::new,
+			__DoThreadFilter__::new,
+			
 			__DoConfigFileTest__::new,
 		};
 	
@@ -0,0 +1,180 @@
+package com.iopipe;
+
+import com.iopipe.http.RequestType;
+import com.iopipe.plugin.logger.LoggerUtil;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+
+/**
+ * Tests that the execution epoch stays the same during an execution so that
+ * the logger which was resolved can be reused, and that it changes once the
+ * execution has ended.
+ *
+ * @since 2019/03/30
+ */
+class __DoExecutionEpoch__
+	extends Single
+{
+	/** The number of lines which are logged. */
+	public static final int LINES =
+		3;
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a put made? */
+	protected final BooleanValue gotput =
+		new BooleanValue("gotput");
+	
+	/** Was the epoch the same during execution? */
+	protected final BooleanValue stable =
+		new BooleanValue("stable");
+	
+	/** Did the epoch change after the execution ended? */
+	protected final BooleanValue changed =
+		new BooleanValue("changed");
+	
+	/** The number of lines in the file. */
+	protected final IntegerValue lines =
+		new IntegerValue("lines");
+	
+	/** The epoch during execution. */
+	private volatile long _epoch =
+		-1;
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/30
+	 */
+	__DoExecutionEpoch__(Engine __e)
+	{
+		super(__e, "executionepoch");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/30
+	 */
+	@Override
+	public void end()
+	{
+		if (this._epoch >= 0 &&
+			IOpipeExecution.executionEpoch() != this._epoch)
+			this.changed.set(true);
+		
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.gotput);
+		super.assertTrue(this.stable);
+		super.assertTrue(this.changed);
+		
+		super.assertEquals(LINES, this.lines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/30
+	 */
+	@Override
+	public void modifyConfig(IOpipeConfigurationBuilder __cb)
+		throws NullPointerException
+	{
+		if (__cb == null)
+			throw new NullPointerException();
+		
+		__cb.setPluginEnabled("logger", true);
+		__cb.setTimeOutWindow(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/30
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		Event rawevent = __r.event;
+		
+		// Data being uploaded
+		if (rawevent instanceof PutEvent)
+		{
+			if (__r.type == RequestType.PUT)
+				this.gotput.set(true);
+			
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(((PutEvent)rawevent).data()), "utf-8")))
+			{
+				while (br.readLine() != null)
+					this.lines.increment();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		
+		// Standard push event
+		else if (rawevent instanceof StandardPushEvent)
+		{
+			StandardPushEvent event = (StandardPushEvent)rawevent;
+			
+			// It is invalid if there is an error
+			if (!event.hasError())
+				this.noerror.set(true);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/30
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/30
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		long epoch = IOpipeExecution.executionEpoch();
+		LoggerUtil.log("INFO", "squirrel", "First acorn");
+		LoggerUtil.log("INFO", "squirrel", "Second acorn");
+		
+		// Threads started by the execution are in the same epoch
+		long[] seen = new long[]{-1};
+		Thread thread = new Thread(() ->
+			{
+				seen[0] = IOpipeExecution.executionEpoch();
+				LoggerUtil.log("INFO", "squirrel", "Third acorn");
+			}, "EpochLogger");
+		thread.start();
+		for (;;)
+			try
+			{
+				thread.join();
+				break;
+			}
+			catch (InterruptedException e)
+			{
+			}
+		
+		if (epoch == IOpipeExecution.executionEpoch() && epoch == seen[0])
+			this.stable.set(true);
+		this._epoch = epoch;
+	}
+}
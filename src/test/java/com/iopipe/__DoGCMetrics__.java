@@ -0,0 +1,156 @@
+package com.iopipe;
+
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests that garbage collections during an execution are recorded as
+ * metrics.
+ *
+ * @since 2019/04/09
+ */
+class __DoGCMetrics__
+	extends Single
+{
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a collection counted? */
+	protected final BooleanValue hascount =
+		new BooleanValue("hascount");
+	
+	/** Is the cause of the longest pause known? */
+	protected final BooleanValue hascause =
+		new BooleanValue("hascause");
+	
+	/** Were the bytes reclaimed never negative? */
+	protected final BooleanValue hasreclaimed =
+		new BooleanValue("hasreclaimed");
+	
+	/** Were only pauses counted and not concurrent cycles? */
+	protected final BooleanValue pausesonly =
+		new BooleanValue("pausesonly");
+	
+	/** Was only the shrinking of the heap counted as reclaimed? */
+	protected final BooleanValue heaponly =
+		new BooleanValue("heaponly");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/09
+	 */
+	__DoGCMetrics__(Engine __e)
+	{
+		super(__e, "gcmetrics");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		
+		super.assertTrue(this.hascount);
+		super.assertTrue(this.hascause);
+		super.assertTrue(this.hasreclaimed);
+		
+		super.assertTrue(this.pausesonly);
+		super.assertTrue(this.heaponly);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		// It is invalid if there is an error
+		if (!event.hasError())
+			this.noerror.set(true);
+		
+		CustomMetric count = event.custommetrics.get("@iopipe/gc.count");
+		if (count != null && count.hasLong() && count.longValue() > 0)
+			this.hascount.set(true);
+		
+		CustomMetric cause = event.custommetrics.get(
+			"@iopipe/gc.pause.max.cause");
+		if (cause != null && cause.hasString())
+			this.hascause.set(true);
+		
+		CustomMetric reclaimed = event.custommetrics.get(
+			"@iopipe/gc.reclaimed");
+		if (reclaimed != null && reclaimed.hasLong() &&
+			reclaimed.longValue() >= 0)
+			this.hasreclaimed.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		System.gc();
+		
+		// Notifications are delivered on another thread, so give it some
+		// time to arrive
+		Thread.sleep(250);
+		
+		if (__GCMonitor__.__isPause("end of minor GC") &&
+			__GCMonitor__.__isPause("end of major GC") &&
+			__GCMonitor__.__isPause("end of GC pause") &&
+			!__GCMonitor__.__isPause("end of GC cycle"))
+			this.pausesonly.set(true);
+		
+		// Objects promoted to the old pool are not reclaimed and neither is
+		// what the code cache lost
+		Set<String> heap = new HashSet<>(Arrays.asList("young", "old"));
+		Map<String, MemoryUsage> before = new HashMap<>(),
+			after = new HashMap<>();
+		before.put("young", new MemoryUsage(0, 100, 100, 100));
+		after.put("young", new MemoryUsage(0, 0, 100, 100));
+		before.put("old", new MemoryUsage(0, 50, 200, 200));
+		after.put("old", new MemoryUsage(0, 120, 200, 200));
+		before.put("code", new MemoryUsage(0, 90, 100, 100));
+		after.put("code", new MemoryUsage(0, 10, 100, 100));
+		long moved = __GCMonitor__.__reclaimed(before, after, heap);
+		
+		// Nothing was reclaimed if more was promoted than was freed
+		after.put("old", new MemoryUsage(0, 160, 200, 200));
+		long grown = __GCMonitor__.__reclaimed(before, after, heap);
+		
+		if (moved == 30 && grown == 0)
+			this.heaponly.set(true);
+	}
+}
@@ -0,0 +1,270 @@
+package com.iopipe;
+
+import com.iopipe.http.RequestType;
+import com.iopipe.plugin.logger.JavaLoggingHandler;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.MessageFormat;
+import java.util.ListResourceBundle;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * Tests that records from {@code java.util.logging} are forwarded to the
+ * logger plugin.
+ *
+ * @since 2019/03/29
+ */
+class __DoJavaLoggingTest__
+	extends Single
+{
+	/** The messages which are expected, in order. */
+	private static final String[] _MESSAGES =
+		{
+			"Squirrel Bob has 42 acorns",
+			"Squirrels are not 'sleeping' here",
+			"Squirrel {5} is missing",
+			MessageFormat.format("Squirrel {0} has {1} acorns", "Bob", 1024),
+			"Squirrel Bob is hiding",
+			"Squirrel dropped an acorn",
+		};
+	
+	/** Text which must be somewhere in each message. */
+	private static final String[][] _DETAILS =
+		{
+			{},
+			{},
+			{},
+			{},
+			{},
+			{
+				"\n\tSuppressed: java.lang.Exception: nut\n",
+				"\nCaused by: java.lang.Exception: tree\n",
+				"\nCaused by: [CIRCULAR REFERENCE: java.lang.Exception: acorn]",
+			},
+		};
+	
+	/** The severity of each message. */
+	private static final String[] _SEVERITIES =
+		{
+			"INFO",
+			"WARN",
+			"ERROR",
+			"INFO",
+			"INFO",
+			"ERROR",
+		};
+	
+	/** The name of the logger. */
+	private static final String _LOGGER =
+		"com.iopipe.test.javalogging";
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a put made? */
+	protected final BooleanValue gotput =
+		new BooleanValue("gotput");
+	
+	/** Was a line not what was expected? */
+	protected final BooleanValue mismatch =
+		new BooleanValue("mismatch");
+	
+	/** The number of lines in the file. */
+	protected final IntegerValue lines =
+		new IntegerValue("lines");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/29
+	 */
+	__DoJavaLoggingTest__(Engine __e)
+	{
+		super(__e, "javalogging");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.gotput);
+		super.assertFalse(this.mismatch);
+		
+		super.assertEquals(_MESSAGES.length, this.lines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public void modifyConfig(IOpipeConfigurationBuilder __cb)
+		throws NullPointerException
+	{
+		if (__cb == null)
+			throw new NullPointerException();
+		
+		__cb.setPluginEnabled("logger", true);
+		__cb.setTimeOutWindow(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		Event rawevent = __r.event;
+		
+		// Data being uploaded
+		if (rawevent instanceof PutEvent)
+		{
+			if (__r.type == RequestType.PUT)
+				this.gotput.set(true);
+			
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(((PutEvent)rawevent).data()), "utf-8")))
+			{
+				for (;;)
+				{
+					String ln = br.readLine();
+					
+					if (ln == null)
+						break;
+					
+					int dx = this.lines.get();
+					this.lines.increment();
+					if (dx >= _MESSAGES.length)
+					{
+						this.mismatch.set(true);
+						continue;
+					}
+					
+					try (JsonReader jr = Json.createReader(
+						new StringReader(ln)))
+					{
+						JsonObject o = jr.readObject();
+						
+						String message = o.getString("message");
+					for (String detail : _DETAILS[dx])
+						if (!message.contains(detail))
+							this.mismatch.set(true);
+					
+					if (!message.startsWith(_MESSAGES[dx]) ||
+							!_SEVERITIES[dx].equals(o.getString("severity")) ||
+							!_LOGGER.equals(o.getString("name")))
+							this.mismatch.set(true);
+					}
+					catch (RuntimeException e)
+					{
+						this.mismatch.set(true);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		
+		// Standard push event
+		else if (rawevent instanceof StandardPushEvent)
+		{
+			StandardPushEvent event = (StandardPushEvent)rawevent;
+			
+			// It is invalid if there is an error
+			if (!event.hasError())
+				this.noerror.set(true);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/29
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		Logger logger = Logger.getLogger(_LOGGER);
+		Handler handler = new JavaLoggingHandler();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+		
+		try
+		{
+			logger.log(Level.INFO, "Squirrel {0} has {1} acorns",
+				new Object[]{"Bob", 42});
+			
+			// This is below the level of the logger
+			logger.log(Level.FINEST, "Squirrels are sleeping");
+			
+			logger.log(Level.WARNING, "Squirrels are not ''{0}'' here",
+				new Object[]{"sleeping"});
+			logger.log(Level.SEVERE, "Squirrel {5} is missing",
+				new Object[]{"Bob"});
+			
+			// Numbers are formatted the same as the standard formatter
+			logger.log(Level.INFO, "Squirrel {0} has {1} acorns",
+				new Object[]{"Bob", 1024});
+			
+			// Messages are localized
+			LogRecord record = new LogRecord(Level.INFO, "squirrel.hiding");
+			record.setLoggerName(_LOGGER);
+			record.setParameters(new Object[]{"Bob"});
+			record.setResourceBundle(new ListResourceBundle()
+				{
+					@Override
+					protected Object[][] getContents()
+					{
+						return new Object[][]{
+							{"squirrel.hiding", "Squirrel {0} is hiding"}};
+					}
+				});
+			logger.log(record);
+			
+			// Circular causes are only followed once
+			Exception acorn = new Exception("acorn"),
+				tree = new Exception("tree", acorn);
+			acorn.initCause(tree);
+			acorn.addSuppressed(new Exception("nut"));
+			logger.log(Level.SEVERE, "Squirrel dropped an acorn", acorn);
+		}
+		finally
+		{
+			logger.removeHandler(handler);
+			logger.setUseParentHandlers(true);
+		}
+	}
+}
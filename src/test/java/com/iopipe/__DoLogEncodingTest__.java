@@ -0,0 +1,209 @@
+package com.iopipe;
+
+import com.iopipe.http.RequestType;
+import com.iopipe.plugin.logger.LoggerUtil;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.Instant;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * Tests that log lines are encoded as valid JSON and that the messages and
+ * timestamps read back the same as they were logged.
+ *
+ * @since 2019/03/27
+ */
+class __DoLogEncodingTest__
+	extends Single
+{
+	/** Messages which are logged, with characters that need care. */
+	private static final String[] _MESSAGES =
+		{
+			"Plain squirrel",
+			"Quoted \"squirrel\" in a back\\slash/path",
+			"Control\b\f\n\r\t\u0001\u001f characters",
+			"Acorns cost £ and €",
+			"Emoji squirrel 🐿️",
+			"Broken \ud83d surrogate",
+		};
+	
+	/** Times which are logged, with and without milliseconds. */
+	private static final long[] _TIMES =
+		{
+			1520541000000L,
+			1520541000001L,
+			1520541000010L,
+			1520541000100L,
+			1520541001999L,
+			1520541002000L,
+		};
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a put made? */
+	protected final BooleanValue gotput =
+		new BooleanValue("gotput");
+	
+	/** Was a line not what was expected? */
+	protected final BooleanValue mismatch =
+		new BooleanValue("mismatch");
+	
+	/** The number of lines in the file. */
+	protected final IntegerValue lines =
+		new IntegerValue("lines");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/27
+	 */
+	__DoLogEncodingTest__(Engine __e)
+	{
+		super(__e, "logencoding");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/27
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.gotput);
+		super.assertFalse(this.mismatch);
+		
+		super.assertEquals(_MESSAGES.length * 2, this.lines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/27
+	 */
+	@Override
+	public void modifyConfig(IOpipeConfigurationBuilder __cb)
+		throws NullPointerException
+	{
+		if (__cb == null)
+			throw new NullPointerException();
+		
+		__cb.setPluginEnabled("logger", true);
+		__cb.setTimeOutWindow(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/27
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		Event rawevent = __r.event;
+		
+		// Data being uploaded
+		if (rawevent instanceof PutEvent)
+		{
+			if (__r.type == RequestType.PUT)
+				this.gotput.set(true);
+			
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(((PutEvent)rawevent).data()), "utf-8")))
+			{
+				for (;;)
+				{
+					String ln = br.readLine();
+					
+					if (ln == null)
+						break;
+					
+					// Each message is logged twice, once as a sequence and
+					// once as an array
+					int dx = this.lines.get() / 2;
+					this.lines.increment();
+					if (dx >= _MESSAGES.length)
+					{
+						this.mismatch.set(true);
+						continue;
+					}
+					
+					// Lone surrogates cannot be encoded
+					String expect = _MESSAGES[dx].replace("\ud83d ", "? ");
+					
+					try (JsonReader jr = Json.createReader(
+						new StringReader(ln)))
+					{
+						JsonObject o = jr.readObject();
+						
+						if (!expect.equals(o.getString("message")) ||
+							!Instant.ofEpochMilli(_TIMES[dx]).toString().
+							equals(o.getString("timestamp")))
+							this.mismatch.set(true);
+					}
+					catch (RuntimeException e)
+					{
+						this.mismatch.set(true);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		
+		// Standard push event
+		else if (rawevent instanceof StandardPushEvent)
+		{
+			StandardPushEvent event = (StandardPushEvent)rawevent;
+			
+			// It is invalid if there is an error
+			if (!event.hasError())
+				this.noerror.set(true);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/27
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/27
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		for (int i = 0, n = _MESSAGES.length; i < n; i++)
+		{
+			String message = _MESSAGES[i];
+			
+			LoggerUtil.log(_TIMES[i], "INFO", "sequence", message);
+			
+			// Pad the array so that the offset is used, the name differs so
+			// that the line is not collapsed as a repeat
+			char[] padded = ("xx" + message + "yy").toCharArray();
+			LoggerUtil.log(_TIMES[i], "INFO", "array", padded, 2,
+				message.length());
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.iopipe;
+
+import com.iopipe.http.RequestType;
+import com.iopipe.plugin.logger.LoggerUtil;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.StringReader;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+/**
+ * Tests that consecutive identical log lines are collapsed into a single
+ * line with a repeat count.
+ *
+ * @since 2019/03/28
+ */
+class __DoLogRepeatTest__
+	extends Single
+{
+	/** The messages which are logged, in order. */
+	private static final String[] _MESSAGES =
+		{
+			"Squirrel!",
+			"Acorn!",
+			"Squirrel!",
+		};
+	
+	/** The number of times each message is logged. */
+	private static final int[] _REPEATS =
+		{
+			50,
+			1,
+			3,
+		};
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a put made? */
+	protected final BooleanValue gotput =
+		new BooleanValue("gotput");
+	
+	/** Was a line not what was expected? */
+	protected final BooleanValue mismatch =
+		new BooleanValue("mismatch");
+	
+	/** The number of lines in the file. */
+	protected final IntegerValue lines =
+		new IntegerValue("lines");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/28
+	 */
+	__DoLogRepeatTest__(Engine __e)
+	{
+		super(__e, "logrepeat");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/28
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.gotput);
+		super.assertFalse(this.mismatch);
+		
+		super.assertEquals(_MESSAGES.length, this.lines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/28
+	 */
+	@Override
+	public void modifyConfig(IOpipeConfigurationBuilder __cb)
+		throws NullPointerException
+	{
+		if (__cb == null)
+			throw new NullPointerException();
+		
+		__cb.setPluginEnabled("logger", true);
+		__cb.setTimeOutWindow(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/28
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		Event rawevent = __r.event;
+		
+		// Data being uploaded
+		if (rawevent instanceof PutEvent)
+		{
+			if (__r.type == RequestType.PUT)
+				this.gotput.set(true);
+			
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(((PutEvent)rawevent).data()), "utf-8")))
+			{
+				for (;;)
+				{
+					String ln = br.readLine();
+					
+					if (ln == null)
+						break;
+					
+					int dx = this.lines.get();
+					this.lines.increment();
+					if (dx >= _MESSAGES.length)
+					{
+						this.mismatch.set(true);
+						continue;
+					}
+					
+					// Lines which are not repeated have no count
+					try (JsonReader jr = Json.createReader(
+						new StringReader(ln)))
+					{
+						JsonObject o = jr.readObject();
+						
+						int repeats = _REPEATS[dx];
+						if (!_MESSAGES[dx].equals(o.getString("message")) ||
+							(repeats > 1 ? !o.containsKey("repeated") ||
+								o.getInt("repeated") != repeats :
+								o.containsKey("repeated")))
+							this.mismatch.set(true);
+					}
+					catch (RuntimeException e)
+					{
+						this.mismatch.set(true);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		
+		// Standard push event
+		else if (rawevent instanceof StandardPushEvent)
+		{
+			StandardPushEvent event = (StandardPushEvent)rawevent;
+			
+			// It is invalid if there is an error
+			if (!event.hasError())
+				this.noerror.set(true);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/28
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/28
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		for (int i = 0, n = _MESSAGES.length; i < n; i++)
+			for (int j = 0, r = _REPEATS[i]; j < r; j++)
+				LoggerUtil.log("INFO", "repeat", _MESSAGES[i]);
+	}
+}
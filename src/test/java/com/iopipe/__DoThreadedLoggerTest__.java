@@ -0,0 +1,204 @@
+package com.iopipe;
+
+import com.iopipe.http.RequestType;
+import com.iopipe.plugin.logger.LoggerUtil;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tests that the logger combines the logs of multiple threads and orders
+ * them by their timestamps.
+ *
+ * @since 2019/03/26
+ */
+class __DoThreadedLoggerTest__
+	extends Single
+{
+	/** The number of threads which log. */
+	public static final int THREADS =
+		4;
+	
+	/** The number of lines each thread logs. */
+	public static final int LINES_PER_THREAD =
+		1_000;
+	
+	/** The base time for log messages. */
+	public static final long BASE_TIME =
+		1520541000000L;
+	
+	/** Pattern used to find the timestamp in a line. */
+	private static final Pattern _TIMESTAMP =
+		Pattern.compile("\"timestamp\": \"([^\"]*)\"");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Was a put made? */
+	protected final BooleanValue gotput =
+		new BooleanValue("gotput");
+	
+	/** Were the lines out of order? */
+	protected final BooleanValue outoforder =
+		new BooleanValue("outoforder");
+	
+	/** The number of lines in the file. */
+	protected final IntegerValue lines =
+		new IntegerValue("lines");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/26
+	 */
+	__DoThreadedLoggerTest__(Engine __e)
+	{
+		super(__e, "threadedlogger");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/26
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.gotput);
+		super.assertFalse(this.outoforder);
+		
+		super.assertEquals(THREADS * LINES_PER_THREAD, this.lines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/26
+	 */
+	@Override
+	public void modifyConfig(IOpipeConfigurationBuilder __cb)
+		throws NullPointerException
+	{
+		if (__cb == null)
+			throw new NullPointerException();
+		
+		__cb.setPluginEnabled("logger", true);
+		__cb.setTimeOutWindow(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/26
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		Event rawevent = __r.event;
+		
+		// Data being uploaded
+		if (rawevent instanceof PutEvent)
+		{
+			if (__r.type == RequestType.PUT)
+				this.gotput.set(true);
+			
+			try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(((PutEvent)rawevent).data()), "utf-8")))
+			{
+				Instant last = null;
+				for (;;)
+				{
+					String ln = br.readLine();
+					
+					if (ln == null)
+						break;
+					
+					this.lines.increment();
+					
+					// Every line must come after the previous one
+					Matcher m = _TIMESTAMP.matcher(ln);
+					if (!m.find())
+						this.outoforder.set(true);
+					else
+					{
+						Instant now = Instant.parse(m.group(1));
+						if (last != null && now.isBefore(last))
+							this.outoforder.set(true);
+						last = now;
+					}
+				}
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		
+		// Standard push event
+		else if (rawevent instanceof StandardPushEvent)
+		{
+			StandardPushEvent event = (StandardPushEvent)rawevent;
+			
+			// It is invalid if there is an error
+			if (!event.hasError())
+				this.noerror.set(true);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/26
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		if (__Utils__.isResultOkay(__r.result))
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/26
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// Each thread logs with times that are interleaved with the other
+		// threads, the result should be in order regardless
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++)
+		{
+			int base = t;
+			threads[t] = new Thread(() ->
+				{
+					for (int i = 0; i < LINES_PER_THREAD; i++)
+						LoggerUtil.log(BASE_TIME + (i * THREADS) + base,
+							"INFO", "thread-" + base, "Squirrel number " + i);
+				}, "Logger-" + t);
+		}
+		
+		for (Thread thread : threads)
+			thread.start();
+		
+		// Wait for all of them to finish
+		for (Thread thread : threads)
+			for (;;)
+				try
+				{
+					thread.join();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+				}
+	}
+}
@@ -0,0 +1,145 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that the poller reports the rate it actually sampled at, which is
+ * never faster than the sample rate and never slower than the time which
+ * was spent polling.
+ *
+ * @since 2019/04/03
+ */
+public class __DoAdaptiveRate__
+	extends Single
+{
+	/** How long the threads are polled for in milliseconds. */
+	private static final long _POLL_TIME =
+		250;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the sample rate used before anything was sampled? */
+	protected final BooleanValue initial =
+		new BooleanValue("initial");
+	
+	/** Was the effective rate measured? */
+	protected final BooleanValue measured =
+		new BooleanValue("measured");
+	
+	/** Was the effective rate within the adaptive limit? */
+	protected final BooleanValue bounded =
+		new BooleanValue("bounded");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/03
+	 */
+	public __DoAdaptiveRate__(Engine __e)
+	{
+		super(__e, "adaptiverate");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/03
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.initial);
+		super.assertTrue(this.measured);
+		super.assertTrue(this.bounded);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/03
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/03
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/03
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		int samplerate = ProfilerExecution.SAMPLE_RATE;
+		
+		// The group only needs a thread to sample
+		ThreadGroup group = new ThreadGroup("acorns");
+		Thread sleeper = new Thread(group, () ->
+			{
+				try
+				{
+					Thread.sleep(_POLL_TIME * 2);
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}, "sleeper");
+		sleeper.start();
+		
+		__Poller__ poller = new __Poller__(new Tracker(), group,
+			samplerate);
+		if (poller.effectiveRate() == samplerate)
+			this.initial.set(true);
+		
+		long start = System.nanoTime();
+		Thread pollthread = new Thread(poller, "poller");
+		pollthread.start();
+		Thread.sleep(_POLL_TIME);
+		poller._stop.set(true);
+		pollthread.join();
+		long elapsed = System.nanoTime() - start;
+		sleeper.interrupt();
+		sleeper.join();
+		
+		// Samples are not taken closer together than the sample rate and
+		// the average cannot be longer than the whole time polled
+		int rate = poller.effectiveRate();
+		if (rate >= samplerate / 2 && rate <= elapsed)
+			this.measured.set(true);
+		
+		if (ProfilerExecution.CPU_BUDGET > 0 ?
+			rate <= ProfilerExecution.MAX_ADAPTIVE_SAMPLE_RATE * 2L :
+			rate <= Math.max(samplerate * 10L, 20_000_000L))
+			this.bounded.set(true);
+	}
+}
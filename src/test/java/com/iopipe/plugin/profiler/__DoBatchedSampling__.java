@@ -0,0 +1,188 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests that the poller samples the stacks and states of every thread in
+ * the group it polls.
+ *
+ * @since 2019/03/31
+ */
+public class __DoBatchedSampling__
+	extends Single
+{
+	/** How long the threads are polled for in milliseconds. */
+	private static final long _POLL_TIME =
+		250;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Were both threads sampled? */
+	protected final BooleanValue sampled =
+		new BooleanValue("sampled");
+	
+	/** Was the method the running thread was in seen? */
+	protected final BooleanValue spinning =
+		new BooleanValue("spinning");
+	
+	/** Was the sleeping thread seen as not running? */
+	protected final BooleanValue sleeping =
+		new BooleanValue("sleeping");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/03/31
+	 */
+	public __DoBatchedSampling__(Engine __e)
+	{
+		super(__e, "batchedsampling");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/31
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.sampled);
+		super.assertTrue(this.spinning);
+		super.assertTrue(this.sleeping);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/31
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/31
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/03/31
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// One thread always runs and the other always sleeps
+		AtomicBoolean stop = new AtomicBoolean();
+		ThreadGroup group = new ThreadGroup("squirrels");
+		Thread spinner = new Thread(group, () ->
+				{
+					while (!stop.get())
+						__DoBatchedSampling__.__spin();
+				}, "spinner"),
+			sleeper = new Thread(group, () ->
+				{
+					while (!stop.get())
+						try
+						{
+							Thread.sleep(1);
+						}
+						catch (InterruptedException e)
+						{
+						}
+				}, "sleeper");
+		spinner.start();
+		sleeper.start();
+		
+		Tracker tracker = new Tracker();
+		__Poller__ poller = new __Poller__(tracker, group,
+			ProfilerExecution.SAMPLE_RATE);
+		Thread pollthread = new Thread(poller, "poller");
+		pollthread.start();
+		
+		Thread.sleep(_POLL_TIME);
+		
+		poller._stop.set(true);
+		stop.set(true);
+		for (Thread thread : new Thread[]{pollthread, spinner, sleeper})
+			thread.join();
+		
+		TrackedThread spun = null,
+			slept = null;
+		for (TrackedThread thread : tracker.threads())
+			if ("spinner".equals(thread.name()))
+				spun = thread;
+			else if ("sleeper".equals(thread.name()))
+				slept = thread;
+		
+		if (spun != null && slept != null)
+			this.sampled.set(true);
+		
+		if (spun != null && __DoBatchedSampling__.__find(spun.subNodes(),
+			"__spin"))
+			this.spinning.set(true);
+		
+		if (slept != null && slept.wholeGraphSleepTime() > 0 &&
+			slept.wholeGraphSleepTime() > slept.wholeGraphTime())
+			this.sleeping.set(true);
+	}
+	
+	/**
+	 * Checks if a method with the given name is anywhere in the tree.
+	 *
+	 * @param __n The nodes to search.
+	 * @param __m The method name.
+	 * @return If the method was found.
+	 * @since 2019/03/31
+	 */
+	private static final boolean __find(TrackedThread.Node[] __n, String __m)
+	{
+		for (TrackedThread.Node node : __n)
+			if (__m.equals(node.method().methodName()) ||
+				__DoBatchedSampling__.__find(node.subNodes(), __m))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Keeps the processor busy.
+	 *
+	 * @since 2019/03/31
+	 */
+	private static final void __spin()
+	{
+		long x = System.nanoTime();
+		for (int i = 0; i < 10_000; i++)
+			x = (x * 31) ^ i;
+		if (x == 42)
+			Thread.yield();
+	}
+}
@@ -0,0 +1,278 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Tests that the call tree is exported as a snapshot whose nodes point to
+ * each other.
+ *
+ * @since 2019/04/08
+ */
+public class __DoCPUExport__
+	extends Single
+{
+	/** The number of leaf methods in each large thread. */
+	private static final int LEAVES =
+		4100;
+	
+	/** The sample rate, which is not a whole number of milliseconds. */
+	private static final int _SAMPLE_RATE =
+		1_600_000;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the snapshot header correct? */
+	protected final BooleanValue header =
+		new BooleanValue("header");
+	
+	/** Were all the methods exported? */
+	protected final BooleanValue exportedmethods =
+		new BooleanValue("exportedmethods");
+	
+	/** Were all the threads exported in order? */
+	protected final BooleanValue exportedthreads =
+		new BooleanValue("exportedthreads");
+	
+	/** Did every node pointer land on a node? */
+	protected final BooleanValue pointers =
+		new BooleanValue("pointers");
+	
+	/** Was the sampling interval rounded to the nearest millisecond? */
+	protected final BooleanValue interval =
+		new BooleanValue("interval");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/08
+	 */
+	public __DoCPUExport__(Engine __e)
+	{
+		super(__e, "cpuexport");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/08
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.header);
+		super.assertTrue(this.exportedmethods);
+		super.assertTrue(this.exportedthreads);
+		super.assertTrue(this.pointers);
+		super.assertTrue(this.interval);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/08
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/08
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/08
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		Tracker tracker = new Tracker();
+		MethodTracker methods = tracker.methods();
+		
+		// Two stacks share the same root but end in different methods
+		Thread squirrel = new Thread("squirrel");
+		StackTraceElement main = new StackTraceElement("Tree", "main",
+			null, -1);
+		StackTraceElement[] climb = new StackTraceElement[]{
+				new StackTraceElement("Squirrel", "climb", null, -1), main},
+			bury = new StackTraceElement[]{
+				new StackTraceElement("Squirrel", "bury", null, -1), main};
+		tracker.parseStackTrace(0, 1000, squirrel, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(1000, 1000, squirrel, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(2000, 500, squirrel, Thread.State.RUNNABLE,
+			bury);
+		
+		// Enough nodes for the threads to be compacted in parallel, each has
+		// a different number so they cannot be mixed up
+		for (int t = 0; t < 2; t++)
+		{
+			Thread acorn = new Thread("acorn" + t);
+			for (int i = 0; i < LEAVES + t; i++)
+				tracker.parseStackTrace(i, 1, acorn, Thread.State.RUNNABLE,
+					new StackTraceElement[]{
+						new StackTraceElement("Acorn", "fall" + i, null, -1),
+						main});
+		}
+		
+		byte[] snapshot;
+		try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
+		{
+			new __CPUExport__(tracker, 0, _SAMPLE_RATE).run(baos);
+			snapshot = baos.toByteArray();
+		}
+		
+		DataInputStream in = new DataInputStream(
+			new ByteArrayInputStream(snapshot));
+		byte[] magic = new byte[__SnapshotConstants__.MAGIC_NUMBER.length()];
+		in.readFully(magic);
+		int major = in.readUnsignedByte(),
+			minor = in.readUnsignedByte(),
+			type = in.readInt(),
+			complen = in.readInt(),
+			uncomplen = in.readInt();
+		if (__SnapshotConstants__.MAGIC_NUMBER.equals(
+			new String(magic, "utf-8")) &&
+			major == __SnapshotConstants__.MAJOR_VERSION &&
+			minor == __SnapshotConstants__.MINOR_VERSION &&
+			type == __SnapshotConstants__.TYPE_CPU &&
+			complen > 0 && uncomplen > 0)
+			this.header.set(true);
+		
+		byte[] compressed = new byte[complen];
+		in.readFully(compressed);
+		
+		// The settings follow the snapshot data
+		byte[] rawprops = new byte[in.readInt()];
+		in.readFully(rawprops);
+		Properties props = new Properties();
+		props.load(new ByteArrayInputStream(rawprops));
+		if ("2".equals(props.getProperty(
+			"profiler.settings.sampling.interval")))
+			this.interval.set(true);
+		byte[] data = new byte[uncomplen];
+		try (DataInputStream sub = new DataInputStream(
+			new InflaterInputStream(new ByteArrayInputStream(compressed))))
+		{
+			sub.readFully(data);
+		}
+		
+		DataInputStream sub = new DataInputStream(
+			new ByteArrayInputStream(data));
+		sub.readInt();
+		sub.readLong();
+		sub.readLong();
+		sub.readBoolean();
+		
+		// Methods are in the order of their index
+		int nmethods = sub.readInt();
+		boolean allmethods = (nmethods == methods.methods().length);
+		Set<String> names = new HashSet<>();
+		for (int i = 0; i < nmethods; i++)
+		{
+			names.add(sub.readUTF() + "." + sub.readUTF());
+			sub.readUTF();
+		}
+		if (allmethods && names.contains("Tree.main") &&
+			names.contains("Squirrel.climb") &&
+			names.contains("Acorn.fall" + LEAVES))
+			this.exportedmethods.set(true);
+		
+		TrackedThread[] threads = tracker.threads();
+		int nthreads = sub.readInt();
+		boolean inorder = (nthreads == threads.length),
+			landed = inorder;
+		for (int t = 0; t < nthreads; t++)
+		{
+			int index = sub.readInt();
+			String name = sub.readUTF();
+			sub.readBoolean();
+			if (t >= threads.length || index != threads[t].logicalIndex() ||
+				!threads[t].name().equals(name))
+				inorder = false;
+			
+			byte[] compact = new byte[sub.readInt()];
+			sub.readFully(compact);
+			
+			// Walk every node, which are 28 bytes followed by three byte
+			// pointers to the sub-nodes
+			Set<Integer> starts = new HashSet<>(),
+				targets = new HashSet<>();
+			int nodes = 0;
+			for (int at = 0; at < compact.length; nodes++)
+			{
+				starts.add(at);
+				if (__DoCPUExport__.__read(compact, at, 2) >= nmethods)
+					landed = false;
+				
+				int nsub = (int)__DoCPUExport__.__read(compact, at + 26, 2);
+				at += 28;
+				for (int i = 0; i < nsub; i++, at += 3)
+					targets.add((int)__DoCPUExport__.__read(compact, at, 3));
+			}
+			if (!starts.containsAll(targets) ||
+				t >= threads.length || nodes != threads[t]._count)
+				landed = false;
+			
+			// Skip the rest of the thread information
+			sub.readFully(new byte[4 + (8 * 9) + 1]);
+		}
+		
+		if (inorder)
+			this.exportedthreads.set(true);
+		if (landed)
+			this.pointers.set(true);
+	}
+	
+	/**
+	 * Reads a big endian value from the compacted data.
+	 *
+	 * @param __b The data to read from.
+	 * @param __o The offset of the value.
+	 * @param __n The number of bytes in the value.
+	 * @return The read value.
+	 * @since 2019/04/08
+	 */
+	private static long __read(byte[] __b, int __o, int __n)
+	{
+		long rv = 0;
+		for (int i = 0; i < __n; i++)
+			rv = (rv << 8) | (__b[__o + i] & 0xFF);
+		return rv;
+	}
+}
@@ -0,0 +1,191 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that stack traces are merged into the call tree of a thread and that
+ * the time of each sample is given to the nodes of its stack.
+ *
+ * @since 2019/04/02
+ */
+public class __DoCallTree__
+	extends Single
+{
+	/** The number of methods which are called by the root. */
+	private static final int _CALLEES =
+		100;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Were the stacks merged into a single root? */
+	protected final BooleanValue merged =
+		new BooleanValue("merged");
+	
+	/** Were the times of the nodes correct? */
+	protected final BooleanValue timed =
+		new BooleanValue("timed");
+	
+	/** Was time not running only counted as graph time? */
+	protected final BooleanValue asleep =
+		new BooleanValue("asleep");
+	
+	/** Were many children all kept? */
+	protected final BooleanValue grown =
+		new BooleanValue("grown");
+	
+	/** Was the truncated stack placed under its own root? */
+	protected final BooleanValue truncated =
+		new BooleanValue("truncated");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/02
+	 */
+	public __DoCallTree__(Engine __e)
+	{
+		super(__e, "calltree");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/02
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.merged);
+		super.assertTrue(this.timed);
+		super.assertTrue(this.asleep);
+		super.assertTrue(this.grown);
+		super.assertTrue(this.truncated);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/02
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/02
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/02
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		Tracker tracker = new Tracker();
+		MethodTracker methods = tracker.methods();
+		
+		// Two stacks share the same root but end in different methods
+		Thread squirrel = new Thread("squirrel");
+		StackTraceElement main = new StackTraceElement("Tree", "main",
+			null, -1);
+		StackTraceElement[] climb = new StackTraceElement[]{
+				new StackTraceElement("Squirrel", "climb", null, -1), main},
+			bury = new StackTraceElement[]{
+				new StackTraceElement("Squirrel", "bury", null, -1), main};
+		tracker.parseStackTrace(0, 1000, squirrel, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(1000, 1000, squirrel, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(2000, 500, squirrel, Thread.State.RUNNABLE,
+			bury);
+		
+		// Looking up sub-nodes creates them, so this is checked first
+		TrackedThread thread = tracker.threads()[0];
+		TrackedThread.Node[] roots = thread.subNodes();
+		TrackedThread.Node root = thread.subNode(
+			methods.track("Tree", "main"));
+		if (roots.length == 1 && roots[0].equals(root) &&
+			root.subNodes().length == 2)
+			this.merged.set(true);
+		
+		TrackedThread.Node climbed = root.subNode(
+				methods.track("Squirrel", "climb")),
+			buried = root.subNode(methods.track("Squirrel", "bury"));
+		if (root.timeGraph().absolute() == 2500 &&
+			root.timeGraph().self() == 0 &&
+			climbed.timeGraph().absolute() == 2000 &&
+			climbed.timeGraph().self() == 2000 &&
+			buried.timeGraph().self() == 500 &&
+			thread.wholeGraphAbsoluteTime() == 2500 &&
+			thread.wholeGraphTime() == 2500)
+			this.timed.set(true);
+		
+		// Waiting is time in the graph but not on the processor
+		tracker.parseStackTrace(2500, 300, squirrel, Thread.State.WAITING,
+			climb);
+		if (climbed.timeGraph().self() == 2300 &&
+			climbed.timeCPU().self() == 2000 &&
+			root.timeCPU().absolute() == 2500 &&
+			thread.wholeGraphAbsoluteTime() == 2800 &&
+			thread.wholeGraphSleepTime() == 300)
+			this.asleep.set(true);
+		
+		// Enough children that the node storage has to grow
+		for (int i = 0; i < _CALLEES; i++)
+			tracker.parseStackTrace(2800 + i, 1, squirrel,
+				Thread.State.RUNNABLE, new StackTraceElement[]{
+				new StackTraceElement("Acorn", "fall" + i, null, -1), main});
+		
+		boolean all = (root.subNodes().length == _CALLEES + 2);
+		for (TrackedThread.Node node : root.subNodes())
+			if (node.method().className().equals("Acorn") &&
+				(node.timeGraph().self() != 1 || node.subNodes().length != 0))
+				all = false;
+		if (all && root.timeGraph().absolute() == 2800 + _CALLEES)
+			this.grown.set(true);
+		
+		// Stacks which were cut off are not roots of their own
+		tracker.parseStackTrace(2900, 100, squirrel, Thread.State.RUNNABLE,
+			new StackTraceElement[]{
+				new StackTraceElement("Squirrel", "dig", null, -1),
+				new StackTraceElement(TrackedThread.TRUNCATED,
+					TrackedThread.TRUNCATED, null, -1)});
+		roots = thread.subNodes();
+		TrackedThread.Node[] dug = (roots.length == 2 ?
+			roots[1].subNodes() : new TrackedThread.Node[0]);
+		if (roots.length == 2 && roots[0].equals(root) &&
+			TrackedThread.TRUNCATED.equals(roots[1].method().className()) &&
+			dug.length == 1 &&
+			"dig".equals(dug[0].method().methodName()) &&
+			dug[0].timeGraph().self() == 100)
+			this.truncated.set(true);
+	}
+}
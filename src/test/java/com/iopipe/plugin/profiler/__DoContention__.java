@@ -0,0 +1,140 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Tests that a thread blocked on a monitor is recorded as contention on
+ * that lock, when contention is being recorded.
+ *
+ * @since 2019/04/06
+ */
+public class __DoContention__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the blocked thread off the processor? */
+	protected final BooleanValue offcpu =
+		new BooleanValue("offcpu");
+	
+	/** Was the contention on the lock recorded? */
+	protected final BooleanValue blocked =
+		new BooleanValue("blocked");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/06
+	 */
+	public __DoContention__(Engine __e)
+	{
+		super(__e, "contention");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.offcpu);
+		super.assertTrue(this.blocked);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Object lock = new Object();
+		Thread waiter = new Thread(() ->
+			{
+				synchronized (lock)
+				{
+				}
+			}, "waiter");
+		
+		// Hold the lock until the other thread is stuck waiting for it
+		ThreadInfo info;
+		synchronized (lock)
+		{
+			waiter.start();
+			while (waiter.getState() != Thread.State.BLOCKED)
+				Thread.sleep(1);
+			
+			info = bean.getThreadInfo(waiter.getId(), Integer.MAX_VALUE);
+		}
+		waiter.join();
+		
+		Tracker tracker = new Tracker();
+		tracker.parseStackTrace(0, 1000, waiter, info, -1, -1);
+		
+		TrackedThread thread = tracker.threads()[0];
+		if (thread.wholeGraphSleepTime() == 1000 &&
+			thread.wholeGraphTime() == 0)
+			this.offcpu.set(true);
+		
+		// Contention is only recorded when it is enabled
+		TrackedThread.Contention[] contention = thread.contention();
+		if (!ProfilerExecution.CONTENTION)
+		{
+			if (contention.length == 0)
+				this.blocked.set(true);
+		}
+		else if (contention.length == 1 &&
+			contention[0].cause() == TrackedThread.Contention.CAUSE_BLOCKED &&
+			contention[0].time() == 1000 &&
+			info.getLockName().equals(contention[0].lockName()) &&
+			Thread.currentThread().getName().equals(
+				contention[0].lockOwner()))
+			this.blocked.set(true);
+	}
+}
@@ -0,0 +1,169 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that the continuous tracker is only given to one execution at a
+ * time and that windows are finished after enough invocations.
+ *
+ * @since 2019/04/07
+ */
+public class __DoContinuous__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the tracker not given out while it was in use? */
+	protected final BooleanValue busy =
+		new BooleanValue("busy");
+	
+	/** Was the same tracker used until the window finished? */
+	protected final BooleanValue shared =
+		new BooleanValue("shared");
+	
+	/** Was the window finished with the right information? */
+	protected final BooleanValue finished =
+		new BooleanValue("finished");
+	
+	/** Was the sample rate averaged by the time sampled? */
+	protected final BooleanValue averaged =
+		new BooleanValue("averaged");
+	
+	/** Was a new window started after the last one finished? */
+	protected final BooleanValue newwindow =
+		new BooleanValue("newwindow");
+	
+	/** Was the sample rate kept when nothing was sampled? */
+	protected final BooleanValue unsampled =
+		new BooleanValue("unsampled");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/07
+	 */
+	public __DoContinuous__(Engine __e)
+	{
+		super(__e, "continuous");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/07
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.busy);
+		super.assertTrue(this.shared);
+		super.assertTrue(this.finished);
+		super.assertTrue(this.averaged);
+		super.assertTrue(this.newwindow);
+		super.assertTrue(this.unsampled);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/07
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/07
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/07
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// A separate instance is used so the executions of other tests are
+		// not affected
+		__Continuous__ continuous = new __Continuous__();
+		long before = System.currentTimeMillis();
+		
+		Tracker first = continuous.acquire();
+		if (first != null && continuous.acquire() == null)
+			this.busy.set(true);
+		
+		// Every invocation before the last leaves the window open
+		int n = ProfilerExecution.CONTINUOUS_INVOCATIONS;
+		boolean same = true;
+		double weighted = 0;
+		long total = 0;
+		__Continuous__.Window window = null;
+		for (int i = 0; i < n; i++)
+		{
+			if (i > 0 && continuous.acquire() != first)
+				same = false;
+			
+			int rate = (i % 2 == 0 ? 1_000_000 : 3_000_000);
+			long time = 1000 + i;
+			weighted += (double)rate * time;
+			total += time;
+			
+			window = continuous.release(rate, time);
+			if (i < n - 1 && window != null)
+				same = false;
+		}
+		if (same)
+			this.shared.set(true);
+		
+		if (window != null && window.tracker == first &&
+			window.invocations == n && window.beginstats != null &&
+			window.starttime >= before &&
+			window.starttime <= System.currentTimeMillis())
+			this.finished.set(true);
+		
+		if (window != null && window.samplerate == (int)(weighted / total))
+			this.averaged.set(true);
+		
+		Tracker second = continuous.acquire();
+		if (second != null && second != first)
+			this.newwindow.set(true);
+		
+		// Executions which did not sample do not change the rate
+		window = continuous.release(5_000_000, 0);
+		for (int i = 1; i < n; i++)
+		{
+			continuous.acquire();
+			window = continuous.release(5_000_000, 0);
+		}
+		if (window != null && window.tracker == second &&
+			window.samplerate == 5_000_000)
+			this.unsampled.set(true);
+	}
+}
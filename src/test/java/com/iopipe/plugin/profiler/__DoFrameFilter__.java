@@ -0,0 +1,136 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that stack frames are kept, dropped and folded by the prefixes of
+ * their classes.
+ *
+ * @since 2019/04/10
+ */
+public class __DoFrameFilter__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Did an empty filter keep everything? */
+	protected final BooleanValue empty =
+		new BooleanValue("empty");
+	
+	/** Were only included frames kept? */
+	protected final BooleanValue included =
+		new BooleanValue("included");
+	
+	/** Were excluded frames dropped? */
+	protected final BooleanValue excluded =
+		new BooleanValue("excluded");
+	
+	/** Were folded frames folded to their package? */
+	protected final BooleanValue folded =
+		new BooleanValue("folded");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoFrameFilter__(Engine __e)
+	{
+		super(__e, "framefilter");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.empty);
+		super.assertTrue(this.included);
+		super.assertTrue(this.excluded);
+		super.assertTrue(this.folded);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		__FrameFilter__ none = new __FrameFilter__(null, " , ", "");
+		if (none.isEmpty() && none.keep("java.lang.Thread") &&
+			none.keep("com.example.Squirrel") &&
+			none.foldLength("java.lang.Thread") < 0)
+			this.empty.set(true);
+		
+		__FrameFilter__ filter = new __FrameFilter__(
+			"com.example., java.util.", "com.example.internal.",
+			"java.util.");
+		if (!filter.isEmpty() && filter.keep("com.example.Squirrel") &&
+			filter.keep("java.util.HashMap") &&
+			!filter.keep("java.lang.Thread") &&
+			!filter.keep("org.example.Squirrel"))
+			this.included.set(true);
+		
+		// Exclusions win over inclusions
+		__FrameFilter__ drop = new __FrameFilter__(null,
+			"sun.,jdk.internal.", null);
+		if (!drop.isEmpty() && !filter.keep("com.example.internal.Acorn") &&
+			!drop.keep("sun.reflect.NativeMethodAccessorImpl") &&
+			!drop.keep("jdk.internal.misc.Unsafe") &&
+			drop.keep("java.lang.Thread") && drop.keep(null))
+			this.excluded.set(true);
+		
+		// The fold length is the length of the package of the class
+		if (filter.foldLength("java.util.HashMap") ==
+				"java.util".length() &&
+			filter.foldLength("java.util.concurrent.ForkJoinPool") ==
+				"java.util.concurrent".length() &&
+			filter.foldLength("com.example.Squirrel") < 0 &&
+			filter.foldLength(null) < 0)
+			this.folded.set(true);
+	}
+}
@@ -0,0 +1,188 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests that the flight recorder samples the threads of the group it
+ * records, if the flight recorder is available.
+ *
+ * @since 2019/04/01
+ */
+public class __DoJFRSampler__
+	extends Single
+{
+	/** How long the threads are recorded for in milliseconds. */
+	private static final long _RECORD_TIME =
+		500;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Did recording start and stop as the recorder is available? */
+	protected final BooleanValue recorded =
+		new BooleanValue("recorded");
+	
+	/** Was the method the running thread was in seen? */
+	protected final BooleanValue spinning =
+		new BooleanValue("spinning");
+	
+	/** Were threads outside of the group not kept? */
+	protected final BooleanValue grouponly =
+		new BooleanValue("grouponly");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/01
+	 */
+	public __DoJFRSampler__(Engine __e)
+	{
+		super(__e, "jfrsampler");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/01
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.recorded);
+		super.assertTrue(this.spinning);
+		super.assertTrue(this.grouponly);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/01
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/01
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/01
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// Without the flight recorder nothing is recorded
+		ThreadGroup group = new ThreadGroup("acorns");
+		__JFRSampler__ jfr = new __JFRSampler__(
+			__JFRSampler__.MINIMUM_PERIOD, group);
+		Tracker tracker = new Tracker();
+		if (!__JFRSampler__.isAvailable())
+		{
+			if (!jfr.start() && !jfr.stop(tracker, 0))
+				this.recorded.set(true);
+			this.spinning.set(true);
+			this.grouponly.set(true);
+			return;
+		}
+		
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread spinner = new Thread(group, () ->
+				{
+					while (!stop.get())
+						__DoJFRSampler__.__spin();
+				}, "spinner"),
+			outside = new Thread(() ->
+				{
+					while (!stop.get())
+						__DoJFRSampler__.__spin();
+				}, "outside");
+		spinner.start();
+		outside.start();
+		
+		long start = System.currentTimeMillis();
+		boolean started = jfr.start();
+		Thread.sleep(_RECORD_TIME);
+		stop.set(true);
+		boolean stopped = jfr.stop(tracker, start);
+		for (Thread thread : new Thread[]{spinner, outside})
+			thread.join();
+		
+		if (started && stopped)
+			this.recorded.set(true);
+		
+		TrackedThread spun = null;
+		boolean other = false;
+		for (TrackedThread thread : tracker.threads())
+			if ("spinner".equals(thread.name()))
+				spun = thread;
+			else
+				other = true;
+		
+		if (spun != null && __DoJFRSampler__.__find(spun.subNodes(),
+			"__spin"))
+			this.spinning.set(true);
+		
+		if (!other)
+			this.grouponly.set(true);
+	}
+	
+	/**
+	 * Checks if a method with the given name is anywhere in the tree.
+	 *
+	 * @param __n The nodes to search.
+	 * @param __m The method name.
+	 * @return If the method was found.
+	 * @since 2019/04/01
+	 */
+	private static final boolean __find(TrackedThread.Node[] __n, String __m)
+	{
+		for (TrackedThread.Node node : __n)
+			if (__m.equals(node.method().methodName()) ||
+				__DoJFRSampler__.__find(node.subNodes(), __m))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Keeps the processor busy.
+	 *
+	 * @since 2019/04/01
+	 */
+	private static final void __spin()
+	{
+		long x = System.nanoTime();
+		for (int i = 0; i < 10_000; i++)
+			x = (x * 31) ^ i;
+		if (x == 42)
+			Thread.yield();
+	}
+}
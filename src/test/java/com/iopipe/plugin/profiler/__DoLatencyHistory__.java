@@ -0,0 +1,132 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that slow invocations are only found once there are enough
+ * durations and that they are compared at the requested percentile.
+ *
+ * @since 2019/04/10
+ */
+public class __DoLatencyHistory__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was nothing slow before the minimum number of durations? */
+	protected final BooleanValue notenough =
+		new BooleanValue("notenough");
+	
+	/** Was a duration at the percentile not slow? */
+	protected final BooleanValue atpercentile =
+		new BooleanValue("atpercentile");
+	
+	/** Was a duration past the percentile slow? */
+	protected final BooleanValue pastpercentile =
+		new BooleanValue("pastpercentile");
+	
+	/** Were old durations forgotten? */
+	protected final BooleanValue forgotten =
+		new BooleanValue("forgotten");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoLatencyHistory__(Engine __e)
+	{
+		super(__e, "latencyhistory");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.notenough);
+		super.assertTrue(this.atpercentile);
+		super.assertTrue(this.pastpercentile);
+		super.assertTrue(this.forgotten);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// Smaller histories still need the minimum number of durations, so
+		// even a very slow duration is not slow until then
+		__LatencyHistory__ history = new __LatencyHistory__(5);
+		boolean slow = false;
+		for (int i = 1; i < __LatencyHistory__.MINIMUM_HISTORY; i++)
+			slow |= history.recordAndCheck(i * 10, 90);
+		slow |= history.recordAndCheck(1_000_000, 90);
+		if (!slow)
+			this.notenough.set(true);
+		
+		// The nearest rank of the 90th percentile of twenty durations is the
+		// eighteenth, the slowest duration replaced the first
+		history = new __LatencyHistory__(20);
+		for (int i = 1; i <= __LatencyHistory__.MINIMUM_HISTORY; i++)
+			history.recordAndCheck(i * 10, 90);
+		if (!history.recordAndCheck(180, 90))
+			this.atpercentile.set(true);
+		if (history.recordAndCheck(181, 90))
+			this.pastpercentile.set(true);
+		
+		// Only the most recent durations are compared against
+		history = new __LatencyHistory__(20);
+		for (int i = 0; i < 20; i++)
+			history.recordAndCheck(1000, 50);
+		for (int i = 0; i < 20; i++)
+			history.recordAndCheck(1, 50);
+		if (history.recordAndCheck(2, 50))
+			this.forgotten.set(true);
+	}
+}
@@ -0,0 +1,138 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that lines within methods are tracked apart from the method, until
+ * the maximum number of lines is reached.
+ *
+ * @since 2019/04/10
+ */
+public class __DoLineLimit__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Were lines tracked within their method? */
+	protected final BooleanValue trackedlines =
+		new BooleanValue("trackedlines");
+	
+	/** Were lines past the limit tracked as the method? */
+	protected final BooleanValue limitedlines =
+		new BooleanValue("limitedlines");
+	
+	/** Were lines which were already tracked still used? */
+	protected final BooleanValue keptlines =
+		new BooleanValue("keptlines");
+	
+	/** Were lines not tracked when that is disabled? */
+	protected final BooleanValue nolines =
+		new BooleanValue("nolines");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoLineLimit__(Engine __e)
+	{
+		super(__e, "linelimit");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.trackedlines);
+		super.assertTrue(this.limitedlines);
+		super.assertTrue(this.keptlines);
+		super.assertTrue(this.nolines);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		MethodTracker tracker = new MethodTracker(true, 2);
+		MethodTracker.TrackedMethod method = tracker.track("Squirrel",
+			"climb");
+		
+		MethodTracker.TrackedMethod a = tracker.track(
+				__DoLineLimit__.__element(10)),
+			b = tracker.track(__DoLineLimit__.__element(20));
+		if (a.lineNumber() == 10 && b.lineNumber() == 20 &&
+			a.method() == method && b.method() == method &&
+			a.index() != method.index() && a.index() != b.index())
+			this.trackedlines.set(true);
+		
+		if (tracker.track(__DoLineLimit__.__element(30)) == method)
+			this.limitedlines.set(true);
+		
+		if (tracker.track(__DoLineLimit__.__element(10)) == a)
+			this.keptlines.set(true);
+		
+		if (new MethodTracker(false, 2).track(
+			__DoLineLimit__.__element(10)).lineNumber() < 0)
+			this.nolines.set(true);
+	}
+	
+	/**
+	 * Returns a stack trace element in the same method at the given line.
+	 *
+	 * @param __l The line number.
+	 * @return The stack trace element.
+	 * @since 2019/04/10
+	 */
+	private static final StackTraceElement __element(int __l)
+	{
+		return new StackTraceElement("Squirrel", "climb", "Squirrel.java",
+			__l);
+	}
+}
@@ -0,0 +1,129 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that methods past the limit of the method tracker are all tracked
+ * as the single overflow method.
+ *
+ * @since 2019/04/10
+ */
+public class __DoMethodOverflow__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Were methods before the limit given their own index? */
+	protected final BooleanValue ownindex =
+		new BooleanValue("ownindex");
+	
+	/** Were methods past the limit the overflow method? */
+	protected final BooleanValue overflowed =
+		new BooleanValue("overflowed");
+	
+	/** Was the overflow method shared? */
+	protected final BooleanValue sharedoverflow =
+		new BooleanValue("sharedoverflow");
+	
+	/** Were no more than the maximum number of methods returned? */
+	protected final BooleanValue capped =
+		new BooleanValue("capped");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoMethodOverflow__(Engine __e)
+	{
+		super(__e, "methodoverflow");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.ownindex);
+		super.assertTrue(this.overflowed);
+		super.assertTrue(this.sharedoverflow);
+		super.assertTrue(this.capped);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		MethodTracker tracker = new MethodTracker();
+		
+		// The last index is reserved for the overflow method
+		int max = MethodTracker.MAX_METHODS;
+		for (int i = 0; i < max - 1; i++)
+			tracker.track("Squirrel", "method" + i);
+		
+		MethodTracker.TrackedMethod last =
+			tracker.track("Squirrel", "method" + (max - 2));
+		if (last.index() == max - 2 &&
+			"Squirrel".equals(last.className()) &&
+			tracker.track("Squirrel", "method0").index() == 0)
+			this.ownindex.set(true);
+		
+		MethodTracker.TrackedMethod a = tracker.track("Acorn", "a"),
+			b = tracker.track("Acorn", "b");
+		if (a.index() == max - 1 && "<overflow>".equals(a.className()) &&
+			"<overflow>".equals(a.methodName()))
+			this.overflowed.set(true);
+		
+		if (a == b)
+			this.sharedoverflow.set(true);
+		
+		if (tracker.methods().length == max)
+			this.capped.set(true);
+	}
+}
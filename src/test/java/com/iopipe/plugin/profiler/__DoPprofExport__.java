@@ -0,0 +1,504 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests that pprof profiles can be decoded and contain the samples which
+ * were tracked.
+ *
+ * @since 2019/04/04
+ */
+public class __DoPprofExport__
+	extends Single
+{
+	/** The sample rate which is written. */
+	private static final int _SAMPLE_RATE =
+		1_000_000;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the first string empty? */
+	protected final BooleanValue emptystring =
+		new BooleanValue("emptystring");
+	
+	/** Were the CPU sample types correct? */
+	protected final BooleanValue cputypes =
+		new BooleanValue("cputypes");
+	
+	/** Were the CPU stacks correct? */
+	protected final BooleanValue cpustacks =
+		new BooleanValue("cpustacks");
+	
+	/** Was the wall time correct? */
+	protected final BooleanValue walltime =
+		new BooleanValue("walltime");
+	
+	/** Was the period correct? */
+	protected final BooleanValue period =
+		new BooleanValue("period");
+	
+	/** Were the allocation sample types correct? */
+	protected final BooleanValue alloctypes =
+		new BooleanValue("alloctypes");
+	
+	/** Were the allocated bytes correct? */
+	protected final BooleanValue allocbytes =
+		new BooleanValue("allocbytes");
+	
+	/** Was it known which trackers measured allocations? */
+	protected final BooleanValue allocknown =
+		new BooleanValue("allocknown");
+	
+	/** Were allocations between pauses in sampling not counted? */
+	protected final BooleanValue allocreset =
+		new BooleanValue("allocreset");
+	
+	/** Were the contention sample types correct? */
+	protected final BooleanValue contentiontypes =
+		new BooleanValue("contentiontypes");
+	
+	/** Was the period of each profile the same type as its samples? */
+	protected final BooleanValue periodtypes =
+		new BooleanValue("periodtypes");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/04
+	 */
+	public __DoPprofExport__(Engine __e)
+	{
+		super(__e, "pprofexport");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/04
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.emptystring);
+		super.assertTrue(this.cputypes);
+		super.assertTrue(this.cpustacks);
+		super.assertTrue(this.walltime);
+		super.assertTrue(this.period);
+		super.assertTrue(this.alloctypes);
+		super.assertTrue(this.allocbytes);
+		super.assertTrue(this.allocknown);
+		super.assertTrue(this.allocreset);
+		super.assertTrue(this.contentiontypes);
+		super.assertTrue(this.periodtypes);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/04
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/04
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/04
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		Thread thread = Thread.currentThread();
+		StackTraceElement[] climb = new StackTraceElement[]
+			{
+				new StackTraceElement("Squirrel", "climb", null, -1),
+				new StackTraceElement("Tree", "main", null, -1),
+			},
+			bury = new StackTraceElement[]
+			{
+				new StackTraceElement("Squirrel", "bury", null, -1),
+				new StackTraceElement("Tree", "main", null, -1),
+			};
+		
+		// Time at the top of each stack
+		Tracker tracker = new Tracker();
+		tracker.parseStackTrace(0, 1000, thread, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(1000, 1000, thread, Thread.State.RUNNABLE,
+			climb);
+		tracker.parseStackTrace(2000, 500, thread, Thread.State.RUNNABLE,
+			bury);
+		
+		__Profile__ cpu = new __Profile__(__DoPprofExport__.__export(tracker,
+			__PprofExport__.KIND_CPU));
+		if (cpu.strings.size() > 0 && cpu.strings.get(0).isEmpty())
+			this.emptystring.set(true);
+		if (cpu.types.equals(Arrays.asList("wall", "cpu")))
+			this.cputypes.set(true);
+		
+		Set<List<String>> stacks = new HashSet<>();
+		long wall = 0;
+		for (__Sample__ s : cpu.samples)
+		{
+			stacks.add(s.stack);
+			wall += s.values[0];
+		}
+		if (stacks.equals(new HashSet<>(Arrays.asList(
+			Arrays.asList("Squirrel.climb", "Tree.main"),
+			Arrays.asList("Squirrel.bury", "Tree.main")))))
+			this.cpustacks.set(true);
+		if (wall == 2500)
+			this.walltime.set(true);
+		if (cpu.period == _SAMPLE_RATE)
+			this.period.set(true);
+		
+		// The first sample is only the base for allocations
+		Tracker alloctracker = new Tracker();
+		alloctracker.parseStackTrace(0, 1000, thread, Thread.State.RUNNABLE,
+			climb);
+		TrackedThread tracked = alloctracker.threads()[0];
+		tracked.parseStackTrace(1000, 1000, Thread.State.RUNNABLE, climb, -1,
+			1000);
+		tracked.parseStackTrace(2000, 1000, Thread.State.RUNNABLE, bury, -1,
+			1500);
+		
+		__Profile__ alloc = new __Profile__(__DoPprofExport__.__export(
+			alloctracker, __PprofExport__.KIND_ALLOCATION));
+		if (alloc.types.equals(Arrays.asList("alloc_space")))
+			this.alloctypes.set(true);
+		if (alloc.samples.size() == 1 &&
+			alloc.samples.get(0).values[0] == 500 &&
+			alloc.samples.get(0).stack.equals(
+				Arrays.asList("Squirrel.bury", "Tree.main")))
+			this.allocbytes.set(true);
+		
+		// Only samples from the poller carry the allocated bytes
+		ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(
+			thread.getId(), Integer.MAX_VALUE);
+		Tracker polled = new Tracker();
+		polled.parseStackTrace(0, 1000, thread, info, -1, 0);
+		if (!tracker.hasAllocations() && polled.hasAllocations())
+			this.allocknown.set(true);
+		
+		// After a pause the next sample is only the base again
+		alloctracker.resetBaselines();
+		tracked.parseStackTrace(3000, 1000, Thread.State.RUNNABLE, bury, -1,
+			100_000);
+		alloc = new __Profile__(__DoPprofExport__.__export(alloctracker,
+			__PprofExport__.KIND_ALLOCATION));
+		if (alloc.samples.size() == 1 &&
+			alloc.samples.get(0).values[0] == 500)
+			this.allocreset.set(true);
+		
+		__Profile__ contention = new __Profile__(__DoPprofExport__.__export(
+			tracker, __PprofExport__.KIND_CONTENTION));
+		if (contention.types.equals(Arrays.asList("blocked", "waiting",
+			"io")))
+			this.contentiontypes.set(true);
+		
+		if (cpu.periodtype.equals("wall") &&
+			alloc.periodtype.equals("alloc_space") && alloc.period == 0 &&
+			contention.periodtype.equals("blocked") &&
+			contention.period == _SAMPLE_RATE)
+			this.periodtypes.set(true);
+	}
+	
+	/**
+	 * Exports the given tracker and decompresses it.
+	 *
+	 * @param __t The tracker to export.
+	 * @param __k The kind of profile to export.
+	 * @return The uncompressed profile.
+	 * @throws IOException On read or write errors.
+	 * @since 2019/04/04
+	 */
+	private static final byte[] __export(Tracker __t, int __k)
+		throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new __PprofExport__(__t, 0, _SAMPLE_RATE, __k).run(baos);
+		
+		ByteArrayOutputStream rv = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+			baos.toByteArray())))
+		{
+			byte[] buf = new byte[512];
+			for (int rc; (rc = in.read(buf)) >= 0;)
+				rv.write(buf, 0, rc);
+		}
+		
+		return rv.toByteArray();
+	}
+	
+	/**
+	 * Reads the fields of a message, varints are {@link Long} and length
+	 * delimited fields are {@code byte[]}.
+	 *
+	 * @param __b The message.
+	 * @return The field numbers and values, in order.
+	 * @since 2019/04/04
+	 */
+	private static final List<Object[]> __fields(byte[] __b)
+	{
+		List<Object[]> rv = new ArrayList<>();
+		ByteBuffer buf = ByteBuffer.wrap(__b);
+		while (buf.hasRemaining())
+		{
+			long tag = __DoPprofExport__.__varint(buf);
+			Object value;
+			switch ((int)(tag & 7))
+			{
+				case 0:
+					value = __DoPprofExport__.__varint(buf);
+					break;
+				
+				case 2:
+					byte[] data = new byte[(int)__DoPprofExport__.__varint(
+						buf)];
+					buf.get(data);
+					value = data;
+					break;
+				
+				default:
+					throw new IllegalStateException("Bad wire type " + tag);
+			}
+			
+			rv.add(new Object[]{(int)(tag >>> 3), value});
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Reads the first varint field with the given number.
+	 *
+	 * @param __b The message.
+	 * @param __f The field number.
+	 * @return The value, zero if it is not set.
+	 * @since 2019/04/04
+	 */
+	private static final long __long(byte[] __b, int __f)
+	{
+		for (Object[] f : __DoPprofExport__.__fields(__b))
+			if ((Integer)f[0] == __f)
+				return (Long)f[1];
+		return 0;
+	}
+	
+	/**
+	 * Reads packed varints.
+	 *
+	 * @param __b The packed values.
+	 * @return The values.
+	 * @since 2019/04/04
+	 */
+	private static final long[] __packed(byte[] __b)
+	{
+		List<Long> values = new ArrayList<>();
+		ByteBuffer buf = ByteBuffer.wrap(__b);
+		while (buf.hasRemaining())
+			values.add(__DoPprofExport__.__varint(buf));
+		
+		long[] rv = new long[values.size()];
+		for (int i = 0; i < rv.length; i++)
+			rv[i] = values.get(i);
+		return rv;
+	}
+	
+	/**
+	 * Reads a varint.
+	 *
+	 * @param __b The buffer to read from.
+	 * @return The value.
+	 * @since 2019/04/04
+	 */
+	private static final long __varint(ByteBuffer __b)
+	{
+		long rv = 0;
+		for (int shift = 0;; shift += 7)
+		{
+			int b = __b.get() & 0xFF;
+			rv |= (long)(b & 0x7F) << shift;
+			if (b < 0x80)
+				return rv;
+		}
+	}
+	
+	/**
+	 * A decoded profile.
+	 *
+	 * @since 2019/04/04
+	 */
+	private static final class __Profile__
+	{
+		/** The string table. */
+		final List<String> strings =
+			new ArrayList<>();
+		
+		/** The sample types. */
+		final List<String> types =
+			new ArrayList<>();
+		
+		/** The samples. */
+		final List<__Sample__> samples =
+			new ArrayList<>();
+		
+		/** The period. */
+		final long period;
+		
+		/** The type of the period. */
+		final String periodtype;
+		
+		/**
+		 * Decodes the profile.
+		 *
+		 * @param __b The uncompressed profile.
+		 * @since 2019/04/04
+		 */
+		__Profile__(byte[] __b)
+		{
+			List<Object[]> fields = __DoPprofExport__.__fields(__b);
+			
+			// Strings are last so everything else refers to them later
+			for (Object[] f : fields)
+				if ((Integer)f[0] == 6)
+					this.strings.add(new String((byte[])f[1],
+						StandardCharsets.UTF_8));
+			
+			Map<Long, String> functions = new HashMap<>();
+			Map<Long, Long> locations = new HashMap<>();
+			long period = 0;
+			String periodtype = null;
+			for (Object[] f : fields)
+				switch ((Integer)f[0])
+				{
+					case 1:
+						this.types.add(this.strings.get((int)__DoPprofExport__.
+							__long((byte[])f[1], 1)));
+						break;
+					
+					case 4:
+						for (Object[] l : __DoPprofExport__.__fields(
+							(byte[])f[1]))
+							if ((Integer)l[0] == 4)
+								locations.put(__DoPprofExport__.__long(
+									(byte[])f[1], 1), __DoPprofExport__.
+									__long((byte[])l[1], 1));
+						break;
+					
+					case 5:
+						functions.put(__DoPprofExport__.__long((byte[])f[1],
+							1), this.strings.get((int)__DoPprofExport__.
+							__long((byte[])f[1], 2)));
+						break;
+					
+					case 11:
+						periodtype = this.strings.get((int)__DoPprofExport__.
+							__long((byte[])f[1], 1));
+						break;
+					
+					case 12:
+						period = (Long)f[1];
+						break;
+					
+					default:
+						break;
+				}
+			this.period = period;
+			this.periodtype = periodtype;
+			
+			// Samples refer to locations which refer to functions
+			for (Object[] f : fields)
+				if ((Integer)f[0] == 2)
+				{
+					List<String> stack = new ArrayList<>();
+					long[] values = new long[0];
+					for (Object[] s : __DoPprofExport__.__fields(
+						(byte[])f[1]))
+						if ((Integer)s[0] == 1)
+							for (long l : __DoPprofExport__.__packed(
+								(byte[])s[1]))
+								stack.add(functions.get(locations.get(l)));
+						else if ((Integer)s[0] == 2)
+							values = __DoPprofExport__.__packed(
+								(byte[])s[1]);
+					
+					this.samples.add(new __Sample__(stack, values));
+				}
+		}
+	}
+	
+	/**
+	 * A decoded sample.
+	 *
+	 * @since 2019/04/04
+	 */
+	private static final class __Sample__
+	{
+		/** The names of the functions in the stack, the top first. */
+		final List<String> stack;
+		
+		/** The values. */
+		final long[] values;
+		
+		/**
+		 * Initializes the sample.
+		 *
+		 * @param __s The stack.
+		 * @param __v The values.
+		 * @since 2019/04/04
+		 */
+		__Sample__(List<String> __s, long[] __v)
+		{
+			this.stack = __s;
+			this.values = __v;
+		}
+	}
+}
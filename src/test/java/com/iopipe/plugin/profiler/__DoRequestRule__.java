@@ -0,0 +1,198 @@
+package com.iopipe.plugin.profiler;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.SNSEvent;
+import com.amazonaws.services.lambda.runtime.events.SQSEvent;
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests that requests which ask to be profiled are matched by the rule for
+ * each kind of input.
+ *
+ * @since 2019/04/10
+ */
+public class __DoRequestRule__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Were rules without a key rejected? */
+	protected final BooleanValue nokey =
+		new BooleanValue("nokey");
+	
+	/** Were API Gateway headers matched? */
+	protected final BooleanValue header =
+		new BooleanValue("header");
+	
+	/** Were SNS message attributes matched? */
+	protected final BooleanValue sns =
+		new BooleanValue("sns");
+	
+	/** Were SQS message attributes matched? */
+	protected final BooleanValue sqs =
+		new BooleanValue("sqs");
+	
+	/** Were generic events matched? */
+	protected final BooleanValue map =
+		new BooleanValue("map");
+	
+	/** Was nothing matched when there is no input? */
+	protected final BooleanValue noinput =
+		new BooleanValue("noinput");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoRequestRule__(Engine __e)
+	{
+		super(__e, "requestrule");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.nokey);
+		super.assertTrue(this.header);
+		super.assertTrue(this.sns);
+		super.assertTrue(this.sqs);
+		super.assertTrue(this.map);
+		super.assertTrue(this.noinput);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		int rejected = 0;
+		for (String bad : new String[]{"", " ", "=yes"})
+			try
+			{
+				new __RequestRule__(bad);
+			}
+			catch (IllegalArgumentException e)
+			{
+				rejected++;
+			}
+		if (rejected == 3)
+			this.nokey.set(true);
+		
+		__RequestRule__ any = new __RequestRule__("X-Profile"),
+			yes = new __RequestRule__(" x-profile = yes "),
+			no = new __RequestRule__("x-profile=no"),
+			other = new __RequestRule__("x-acorn");
+		
+		// Headers are not case sensitive
+		APIGatewayProxyRequestEvent request =
+			new APIGatewayProxyRequestEvent();
+		request.setHeaders(Collections.singletonMap("x-PROFILE", "yes"));
+		if (any.matches(request) && yes.matches(request) &&
+			!no.matches(request) && !other.matches(request) &&
+			!any.matches(new APIGatewayProxyRequestEvent()))
+			this.header.set(true);
+		
+		// Only one of the messages needs to have the attribute
+		SNSEvent.MessageAttribute snsattr = new SNSEvent.MessageAttribute();
+		snsattr.setType("String");
+		snsattr.setValue("yes");
+		SNSEvent.SNS snsbare = new SNSEvent.SNS(),
+			snsasked = new SNSEvent.SNS();
+		snsasked.setMessageAttributes(
+			Collections.singletonMap("x-profile", snsattr));
+		SNSEvent.SNSRecord snsa = new SNSEvent.SNSRecord(),
+			snsb = new SNSEvent.SNSRecord();
+		snsa.setSns(snsbare);
+		snsb.setSns(snsasked);
+		SNSEvent snsevent = new SNSEvent();
+		snsevent.setRecords(Arrays.asList(snsa, snsb));
+		if (any.matches(snsevent) && yes.matches(snsevent) &&
+			!no.matches(snsevent) && !other.matches(snsevent) &&
+			!any.matches(new SNSEvent()))
+			this.sns.set(true);
+		
+		SQSEvent.MessageAttribute sqsattr = new SQSEvent.MessageAttribute();
+		sqsattr.setDataType("String");
+		sqsattr.setStringValue("yes");
+		SQSEvent.SQSMessage sqsa = new SQSEvent.SQSMessage(),
+			sqsb = new SQSEvent.SQSMessage();
+		sqsb.setMessageAttributes(
+			Collections.singletonMap("X-Profile", sqsattr));
+		SQSEvent sqsevent = new SQSEvent();
+		sqsevent.setRecords(Arrays.asList(sqsa, sqsb));
+		if (any.matches(sqsevent) && yes.matches(sqsevent) &&
+			!no.matches(sqsevent) && !other.matches(sqsevent) &&
+			!any.matches(new SQSEvent()))
+			this.sqs.set(true);
+		
+		// Generic events are checked at the top level and in their headers
+		Map<String, Object> top = new HashMap<>();
+		top.put("x-profile", "yes");
+		Map<String, Object> nested = new HashMap<>();
+		nested.put("headers", Collections.singletonMap("X-Profile", "yes"));
+		Map<String, Object> number = new HashMap<>();
+		number.put("x-acorn", 3);
+		if (any.matches(top) && yes.matches(top) && !no.matches(top) &&
+			any.matches(nested) && yes.matches(nested) &&
+			!no.matches(nested) && !other.matches(nested) &&
+			other.matches(number) &&
+			new __RequestRule__("x-acorn=3").matches(number) &&
+			!any.matches("x-profile"))
+			this.map.set(true);
+		
+		if (!any.matches(null))
+			this.noinput.set(true);
+	}
+}
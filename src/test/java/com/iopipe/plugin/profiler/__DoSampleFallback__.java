@@ -0,0 +1,202 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that the poller keeps sampling each thread on its own when the
+ * stacks of every thread cannot be sampled at once.
+ *
+ * @since 2019/04/11
+ */
+public class __DoSampleFallback__
+	extends Single
+{
+	/** How long the threads are polled for in milliseconds. */
+	private static final long _POLL_TIME =
+		250;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was sampling every thread at once tried only once? */
+	protected final BooleanValue fellback =
+		new BooleanValue("fellback");
+	
+	/** Did the poller keep running without failing? */
+	protected final BooleanValue survived =
+		new BooleanValue("survived");
+	
+	/** Was the method the running thread was in seen? */
+	protected final BooleanValue spinning =
+		new BooleanValue("spinning");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/11
+	 */
+	public __DoSampleFallback__(Engine __e)
+	{
+		super(__e, "samplefallback");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/11
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.fellback);
+		super.assertTrue(this.survived);
+		super.assertTrue(this.spinning);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/11
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/11
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/11
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// The bean works except that it cannot sample many threads at once
+		ThreadMXBean real = ManagementFactory.getThreadMXBean();
+		AtomicInteger batches = new AtomicInteger();
+		ThreadMXBean bean = (ThreadMXBean)Proxy.newProxyInstance(
+			ThreadMXBean.class.getClassLoader(),
+			new Class<?>[]{ThreadMXBean.class}, (__p, __m, __a) ->
+				{
+					if ("getThreadInfo".equals(__m.getName()) &&
+						Arrays.equals(__m.getParameterTypes(),
+						new Class<?>[]{long[].class, int.class}))
+					{
+						batches.incrementAndGet();
+						throw new UnsupportedOperationException();
+					}
+					
+					try
+					{
+						return __m.invoke(real, __a);
+					}
+					catch (InvocationTargetException e)
+					{
+						throw e.getCause();
+					}
+				});
+		
+		AtomicBoolean stop = new AtomicBoolean();
+		ThreadGroup group = new ThreadGroup("squirrels");
+		Thread spinner = new Thread(group, () ->
+			{
+				while (!stop.get())
+					__DoSampleFallback__.__spin();
+			}, "spinner");
+		spinner.start();
+		
+		Tracker tracker = new Tracker();
+		__Poller__ poller = new __Poller__(tracker, group,
+			ProfilerExecution.SAMPLE_RATE, null, 0, bean);
+		AtomicReference<Throwable> failed = new AtomicReference<>();
+		Thread pollthread = new Thread(poller, "poller");
+		pollthread.setUncaughtExceptionHandler((__t, __x) -> failed.set(__x));
+		pollthread.start();
+		
+		Thread.sleep(_POLL_TIME);
+		
+		boolean alive = pollthread.isAlive();
+		poller._stop.set(true);
+		stop.set(true);
+		for (Thread thread : new Thread[]{pollthread, spinner})
+			thread.join();
+		
+		if (batches.get() == 1)
+			this.fellback.set(true);
+		
+		if (alive && failed.get() == null)
+			this.survived.set(true);
+		
+		for (TrackedThread thread : tracker.threads())
+			if ("spinner".equals(thread.name()) &&
+				__DoSampleFallback__.__find(thread.subNodes(), "__spin"))
+				this.spinning.set(true);
+	}
+	
+	/**
+	 * Checks if a method with the given name is anywhere in the tree.
+	 *
+	 * @param __n The nodes to search.
+	 * @param __m The method name.
+	 * @return If the method was found.
+	 * @since 2019/04/11
+	 */
+	private static final boolean __find(TrackedThread.Node[] __n, String __m)
+	{
+		for (TrackedThread.Node node : __n)
+			if (__m.equals(node.method().methodName()) ||
+				__DoSampleFallback__.__find(node.subNodes(), __m))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Keeps the processor busy.
+	 *
+	 * @since 2019/04/11
+	 */
+	private static final void __spin()
+	{
+		long x = System.nanoTime();
+		for (int i = 0; i < 10_000; i++)
+			x = (x * 31) ^ i;
+		if (x == 42)
+			Thread.yield();
+	}
+}
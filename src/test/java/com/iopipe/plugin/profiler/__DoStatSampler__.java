@@ -0,0 +1,136 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+import java.util.List;
+
+/**
+ * Tests that statistics are snapshotted during execution and that only the
+ * most recent snapshots are kept.
+ *
+ * @since 2019/04/09
+ */
+public class __DoStatSampler__
+	extends Single
+{
+	/** The interval between snapshots in nanoseconds. */
+	private static final long _INTERVAL =
+		2_000_000L;
+	
+	/** The number of snapshots to keep. */
+	private static final int _CAPACITY =
+		4;
+	
+	/** How long snapshots are taken for in milliseconds. */
+	private static final long _RUN_TIME =
+		500;
+	
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the number of snapshots bounded? */
+	protected final BooleanValue bounded =
+		new BooleanValue("bounded");
+	
+	/** Were the snapshots oldest first and after the base time? */
+	protected final BooleanValue ordered =
+		new BooleanValue("ordered");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/09
+	 */
+	public __DoStatSampler__(Engine __e)
+	{
+		super(__e, "statsampler");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.bounded);
+		super.assertTrue(this.ordered);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/09
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		long basetime = System.nanoTime();
+		__StatSampler__ sampler = new __StatSampler__(basetime, _INTERVAL,
+			_CAPACITY);
+		Thread thread = new Thread(sampler, "statsampler");
+		thread.start();
+		
+		// Far more snapshots are taken than are kept
+		Thread.sleep(_RUN_TIME);
+		
+		sampler._stop.set(true);
+		thread.join();
+		
+		List<ManagementStatistics> snapshots = sampler.snapshots();
+		if (snapshots.size() == _CAPACITY)
+			this.bounded.set(true);
+		
+		boolean ordered = !snapshots.isEmpty();
+		long last = basetime,
+			lastrel = 0;
+		for (ManagementStatistics stats : snapshots)
+		{
+			if (stats.abstime <= last || stats.reltime <= lastrel ||
+				stats.reltime > stats.abstime - basetime)
+				ordered = false;
+			last = stats.abstime;
+			lastrel = stats.reltime;
+		}
+		if (ordered)
+			this.ordered.set(true);
+	}
+}
@@ -0,0 +1,143 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that when the CPU time of a thread is known only the time it
+ * actually ran counts as CPU time, even if it was runnable.
+ *
+ * @since 2019/04/06
+ */
+public class __DoThreadCPUTime__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Was the first sample all CPU time since there is no base? */
+	protected final BooleanValue first =
+		new BooleanValue("first");
+	
+	/** Was a runnable thread in native code mostly asleep? */
+	protected final BooleanValue blocked =
+		new BooleanValue("blocked");
+	
+	/** Was the CPU time capped to the wall time? */
+	protected final BooleanValue capped =
+		new BooleanValue("capped");
+	
+	/** Was all runnable time CPU time when the CPU time is not known? */
+	protected final BooleanValue unknown =
+		new BooleanValue("unknown");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/06
+	 */
+	public __DoThreadCPUTime__(Engine __e)
+	{
+		super(__e, "threadcputime");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.first);
+		super.assertTrue(this.blocked);
+		super.assertTrue(this.capped);
+		super.assertTrue(this.unknown);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/06
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		// A thread reading from a socket is runnable but barely uses the CPU
+		Thread reader = new Thread("reader");
+		StackTraceElement[] read = new StackTraceElement[]{
+			new StackTraceElement("SocketInputStream", "socketRead0", null,
+				-2),
+			new StackTraceElement("Client", "main", null, -1)};
+		TrackedThread thread = new TrackedThread(reader, 0,
+			new MethodTracker());
+		
+		// There is nothing to compare the first CPU time against
+		thread.parseStackTrace(0, 1000, Thread.State.RUNNABLE, read, 0, -1);
+		TrackedThread.Node top = thread.subNodes()[0].subNodes()[0];
+		if (thread.wholeGraphTime() == 1000 &&
+			thread.wholeGraphSleepTime() == 0)
+			this.first.set(true);
+		
+		// Only 100 of the 1000 nanoseconds were spent running
+		thread.parseStackTrace(1000, 1000, Thread.State.RUNNABLE, read,
+			100, -1);
+		if (thread.wholeGraphTime() == 1100 &&
+			thread.wholeGraphSleepTime() == 900 &&
+			thread.wholeGraphAbsoluteTime() == 2000 &&
+			top.timeCPU().self() == 1100 &&
+			top.timeGraph().self() == 2000)
+			this.blocked.set(true);
+		
+		// A thread cannot use more CPU time than the time which passed
+		thread.parseStackTrace(2000, 1000, Thread.State.RUNNABLE, read,
+			5000, -1);
+		if (thread.wholeGraphTime() == 2100 &&
+			top.timeCPU().self() == 2100)
+			this.capped.set(true);
+		
+		// Without the CPU time all runnable time is on the processor
+		thread.parseStackTrace(3000, 500, Thread.State.RUNNABLE, read, -1, -1);
+		if (thread.wholeGraphTime() == 2600 &&
+			thread.wholeGraphSleepTime() == 900 &&
+			top.timeCPU().self() == 2600)
+			this.unknown.set(true);
+	}
+}
@@ -0,0 +1,138 @@
+package com.iopipe.plugin.profiler;
+
+import com.iopipe.BooleanValue;
+import com.iopipe.Engine;
+import com.iopipe.IOpipeExecution;
+import com.iopipe.Single;
+import com.iopipe.StandardPushEvent;
+import com.iopipe.WrappedRequest;
+import com.iopipe.WrappedResult;
+
+/**
+ * Tests that threads outside of the execution are matched by the patterns
+ * of their names and groups.
+ *
+ * @since 2019/04/10
+ */
+public class __DoThreadFilter__
+	extends Single
+{
+	/** Got a result from the server okay? */
+	protected final BooleanValue remoterecvokay =
+		new BooleanValue("remoterecvokay");
+	
+	/** Sent with no exception? */
+	protected final BooleanValue noerror =
+		new BooleanValue("noerror");
+	
+	/** Did an empty filter match nothing? */
+	protected final BooleanValue empty =
+		new BooleanValue("empty");
+	
+	/** Did the filter for all threads match everything? */
+	protected final BooleanValue all =
+		new BooleanValue("all");
+	
+	/** Were thread names matched? */
+	protected final BooleanValue names =
+		new BooleanValue("names");
+	
+	/** Were thread group names matched? */
+	protected final BooleanValue groups =
+		new BooleanValue("groups");
+	
+	/** Were pattern characters other than the wildcard matched exactly? */
+	protected final BooleanValue exact =
+		new BooleanValue("exact");
+	
+	/**
+	 * Constructs the test.
+	 *
+	 * @param __e The owning engine.
+	 * @since 2019/04/10
+	 */
+	public __DoThreadFilter__(Engine __e)
+	{
+		super(__e, "threadfilter");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void end()
+	{
+		super.assertTrue(this.remoterecvokay);
+		super.assertTrue(this.noerror);
+		super.assertTrue(this.empty);
+		super.assertTrue(this.all);
+		super.assertTrue(this.names);
+		super.assertTrue(this.groups);
+		super.assertTrue(this.exact);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteRequest(WrappedRequest __r)
+	{
+		StandardPushEvent event = (StandardPushEvent)__r.event;
+		
+		if (!event.hasError())
+			this.noerror.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void remoteResult(WrappedResult __r)
+	{
+		int code = __r.result.code();
+		if (code >= 200 && code < 300)
+			this.remoterecvokay.set(true);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @since 2019/04/10
+	 */
+	@Override
+	public void run(IOpipeExecution __e)
+		throws Throwable
+	{
+		__ThreadFilter__ none = new __ThreadFilter__(false, " , ", null);
+		if (none.isEmpty() && !none.matches("main", "main"))
+			this.empty.set(true);
+		
+		if (!__ThreadFilter__.ALL.isEmpty() &&
+			__ThreadFilter__.ALL.matches("main", "main") &&
+			__ThreadFilter__.ALL.matches(null, null))
+			this.all.set(true);
+		
+		// Patterns must match the whole name
+		__ThreadFilter__ filter = new __ThreadFilter__(false,
+			"pool-*-thread-*, main", "http-*");
+		if (!filter.isEmpty() && filter.matches("pool-1-thread-3", null) &&
+			filter.matches("main", "system") &&
+			!filter.matches("mainly", null) &&
+			!filter.matches("my-pool-1-thread-3", null) &&
+			!filter.matches(null, null))
+			this.names.set(true);
+		
+		if (filter.matches("Thread-7", "http-client") &&
+			filter.matches(null, "http-") &&
+			!filter.matches("Thread-7", "system") &&
+			!filter.matches("http-client", null))
+			this.groups.set(true);
+		
+		__ThreadFilter__ dots = new __ThreadFilter__(false, "a.b*", null);
+		if (dots.matches("a.b", null) && dots.matches("a.bc", null) &&
+			!dots.matches("axb", null))
+			this.exact.set(true);
+	}
+}